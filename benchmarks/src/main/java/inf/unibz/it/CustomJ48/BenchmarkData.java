@@ -0,0 +1,191 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import inf.unibz.it.CustomJ48.CustomJ48.InputFormat;
+import weka.core.Instances;
+
+/**
+ * Data sets used by the benchmarks: the ones bundled with CustomJ48, scaled up
+ * repeating their instances, and a synthetic one with numeric and nominal
+ * attributes, empty strings and missing values, scaled up generating more
+ * instances.
+ */
+public class BenchmarkData {
+
+	// Name of the synthetic data set, in the same parameter of the bundled ones
+	static final String SYNTHETIC = "synthetic.csv";
+
+	// Number of instances of the synthetic data set before scaling it up
+	private static final int SYNTHETIC_INSTANCES = 10000;
+
+	private static final int NUMERIC_ATTRIBUTES = 8;
+	private static final int NOMINAL_ATTRIBUTES = 8;
+
+	/**
+	 * Gets the bytes of a data set
+	 *
+	 * @param name  the name of a bundled data set, or {@link #SYNTHETIC}
+	 * @param scale how many times the data set is scaled up
+	 * @return the data set, as it would be read from a file
+	 * @throws IOException if the bundled data set cannot be read
+	 */
+	public static byte[] load(String name, int scale) throws IOException {
+
+		if (name.equals(SYNTHETIC))
+			return synthetic(SYNTHETIC_INSTANCES * scale, 42);
+
+		InputStream in = BenchmarkData.class.getResourceAsStream("/datasets/" + name);
+
+		if (in == null)
+			throw new IOException("Unknown data set: " + name);
+
+		String text;
+
+		try {
+			text = new String(CustomJ48.readAll(in), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+
+		if (!text.endsWith("\n"))
+			text += "\n";
+
+		// the header is kept once, the instances are repeated
+		int dataStart;
+
+		if (format(name) == InputFormat.ARFF) {
+			int data = text.toLowerCase().indexOf("@data");
+			dataStart = text.indexOf('\n', data) + 1;
+		} else {
+			dataStart = text.indexOf('\n') + 1;
+		}
+
+		StringBuilder scaled = new StringBuilder(text.length() * scale);
+		scaled.append(text, 0, dataStart);
+
+		for (int i = 0; i < scale; i++)
+			scaled.append(text, dataStart, text.length());
+
+		return scaled.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the format of a data set from its name
+	 *
+	 * @param name the name of the data set
+	 * @return the format of the data set
+	 */
+	public static InputFormat format(String name) {
+		return name.endsWith(".arff") ? InputFormat.ARFF : InputFormat.CSV;
+	}
+
+	/**
+	 * Gets whether the empty strings of a data set are replaced, as the command
+	 * line does only for the CSV data sets
+	 *
+	 * @param name    the name of the data set
+	 * @param replace whether the replacement is asked
+	 * @return whether the empty strings are replaced
+	 */
+	public static boolean replace(String name, boolean replace) {
+		return replace && format(name) == InputFormat.CSV;
+	}
+
+	/**
+	 * Reads and prepares a data set for the tree, as the command line does
+	 *
+	 * @param name    the name of the data set
+	 * @param scale   how many times the data set is scaled up
+	 * @param replace whether the empty strings are replaced
+	 * @return the prepared data set
+	 * @throws Exception if the data set cannot be read
+	 */
+	public static Instances prepare(String name, int scale, boolean replace) throws Exception {
+
+		byte[] bytes = load(name, scale);
+		Instances data = CustomJ48.readDataSet(new ByteArrayInputStream(bytes), format(name),
+				replace(name, replace));
+
+		return CustomJ48.prepareDataSet(data);
+	}
+
+	/**
+	 * Creates a stream discarding what is written, so the exports are measured
+	 * without the cost of a file
+	 *
+	 * @return the stream
+	 */
+	public static PrintStream discard() {
+		return new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+	}
+
+	/**
+	 * Generates a synthetic CSV data set, whose class depends on a few of the
+	 * attributes with some noise, so the tree has many levels
+	 */
+	private static byte[] synthetic(int instances, long seed) {
+
+		Random random = new Random(seed);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+
+		StringBuilder line = new StringBuilder();
+
+		for (int i = 0; i < NUMERIC_ATTRIBUTES; i++)
+			line.append("num").append(i).append(',');
+		for (int i = 0; i < NOMINAL_ATTRIBUTES; i++)
+			line.append("nom").append(i).append(',');
+		line.append("class");
+		out.println(line);
+
+		double[] numeric = new double[NUMERIC_ATTRIBUTES];
+		int[] nominal = new int[NOMINAL_ATTRIBUTES];
+
+		for (int n = 0; n < instances; n++) {
+
+			line.setLength(0);
+
+			for (int i = 0; i < NUMERIC_ATTRIBUTES; i++) {
+				numeric[i] = Math.round(random.nextGaussian() * 1000) / 100.0;
+				if (random.nextInt(100) == 0) // missing value
+					line.append("?,");
+				else
+					line.append(numeric[i]).append(',');
+			}
+
+			for (int i = 0; i < NOMINAL_ATTRIBUTES; i++) {
+				nominal[i] = random.nextInt(3 + i * 2); // from 3 to 17 values
+				if (random.nextInt(50) == 0) // empty string, a value only if replaced
+					line.append(',');
+				else
+					line.append("v").append(nominal[i]).append(',');
+			}
+
+			double score = numeric[0] - numeric[1] / 2 + (nominal[0] == 0 ? 5 : 0) + (nominal[1] % 3) * 2
+					+ random.nextGaussian() * 2;
+
+			line.append(score > 3 ? "high" : score > -3 ? "medium" : "low");
+			out.println(line);
+		}
+
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+}
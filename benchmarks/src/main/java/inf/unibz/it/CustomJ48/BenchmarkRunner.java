@@ -0,0 +1,32 @@
+package inf.unibz.it.CustomJ48;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the options of the JMH command line, always adding
+ * the GC profiler, so the allocation rate of every benchmark is reported next
+ * to its time
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+
+		Options options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build();
+
+		if (commandLine.shouldList()) // only the names of the benchmarks
+			new Runner(options).list();
+		else
+			new Runner(options).run();
+	}
+}
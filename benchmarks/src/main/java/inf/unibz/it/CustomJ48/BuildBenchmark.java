@@ -0,0 +1,60 @@
+package inf.unibz.it.CustomJ48;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Benchmark of the building of the tree from a prepared data set, with the
+ * options used by {@link CustomJ48}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildBenchmark {
+
+	@Param({ "iris.arff", "soybean.arff", "german_credit_data.csv", "trainingData.csv", BenchmarkData.SYNTHETIC })
+	public String dataSet;
+
+	@Param({ "1", "10" })
+	public int scale;
+
+	private Instances data;
+
+	@Setup
+	public void setUp() throws Exception {
+		data = BenchmarkData.prepare(dataSet, scale, false);
+	}
+
+	/**
+	 * Builds the tree, which copies the data set before changing it
+	 *
+	 * @return the built tree
+	 * @throws Exception if the tree cannot be built
+	 */
+	@Benchmark
+	public CustomJ48Tree buildClassifier() throws Exception {
+
+		CustomJ48Tree tree = new CustomJ48Tree();
+		tree.setOptions(Utils.splitOptions(CustomJ48.TREE_OPTIONS));
+		tree.buildClassifier(data);
+
+		return tree;
+	}
+}
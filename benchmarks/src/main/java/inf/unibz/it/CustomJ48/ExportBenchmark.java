@@ -0,0 +1,83 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Utils;
+
+/**
+ * Benchmarks of the exports of a built tree, written to a stream discarding
+ * them. The tree is built from the data set with the empty strings replaced
+ * when the replacement is measured, as the command line does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+	@Param({ "iris.arff", "soybean.arff", "german_credit_data.csv", "trainingData.csv", BenchmarkData.SYNTHETIC })
+	public String dataSet;
+
+	@Param({ "1", "10" })
+	public int scale;
+
+	@Param({ "false", "true" })
+	public boolean pruning;
+
+	@Param({ "false", "true" })
+	public boolean replace;
+
+	private CustomJ48Tree tree;
+	private boolean replaceEmptyStrings;
+	private PrintStream console;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		replaceEmptyStrings = BenchmarkData.replace(dataSet, replace);
+
+		tree = new CustomJ48Tree();
+		tree.setOptions(Utils.splitOptions(CustomJ48.TREE_OPTIONS));
+		tree.buildClassifier(BenchmarkData.prepare(dataSet, scale, replace));
+
+		// every export prints a message when it is completed
+		console = System.out;
+		System.setOut(BenchmarkData.discard());
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(console);
+	}
+
+	@Benchmark
+	public void dotExport() {
+		tree.dotExport(BenchmarkData.discard(), pruning, replaceEmptyStrings);
+	}
+
+	@Benchmark
+	public void JSONExport() {
+		tree.JSONExport(BenchmarkData.discard(), pruning, replaceEmptyStrings);
+	}
+
+	@Benchmark
+	public void exportGraphML() throws Exception {
+		tree.exportGraphML(BenchmarkData.discard(), pruning, replaceEmptyStrings);
+	}
+}
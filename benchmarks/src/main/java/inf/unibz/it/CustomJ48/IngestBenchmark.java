@@ -0,0 +1,103 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import inf.unibz.it.CustomJ48.CustomJ48.InputFormat;
+import weka.core.Instances;
+
+/**
+ * Benchmarks of the reading of a data set: the pre-processing done by the
+ * {@link DataSetReader}, the parsing by the CSV or ARFF loader and the
+ * conversion of the string attributes to nominal ones
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+	@Param({ "iris.arff", "soybean.arff", "german_credit_data.csv", "trainingData.csv", BenchmarkData.SYNTHETIC })
+	public String dataSet;
+
+	@Param({ "1", "10" })
+	public int scale;
+
+	@Param({ "false", "true" })
+	public boolean replace;
+
+	private byte[] bytes;
+	private InputFormat format;
+	private boolean replaceEmptyStrings;
+	private Instances loaded;
+
+	@Setup
+	public void setUp() throws Exception {
+		bytes = BenchmarkData.load(dataSet, scale);
+		format = BenchmarkData.format(dataSet);
+		replaceEmptyStrings = BenchmarkData.replace(dataSet, replace);
+		loaded = CustomJ48.readDataSet(new ByteArrayInputStream(bytes), format, replaceEmptyStrings);
+	}
+
+	/**
+	 * Pre-processes the data set line by line, without parsing it
+	 *
+	 * @return the number of characters read
+	 * @throws IOException if the data set cannot be read
+	 */
+	@Benchmark
+	public long read() throws IOException {
+
+		DataSetReader reader = new DataSetReader(new ByteArrayInputStream(bytes), replaceEmptyStrings);
+		char[] buffer = new char[8192];
+		long total = 0;
+		int read;
+
+		try {
+			while ((read = reader.read(buffer, 0, buffer.length)) > 0)
+				total += read;
+		} finally {
+			reader.close();
+		}
+
+		return total;
+	}
+
+	/**
+	 * Pre-processes and parses the data set, as {@link CustomJ48} does
+	 *
+	 * @return the instances
+	 * @throws Exception if the data set cannot be parsed
+	 */
+	@Benchmark
+	public Instances load() throws Exception {
+		return CustomJ48.readDataSet(new ByteArrayInputStream(bytes), format, replaceEmptyStrings);
+	}
+
+	/**
+	 * Converts the string attributes of the parsed data set to nominal ones, if
+	 * any: the CSV data sets are already loaded with nominal attributes
+	 *
+	 * @return the converted instances
+	 * @throws Exception if the data set cannot be filtered
+	 */
+	@Benchmark
+	public Instances stringToNominal() throws Exception {
+		return CustomJ48.prepareDataSet(loaded);
+	}
+}
@@ -0,0 +1,408 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import inf.unibz.it.CustomJ48.CustomJ48.ExportFormat;
+import weka.core.Instances;
+
+/**
+ * Builder and exporter of the trees of many data sets, given by a directory or
+ * a glob. Every data set is read, converted, built and exported on its own by a
+ * worker of a bounded pool, writing an output per export format named after
+ * the data set. A data set failing does not stop the others: the failures are
+ * collected together with the timings of every data set in a report, printed at
+ * the end.
+ */
+public class BatchBuilder {
+
+	private final List<ExportFormat> exports;
+	private final File outputDirectory;
+	private final boolean pruning;
+	private final boolean replace;
+	private final CustomJ48Tree.NodePayload payload;
+	private final boolean shared;
+	private final int threads;
+
+	/**
+	 * Creates a batch builder
+	 *
+	 * @param exports         the formats every tree is exported to
+	 * @param outputDirectory the directory of the outputs, null to write them
+	 *                        next to their data sets
+	 * @param pruning         whether we are pruning branches reached by no
+	 *                        instances
+	 * @param replace         whether empty strings are replaced in the CSV data
+	 *                        sets
+	 * @param payload         the information attached to the nodes in the dot
+	 *                        format
+	 * @param shared          whether identical subtrees are written once in the
+	 *                        dot and JSON formats
+	 * @param threads         the number of data sets processed at the same time
+	 */
+	public BatchBuilder(List<ExportFormat> exports, File outputDirectory, boolean pruning, boolean replace,
+			CustomJ48Tree.NodePayload payload, boolean shared, int threads) {
+		this.exports = exports;
+		this.outputDirectory = outputDirectory;
+		this.pruning = pruning;
+		this.replace = replace;
+		this.payload = payload;
+		this.shared = shared;
+		this.threads = threads;
+	}
+
+	/**
+	 * Finds the data sets to process, sorted by path
+	 *
+	 * @param pattern a directory, whose CSV and ARFF files, compressed or not, are
+	 *                taken, or a glob like datasets/*.csv, where ** also
+	 *                matches the subdirectories
+	 * @return the files of the data sets
+	 * @throws IOException if the directories cannot be listed
+	 */
+	public static List<File> findDataSets(String pattern) throws IOException {
+
+		List<File> files = new ArrayList<File>();
+		File directory = new File(pattern);
+
+		if (directory.isDirectory()) {
+
+			File[] found = directory.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File file) {
+					return file.isFile() && CustomJ48.isDataSetFile(file.getName());
+				}
+			});
+
+			if (found == null)
+				throw new IOException("The directory cannot be listed: " + directory);
+
+			Collections.addAll(files, found);
+
+		} else {
+
+			// the glob is walked from its longest directory without special characters
+			String[] parts = pattern.replace(File.separatorChar, '/').split("/", -1);
+			StringBuilder base = new StringBuilder();
+			int depth = 0;
+
+			for (int i = 0; i < parts.length; i++) {
+				if (depth > 0 || parts[i].matches(".*[*?\\[{].*"))
+					depth++;
+				else if (i < parts.length - 1)
+					base.append(parts[i]).append('/');
+			}
+
+			Path start = Paths.get(base.length() == 0 ? "." : base.toString());
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+			if (!Files.isDirectory(start))
+				throw new IOException("The directory of the data sets does not exist: " + start);
+
+			// without a base the paths are relative, as in the glob
+			boolean relative = base.length() == 0;
+
+			try (Stream<Path> paths = Files.walk(start, pattern.contains("**") ? Integer.MAX_VALUE : Math.max(depth, 1))) {
+				Iterator<Path> iterator = paths.iterator();
+				while (iterator.hasNext()) {
+					Path path = iterator.next();
+					if (relative)
+						path = start.relativize(path);
+					if (Files.isRegularFile(path) && matcher.matches(path))
+						files.add(path.toFile());
+				}
+			}
+		}
+
+		Collections.sort(files);
+
+		return files;
+	}
+
+	/**
+	 * Processes the data sets, waiting for all of them to be completed
+	 *
+	 * @param dataSets the files of the data sets
+	 * @return the report of the processed data sets, in the same order
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public Report process(List<File> dataSets) throws InterruptedException {
+
+		long start = System.nanoTime();
+		List<Result> results = new ArrayList<Result>();
+		final Map<File, String> names = outputNames(dataSets);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		try {
+			List<Future<Result>> tasks = new ArrayList<Future<Result>>();
+
+			for (final File dataSet : dataSets) {
+				tasks.add(pool.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return process(dataSet, names.get(dataSet));
+					}
+				}));
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					results.add(tasks.get(i).get());
+				} catch (ExecutionException e) { // every error is already caught by the task
+					Result result = new Result(dataSets.get(i));
+					result.error = String.valueOf(e.getCause());
+					results.add(result);
+				}
+			}
+
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return new Report(results, (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Gets the names of the outputs of the data sets, without the extension of
+	 * the export format. The outputs are named after the data sets without their
+	 * extension, unless two data sets would write the same outputs, like
+	 * iris.csv and iris.arff.
+	 */
+	private Map<File, String> outputNames(List<File> dataSets) {
+
+		Map<File, Integer> written = new HashMap<File, Integer>(); // the data sets writing every output
+
+		for (File dataSet : dataSets) {
+			File output = new File(outputDirectory(dataSet), baseName(dataSet));
+			written.put(output, written.containsKey(output) ? written.get(output) + 1 : 1);
+		}
+
+		Map<File, String> names = new HashMap<File, String>();
+
+		for (File dataSet : dataSets) {
+			boolean shared = written.get(new File(outputDirectory(dataSet), baseName(dataSet))) > 1;
+			names.put(dataSet, shared ? dataSet.getName() : baseName(dataSet));
+		}
+
+		return names;
+	}
+
+	/**
+	 * Reads, builds and exports a single data set
+	 */
+	private Result process(File dataSet, String name) {
+
+		Result result = new Result(dataSet);
+
+		try {
+			long start = System.nanoTime();
+
+			RunStats.Phase phase = RunStats.start("read");
+			Instances data = CustomJ48.readDataSet(dataSet, replace); // only CSV data sets have empty strings replaced
+			phase.data(data).end();
+
+			result.instances = data.numInstances();
+
+			long read = System.nanoTime();
+
+			CustomJ48Tree tree = CustomJ48.buildTree(data, 1); // the data sets are already processed in parallel
+			tree.setNodePayload(payload);
+			tree.setSharedSubtrees(shared);
+
+			result.nodes = (int) tree.measureTreeSize();
+
+			long built = System.nanoTime();
+
+			for (ExportFormat export : exports) {
+
+				File output = outputFile(dataSet, name, export);
+				PrintStream writer = new PrintStream(output, "UTF-8");
+
+				if (export == ExportFormat.JAVA) // the class is named after its file, so it can be compiled
+					tree.javaExport(writer, pruning, replace, className(name));
+				else
+					CustomJ48.export(tree, export, writer, pruning, replace);
+
+				if (writer.checkError()) // the exports report their errors without throwing them
+					throw new IOException("The output cannot be written: " + output);
+			}
+
+			long exported = System.nanoTime();
+
+			result.readMillis = (read - start) / 1000000;
+			result.buildMillis = (built - read) / 1000000;
+			result.exportMillis = (exported - built) / 1000000;
+
+		} catch (Exception e) {
+			result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the output of a data set in an export format, with the extension of
+	 * the format
+	 */
+	private File outputFile(File dataSet, String name, ExportFormat export) {
+
+		String extension = export.name().toLowerCase(Locale.ROOT);
+
+		return new File(outputDirectory(dataSet), (export == ExportFormat.JAVA ? className(name) : name) + "." + extension);
+	}
+
+	/**
+	 * Gets the directory of the outputs of a data set
+	 */
+	private File outputDirectory(File dataSet) {
+		return outputDirectory != null ? outputDirectory : dataSet.getAbsoluteFile().getParentFile();
+	}
+
+	/**
+	 * Gets the name of a data set without its extension, and the one of its
+	 * compression
+	 */
+	private static String baseName(File dataSet) {
+
+		String name = CompressedFiles.getUncompressedName(dataSet.getName());
+		int dot = name.lastIndexOf('.');
+
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * Gets the name of a Java class exported with the given name, replacing the
+	 * characters not allowed in a class name with underscores
+	 */
+	private static String className(String name) {
+
+		StringBuilder className = new StringBuilder();
+
+		for (char c : name.toCharArray())
+			className.append(Character.isJavaIdentifierPart(c) ? c : '_');
+
+		if (className.length() == 0 || !Character.isJavaIdentifierStart(className.charAt(0)))
+			className.insert(0, '_');
+
+		return className.toString();
+	}
+
+	/**
+	 * The outcome of a single data set, with the time of every step
+	 */
+	public static class Result {
+
+		private final File dataSet;
+		private int instances;
+		private int nodes;
+		private long readMillis;
+		private long buildMillis;
+		private long exportMillis;
+		private String error; // null if the data set has been processed
+
+		private Result(File dataSet) {
+			this.dataSet = dataSet;
+		}
+
+		public File getDataSet() {
+			return dataSet;
+		}
+
+		public boolean isFailed() {
+			return error != null;
+		}
+
+		public String getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * The report of a batch, listing every data set with its timings and then the
+	 * failures
+	 */
+	public static class Report {
+
+		private final List<Result> results;
+		private final long totalMillis;
+
+		private Report(List<Result> results, long totalMillis) {
+			this.results = results;
+			this.totalMillis = totalMillis;
+		}
+
+		public List<Result> getResults() {
+			return results;
+		}
+
+		/**
+		 * Gets the number of data sets which have failed
+		 *
+		 * @return the number of failures
+		 */
+		public int getFailures() {
+
+			int failures = 0;
+
+			for (Result result : results)
+				if (result.isFailed())
+					failures++;
+
+			return failures;
+		}
+
+		/**
+		 * Prints the report as a table
+		 *
+		 * @param out the stream of the report
+		 */
+		public void print(PrintStream out) {
+
+			int width = "Data set".length();
+			for (Result result : results)
+				width = Math.max(width, result.dataSet.getPath().length());
+
+			String row = "%-" + width + "s  %-6s  %9s  %7s  %8s  %9s  %10s%n";
+
+			out.printf(row, "Data set", "Status", "Instances", "Nodes", "Read ms", "Build ms", "Export ms");
+
+			for (Result result : results) {
+				if (result.isFailed())
+					out.printf(row, result.dataSet.getPath(), "FAILED", "", "", "", "", "");
+				else
+					out.printf(row, result.dataSet.getPath(), "OK", result.instances, result.nodes, result.readMillis,
+							result.buildMillis, result.exportMillis);
+			}
+
+			int failures = getFailures();
+
+			out.println("Batch completed in " + totalMillis + " ms: " + (results.size() - failures) + " succeeded, "
+					+ failures + " failed");
+
+			for (Result result : results)
+				if (result.isFailed())
+					out.println("  " + result.dataSet.getPath() + ": " + result.error);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Classifier of large test sets with a built tree. The test set is read as a
+ * stream and split in chunks of rows, which are parsed and classified in
+ * parallel by a pool of workers. The predicted classes are written one per
+ * line, in the same order of the input, as soon as all the previous chunks are
+ * completed, so only a bounded number of chunks is kept in memory.
+ *
+ * The attributes of the test set are matched by name with the ones of the
+ * training data, so their order can differ and the class can be missing.
+ * Values not seen during the training are considered missing.
+ */
+public class BatchPredictor {
+
+	// Number of rows classified by a single task
+	private static final int CHUNK_SIZE = 4096;
+
+	private final Scorer scorer;
+	private final Instances header;
+	private final int threads;
+	private final boolean replace;
+
+	/**
+	 * Creates a batch predictor
+	 *
+	 * @param scorer  the scorer classifying the instances, shared by all the
+	 *                workers
+	 * @param header  the header of the training data
+	 * @param threads the number of workers
+	 * @param replace whether empty strings have been replaced with underscores
+	 */
+	public BatchPredictor(Scorer scorer, Instances header, int threads, boolean replace) {
+		this.scorer = scorer;
+		this.header = header;
+		this.threads = threads;
+		this.replace = replace;
+	}
+
+	/**
+	 * Classifies a test set in the CSV format, with the names of the attributes
+	 * in the first line. The rows are tokenized by {@link DictionaryCSVLoader}
+	 * as the training data, so the quoted values and their escape sequences are
+	 * read the same way, while they are parsed and classified by the workers.
+	 *
+	 * @param in  the reader of the test set, already pre-processed by a
+	 *            {@link DataSetReader}
+	 * @param out the writer of the predictions
+	 * @return the number of classified instances
+	 * @throws Exception if the test set cannot be read or classified
+	 */
+	public long predictCSV(Reader in, Writer out) throws Exception {
+
+		DictionaryCSVLoader csv = new DictionaryCSVLoader(in);
+
+		List<String> names = csv.readNames();
+		if (names == null) // nothing to classify
+			return 0;
+
+		// map every column to the attribute with the same name
+		final int[] columns = new int[names.size()];
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = attributeIndex(names.get(i));
+
+		Pipeline pipeline = new Pipeline(out);
+		long count = 0;
+
+		try {
+			List<List<String>> rows = new ArrayList<List<String>>(CHUNK_SIZE);
+			List<String> row;
+
+			while ((row = csv.readValues()) != null) { // the empty lines are skipped
+
+				rows.add(row);
+				count++;
+
+				if (rows.size() == CHUNK_SIZE) {
+					pipeline.submit(new CSVChunk(rows, columns));
+					rows = new ArrayList<List<String>>(CHUNK_SIZE);
+				}
+			}
+
+			if (!rows.isEmpty())
+				pipeline.submit(new CSVChunk(rows, columns));
+
+			pipeline.drain();
+
+		} finally {
+			pipeline.shutdown();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Classifies a test set in the ARFF format
+	 *
+	 * @param in  the reader of the test set
+	 * @param out the writer of the predictions
+	 * @return the number of classified instances
+	 * @throws Exception if the test set cannot be read or classified
+	 */
+	public long predictARFF(Reader in, Writer out) throws Exception {
+
+		ArffLoader.ArffReader arff = new ArffLoader.ArffReader(in, CHUNK_SIZE); // read only the structure
+		Instances structure = arff.getStructure();
+
+		// map every attribute of the test set to the training attribute with the same name
+		final int[] columns = new int[structure.numAttributes()];
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = attributeIndex(structure.attribute(i).name());
+
+		Pipeline pipeline = new Pipeline(out);
+		long count = 0;
+
+		try {
+			List<Instance> rows = new ArrayList<Instance>(CHUNK_SIZE);
+			Instance instance;
+
+			while ((instance = arff.readInstance(structure)) != null) {
+
+				rows.add(instance);
+				count++;
+
+				if (rows.size() == CHUNK_SIZE) {
+					pipeline.submit(new ARFFChunk(rows, columns));
+					rows = new ArrayList<Instance>(CHUNK_SIZE);
+				}
+			}
+
+			if (!rows.isEmpty())
+				pipeline.submit(new ARFFChunk(rows, columns));
+
+			pipeline.drain();
+
+		} finally {
+			pipeline.shutdown();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the index of the training attribute with the given name
+	 *
+	 * @return the index, -1 for the class or for unknown attributes
+	 */
+	private int attributeIndex(String name) {
+		Attribute attribute = header.attribute(name);
+		if (attribute == null || attribute.index() == header.classIndex())
+			return -1;
+		return attribute.index();
+	}
+
+	/**
+	 * Converts a value read from the test set to the internal value of a training
+	 * attribute
+	 *
+	 * @param attribute the training attribute
+	 * @param text      the value read, null if missing
+	 * @return the internal value, missing if the value is unknown
+	 */
+	private static double parse(Attribute attribute, String text) {
+
+		if (text == null || text.isEmpty() || text.equals("?"))
+			return Utils.missingValue();
+
+		if (attribute.isNominal()) {
+			int index = attribute.indexOfValue(text);
+			return index < 0 ? Utils.missingValue() : index;
+		}
+
+		try {
+			if (attribute.isDate())
+				return attribute.parseDate(text);
+			return Double.parseDouble(text);
+		} catch (Exception e) { // not a valid value
+			return Utils.missingValue();
+		}
+	}
+
+	/**
+	 * Converts a value of an ARFF instance to the internal value of a training
+	 * attribute
+	 *
+	 * @param row       the instance read from the test set
+	 * @param index     the index of the value in the instance
+	 * @param attribute the training attribute
+	 * @return the internal value, missing if the value is unknown
+	 */
+	private static double convert(Instance row, int index, Attribute attribute) {
+
+		if (!row.attribute(index).isNumeric()) // match the label of the value
+			return parse(attribute, row.stringValue(index));
+
+		if (attribute.isNumeric())
+			return row.value(index);
+
+		return parse(attribute, Utils.doubleToString(row.value(index), 6));
+	}
+
+	/**
+	 * Appends the label of the predicted class to the output of a chunk
+	 */
+	private void appendPrediction(StringBuilder text, Instance instance) {
+
+		String label = header.classAttribute().value((int) scorer.classifyInstance(instance));
+
+		if (replace && label.equals("_")) // the empty string was replaced with an underscore
+			label = "";
+
+		text.append(label).append('\n');
+	}
+
+	/**
+	 * Task classifying a chunk of CSV rows, already split in their values
+	 */
+	private class CSVChunk implements Callable<String> {
+
+		private final List<List<String>> rows;
+		private final int[] columns;
+
+		private CSVChunk(List<List<String>> rows, int[] columns) {
+			this.rows = rows;
+			this.columns = columns;
+		}
+
+		@Override
+		public String call() {
+
+			StringBuilder text = new StringBuilder();
+
+			for (List<String> fields : rows) {
+
+				double[] values = new double[header.numAttributes()];
+				Arrays.fill(values, Utils.missingValue());
+
+				for (int i = 0; i < fields.size() && i < columns.length; i++)
+					if (columns[i] >= 0)
+						values[columns[i]] = parse(header.attribute(columns[i]), fields.get(i));
+
+				Instance instance = new DenseInstance(1.0, values);
+				instance.setDataset(header);
+
+				appendPrediction(text, instance);
+			}
+
+			return text.toString();
+		}
+	}
+
+	/**
+	 * Task classifying a chunk of ARFF instances
+	 */
+	private class ARFFChunk implements Callable<String> {
+
+		private final List<Instance> rows;
+		private final int[] columns;
+
+		private ARFFChunk(List<Instance> rows, int[] columns) {
+			this.rows = rows;
+			this.columns = columns;
+		}
+
+		@Override
+		public String call() {
+
+			StringBuilder text = new StringBuilder();
+
+			for (Instance row : rows) {
+
+				double[] values = new double[header.numAttributes()];
+				Arrays.fill(values, Utils.missingValue());
+
+				for (int i = 0; i < columns.length; i++)
+					if (columns[i] >= 0 && !row.isMissing(i))
+						values[columns[i]] = convert(row, i, header.attribute(columns[i]));
+
+				Instance instance = new DenseInstance(1.0, values);
+				instance.setDataset(header);
+
+				appendPrediction(text, instance);
+			}
+
+			return text.toString();
+		}
+	}
+
+	/**
+	 * Pool of workers with the queue of the chunks submitted, written in order
+	 */
+	private class Pipeline {
+
+		private final Writer out;
+		private final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		private final Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+
+		private Pipeline(Writer out) {
+			this.out = out;
+		}
+
+		/**
+		 * Submits a chunk, writing the oldest one first if too many are pending
+		 */
+		private void submit(Callable<String> chunk) throws Exception {
+			if (pending.size() >= 2 * threads)
+				writeNext();
+			pending.add(pool.submit(chunk));
+		}
+
+		/**
+		 * Writes all the pending chunks
+		 */
+		private void drain() throws Exception {
+			while (!pending.isEmpty())
+				writeNext();
+			out.flush();
+		}
+
+		private void writeNext() throws Exception {
+			try {
+				out.write(pending.poll().get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		}
+
+		private void shutdown() {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of built trees, saved as {@link TreeSnapshot} files named after
+ * the hash of the data set they have been built from and of everything else
+ * changing the tree (the options of the tree, the format of the input and the
+ * replacement of the empty strings). When the same data set is used again, the
+ * tree is loaded from its snapshot without reading the data set and building
+ * the tree.
+ *
+ * The total size of the snapshots is bounded: after a new snapshot is added,
+ * the least recently used ones are removed until the cache fits its size. The
+ * last modification time of a snapshot is updated every time it is used, so
+ * several processes can share the same cache, and snapshots are written to a
+ * temporary file first, so a snapshot being written is never read.
+ */
+public class BuildCache {
+
+	private static final String EXTENSION = ".snap";
+
+	// Changed every time the way the trees are built changes, to invalidate the old snapshots
+	private static final String CACHE_VERSION = "1";
+
+	private final File directory;
+	private final long maxBytes;
+
+	/**
+	 * Creates a cache in the given directory, which is created if it does not
+	 * exist
+	 *
+	 * @param directory the directory of the snapshots
+	 * @param maxBytes  the maximum total size of the snapshots
+	 * @throws IOException if the directory cannot be created
+	 */
+	public BuildCache(File directory, long maxBytes) throws IOException {
+
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("The size of the cache must be positive");
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("The cache directory cannot be created: " + directory);
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Computes the key of a data set, reading it until the end. The line ends
+	 * are normalized, so the same data set saved with Windows line ends has the
+	 * same key.
+	 *
+	 * @param in         the stream of the data set, closed at the end
+	 * @param parameters everything else changing the built tree
+	 * @return the key, in hexadecimal
+	 * @throws IOException if the data set cannot be read
+	 */
+	public static String key(InputStream in, String... parameters) throws IOException {
+
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) { // every JVM supports it
+			throw new IllegalStateException(e);
+		}
+
+		digest.update((CACHE_VERSION + '\0').getBytes(StandardCharsets.UTF_8));
+		for (String parameter : parameters)
+			digest.update((parameter + '\0').getBytes(StandardCharsets.UTF_8));
+
+		try {
+			byte[] buffer = new byte[65536];
+			byte[] normalized = new byte[buffer.length + 1];
+			boolean carriageReturn = false; // whether the previous chunk ended with \r
+			int read;
+
+			while ((read = in.read(buffer)) > 0) {
+
+				int length = 0;
+
+				for (int i = 0; i < read; i++) {
+
+					if (carriageReturn && buffer[i] != '\n') // a lone \r is kept
+						normalized[length++] = '\r';
+
+					carriageReturn = buffer[i] == '\r';
+
+					if (!carriageReturn)
+						normalized[length++] = buffer[i];
+				}
+
+				digest.update(normalized, 0, length);
+			}
+
+			if (carriageReturn)
+				digest.update((byte) '\r');
+
+		} finally {
+			in.close();
+		}
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(String.format("%02x", b));
+
+		return key.toString();
+	}
+
+	/**
+	 * Gets the snapshot of a tree, marking it as the most recently used. A
+	 * snapshot that cannot be read is removed.
+	 *
+	 * @param key the key of the data set
+	 * @return the snapshot, null if it is not in the cache
+	 */
+	public TreeSnapshot get(String key) {
+
+		File file = new File(directory, key + EXTENSION);
+
+		if (!file.isFile())
+			return null;
+
+		try {
+			TreeSnapshot snapshot = TreeSnapshot.load(file);
+			file.setLastModified(System.currentTimeMillis());
+			return snapshot;
+		} catch (IOException e) { // written by an incompatible version or corrupted
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the snapshot of a tree, removing the least recently used snapshots if
+	 * the cache is full
+	 *
+	 * @param key      the key of the data set
+	 * @param snapshot the snapshot
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public void put(String key, TreeSnapshot snapshot) throws IOException {
+
+		File file = new File(directory, key + EXTENSION);
+		File temp = File.createTempFile(key, ".tmp", directory);
+
+		try {
+			snapshot.save(temp);
+
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete(); // if it has not been moved
+		}
+
+		evict(file);
+	}
+
+	/**
+	 * Removes the least recently used snapshots until the cache fits its size,
+	 * keeping the one just added
+	 */
+	private void evict(File added) {
+
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(EXTENSION);
+			}
+		});
+
+		if (files == null)
+			return;
+
+		long total = 0;
+		final Map<File, Long> used = new HashMap<File, Long>(); // read once, other processes may change them
+		for (File file : files) {
+			total += file.length();
+			used.put(file, file.lastModified());
+		}
+
+		// the least recently used first
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(used.get(a), used.get(b));
+			}
+		});
+
+		for (int i = 0; i < files.length && total > maxBytes; i++) {
+			if (files[i].equals(added))
+				continue;
+			long length = files[i].length();
+			if (files[i].delete())
+				total -= length;
+		}
+	}
+}
@@ -0,0 +1,387 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * Lightweight node of a built tree, used by the exporters instead of the
+ * {@link ClassifierTree} built by J48. Every node keeps only its label (the
+ * attribute used to split the data or the class of a leaf), the labels of the
+ * branches towards its sons and the number of training instances of every
+ * class reaching it, so the split models and the training data are not needed
+ * anymore to export the tree. The test of an inner node and the class predicted
+ * by a leaf are kept as well, so the tree can also be exported as code.
+ *
+ * The training data of a node is kept only if the tree has been built without
+ * cleaning it up, since it is the only way to attach it to the nodes in the dot
+ * format.
+ *
+ * The labels are interned within a tree: nodes testing the same attribute,
+ * branches towards the same value and leaves with the same class and counts
+ * share a single string, so the exporters compute the escaped form of every
+ * distinct label only once ({@link ExportTree}).
+ */
+public class CompactNode implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String label;
+	private final boolean leaf;
+	private final String[] branchLabels;
+	private final CompactNode[] sons;
+	private final double[] classCounts;
+	private final double total;
+	private final String[] classValues; // shared by all the nodes of the tree
+	private final Instances data;
+
+	private final int attribute; // the attribute tested by an inner node, -1 for a leaf
+	private final boolean nominal;
+	private final double splitPoint; // the threshold or the value of a binary split, NaN for a multiway split
+	private final int prediction; // the class predicted by a leaf, -1 for an inner node
+
+	private CompactNode(String label, boolean leaf, String[] branchLabels, double[] classCounts, double total,
+			String[] classValues, Instances data, int attribute, boolean nominal, double splitPoint, int prediction) {
+		this.label = label;
+		this.leaf = leaf;
+		this.branchLabels = branchLabels;
+		this.sons = new CompactNode[branchLabels.length];
+		this.classCounts = classCounts;
+		this.total = total;
+		this.classValues = classValues;
+		this.data = data;
+		this.attribute = attribute;
+		this.nominal = nominal;
+		this.splitPoint = splitPoint;
+		this.prediction = prediction;
+	}
+
+	/**
+	 * Builds the compact form of the tree rooted in the given node. The tree is
+	 * visited with an explicit stack, so deep trees cannot overflow the call stack.
+	 *
+	 * @param root     the root of the built tree
+	 * @param keepData whether the training data of every node is kept or not
+	 * @return the root of the compact tree
+	 * @throws Exception if the labels of a node cannot be computed
+	 */
+	public static CompactNode compact(ClassifierTree root, boolean keepData) throws Exception {
+
+		// the values of the class, shared by all the nodes
+		Attribute classAttribute = root.getTrainingData().classAttribute();
+		String[] classValues = new String[classAttribute.numValues()];
+		for (int i = 0; i < classValues.length; i++)
+			classValues[i] = classAttribute.value(i);
+
+		// the distinct labels found so far
+		Map<String, String> labels = new HashMap<String, String>();
+
+		CompactNode compactRoot = create(root, null, 0, classValues, keepData, labels);
+
+		// pairs of nodes whose sons still have to be compacted
+		Deque<ClassifierTree> trees = new ArrayDeque<ClassifierTree>();
+		Deque<CompactNode> nodes = new ArrayDeque<CompactNode>();
+		trees.push(root);
+		nodes.push(compactRoot);
+
+		while (!trees.isEmpty()) {
+
+			ClassifierTree tree = trees.pop();
+			CompactNode node = nodes.pop();
+
+			for (int i = 0; i < node.sons.length; i++) {
+				ClassifierTree son = tree.getSons()[i];
+				node.sons[i] = create(son, tree, i, classValues, keepData, labels);
+				trees.push(son);
+				nodes.push(node.sons[i]);
+			}
+		}
+
+		return compactRoot;
+	}
+
+	/**
+	 * Creates the compact node of the given node, without its sons
+	 */
+	private static CompactNode create(ClassifierTree node, ClassifierTree parent, int index, String[] classValues,
+			boolean keepData, Map<String, String> labels) throws Exception {
+
+		String label;
+		String[] branchLabels;
+		int attribute = -1;
+		boolean nominal = false;
+		double splitPoint = Double.NaN;
+		int prediction = -1;
+
+		if (!node.isLeaf()) { // the attribute used to split the data, with a branch for every son
+			label = intern(labels, node.getLocalModel().leftSide(node.getTrainingData()));
+			branchLabels = new String[node.getSons().length];
+			for (int i = 0; i < branchLabels.length; i++)
+				branchLabels[i] = intern(labels, node.getLocalModel().rightSide(i, node.getTrainingData()).trim());
+
+			attribute = FlatTreePredictor.splitAttribute(node.getLocalModel());
+			nominal = node.getTrainingData().attribute(attribute).isNominal();
+			if (!nominal || FlatTreePredictor.isBinary(node.getLocalModel()))
+				splitPoint = FlatTreePredictor.splitPoint(node.getLocalModel());
+		} else { // the class of the leaf
+			if (parent == null) // the root is a leaf
+				label = intern(labels, node.getLocalModel().dumpLabel(0, node.getTrainingData()));
+			else
+				label = intern(labels, parent.getLocalModel().dumpLabel(index, parent.getTrainingData()));
+			branchLabels = new String[0];
+
+			prediction = FlatTreePredictor.maxClass(FlatTreePredictor.stopProbs(node, parent, index), 0,
+					classValues.length);
+		}
+
+		Distribution distribution = node.getLocalModel().distribution();
+		double[] classCounts = new double[distribution.numClasses()];
+		for (int i = 0; i < classCounts.length; i++)
+			classCounts[i] = distribution.perClass(i);
+
+		return new CompactNode(label, node.isLeaf(), branchLabels, classCounts, distribution.total(), classValues,
+				keepData ? node.getTrainingData() : null, attribute, nominal, splitPoint, prediction);
+	}
+
+	/**
+	 * Writes the tree rooted in the given node in the format of a
+	 * {@link TreeSnapshot}, in depth first order. The training data is not
+	 * written.
+	 *
+	 * @param out  the stream
+	 * @param root the root of the tree
+	 * @throws IOException if the stream cannot be written
+	 */
+	static void write(DataOutputStream out, CompactNode root) throws IOException {
+
+		Deque<CompactNode> stack = new ArrayDeque<CompactNode>();
+		stack.push(root);
+
+		while (!stack.isEmpty()) {
+
+			CompactNode node = stack.pop();
+
+			TreeSnapshot.writeString(out, node.label);
+			out.writeBoolean(node.leaf);
+			out.writeInt(node.branchLabels.length);
+			for (String branchLabel : node.branchLabels)
+				TreeSnapshot.writeString(out, branchLabel);
+			TreeSnapshot.writeDoubles(out, node.classCounts);
+			out.writeDouble(node.total);
+			out.writeInt(node.attribute);
+			out.writeBoolean(node.nominal);
+			out.writeDouble(node.splitPoint);
+			out.writeInt(node.prediction);
+
+			for (int i = node.sons.length - 1; i >= 0; i--) // the first son is written first
+				stack.push(node.sons[i]);
+		}
+	}
+
+	/**
+	 * Reads a tree written by {@link #write(DataOutputStream, CompactNode)}
+	 *
+	 * @param in          the buffer
+	 * @param classValues the values of the class, shared by all the nodes
+	 * @return the root of the tree
+	 * @throws IOException if the tree is not valid
+	 */
+	static CompactNode read(ByteBuffer in, String[] classValues) throws IOException {
+
+		Map<String, String> labels = new HashMap<String, String>(); // the distinct labels read so far
+		CompactNode root = readNode(in, classValues, labels);
+
+		// the nodes whose sons are still being read, with the number of sons already read
+		Deque<CompactNode> nodes = new ArrayDeque<CompactNode>();
+		Deque<int[]> counts = new ArrayDeque<int[]>();
+		nodes.push(root);
+		counts.push(new int[1]);
+
+		while (!nodes.isEmpty()) {
+
+			CompactNode node = nodes.peek();
+			int[] count = counts.peek();
+
+			if (count[0] == node.sons.length) { // all the sons have been read
+				nodes.pop();
+				counts.pop();
+				continue;
+			}
+
+			CompactNode son = readNode(in, classValues, labels);
+			node.sons[count[0]++] = son;
+			nodes.push(son);
+			counts.push(new int[1]);
+		}
+
+		return root;
+	}
+
+	/**
+	 * Reads a single node, without its sons
+	 */
+	private static CompactNode readNode(ByteBuffer in, String[] classValues, Map<String, String> labels)
+			throws IOException {
+
+		String label = intern(labels, TreeSnapshot.readString(in));
+		boolean leaf = in.get() != 0;
+		String[] branchLabels = new String[TreeSnapshot.readSize(in, 4)];
+		for (int i = 0; i < branchLabels.length; i++)
+			branchLabels[i] = intern(labels, TreeSnapshot.readString(in));
+		double[] classCounts = new double[classValues.length];
+		TreeSnapshot.readDoubles(in, classCounts);
+
+		return new CompactNode(label, leaf, branchLabels, classCounts, in.getDouble(), classValues, null, in.getInt(),
+				in.get() != 0, in.getDouble(), in.getInt());
+	}
+
+	/**
+	 * Gets the single instance of a label within a tree
+	 */
+	private static String intern(Map<String, String> labels, String label) {
+
+		String interned = labels.get(label);
+
+		if (interned == null) { // first time the label is found
+			labels.put(label, label);
+			interned = label;
+		}
+
+		return interned;
+	}
+
+	/**
+	 * Gets the label of the node: the class for a leaf, the attribute used to
+	 * split the data otherwise
+	 *
+	 * @return the label of the node
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Checks if the node is a leaf
+	 *
+	 * @return true if the node has no sons
+	 */
+	public boolean isLeaf() {
+		return leaf;
+	}
+
+	/**
+	 * Gets the sons of the node
+	 *
+	 * @return the sons, an empty array for a leaf
+	 */
+	public CompactNode[] getSons() {
+		return sons;
+	}
+
+	/**
+	 * Gets the trimmed label of the branch towards one of the sons
+	 *
+	 * @param index the index of the son
+	 * @return the label of the branch
+	 */
+	public String getBranchLabel(int index) {
+		return branchLabels[index];
+	}
+
+	/**
+	 * Gets the number of values of the class
+	 *
+	 * @return the number of classes
+	 */
+	public int numClasses() {
+		return classCounts.length;
+	}
+
+	/**
+	 * Gets a value of the class
+	 *
+	 * @param index the index of the class
+	 * @return the value of the class
+	 */
+	public String getClassValue(int index) {
+		return classValues[index];
+	}
+
+	/**
+	 * Gets the (weighted) number of training instances of a class reaching the node
+	 *
+	 * @param index the index of the class
+	 * @return the number of instances of the class
+	 */
+	public double getClassCount(int index) {
+		return classCounts[index];
+	}
+
+	/**
+	 * Gets the (weighted) number of training instances reaching the node
+	 *
+	 * @return the number of instances
+	 */
+	public double getTotal() {
+		return total;
+	}
+
+	/**
+	 * Gets the attribute tested by an inner node
+	 *
+	 * @return the index of the attribute, -1 for a leaf
+	 */
+	public int getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * Checks if the attribute tested by an inner node is nominal
+	 *
+	 * @return true for nominal attributes
+	 */
+	public boolean isNominal() {
+		return nominal;
+	}
+
+	/**
+	 * Gets the split point of an inner node: the threshold of a numeric attribute,
+	 * with the first son for the values not greater than it, or the value of a
+	 * nominal attribute separated from the others by a binary split, with the
+	 * first son for that value
+	 *
+	 * @return the split point, NaN when every nominal value has its own son
+	 */
+	public double getSplitPoint() {
+		return splitPoint;
+	}
+
+	/**
+	 * Gets the class predicted by a leaf for the instances reaching it without
+	 * missing values
+	 *
+	 * @return the index of the class, -1 for an inner node
+	 */
+	public int getPrediction() {
+		return prediction;
+	}
+
+	/**
+	 * Gets the training data reaching the node
+	 *
+	 * @return the training data, null if it has not been kept
+	 */
+	public Instances getData() {
+		return data;
+	}
+}
@@ -0,0 +1,112 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+/**
+ * Opens the files compressed with gzip (.gz) or Zstandard (.zst), chosen by
+ * their extension, so they are decompressed while they are read and compressed
+ * while they are written, without temporary files. The format of the content
+ * is given by the extension before the one of the compression, as in
+ * iris.csv.gz. The other files are opened as they are.
+ */
+public class CompressedFiles {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Checks whether a file is compressed
+	 *
+	 * @param path the path of the file
+	 * @return true if its extension is the one of gzip or Zstandard
+	 */
+	public static boolean isCompressed(String path) {
+		return isGzip(path) || isZstd(path);
+	}
+
+	/**
+	 * Removes the extension of the compression from a path
+	 *
+	 * @param path the path of the file
+	 * @return the path of the uncompressed file, as iris.csv for iris.csv.gz
+	 */
+	public static String getUncompressedName(String path) {
+
+		if (isGzip(path))
+			return path.substring(0, path.length() - ".gz".length());
+		if (isZstd(path))
+			return path.substring(0, path.length() - ".zst".length());
+
+		return path;
+	}
+
+	/**
+	 * Opens a file, decompressing it if it is compressed
+	 *
+	 * @param file the file
+	 * @return the stream of the uncompressed content
+	 * @throws IOException if the file cannot be opened or its header is not valid
+	 */
+	public static InputStream open(File file) throws IOException {
+
+		InputStream in = new FileInputStream(file);
+
+		try {
+			if (isGzip(file.getName()))
+				return new GZIPInputStream(in, BUFFER_SIZE);
+			if (isZstd(file.getName()))
+				return new ZstdInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		} catch (IOException e) { // not a gzip file
+			in.close();
+			throw e;
+		}
+
+		return in;
+	}
+
+	/**
+	 * Creates a file, compressing what is written if its extension is the one of
+	 * a compression. The file is complete only once the stream is closed.
+	 *
+	 * @param file the file
+	 * @return the stream writing the file
+	 * @throws IOException if the file cannot be created
+	 */
+	public static OutputStream create(File file) throws IOException {
+
+		OutputStream out = new FileOutputStream(file);
+
+		try {
+			// the exports write a few bytes at a time, so they are buffered before the compressor
+			if (isGzip(file.getName()))
+				return new BufferedOutputStream(new GZIPOutputStream(out, BUFFER_SIZE), BUFFER_SIZE);
+			if (isZstd(file.getName()))
+				return new BufferedOutputStream(new ZstdOutputStream(out), BUFFER_SIZE);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+
+		return out;
+	}
+
+	private static boolean isGzip(String path) {
+		return path.toLowerCase(Locale.ROOT).endsWith(".gz");
+	}
+
+	private static boolean isZstd(String path) {
+		return path.toLowerCase(Locale.ROOT).endsWith(".zst");
+	}
+}
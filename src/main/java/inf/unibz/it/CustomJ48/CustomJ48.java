@@ -1,17 +1,27 @@
 package inf.unibz.it.CustomJ48;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.LogManager;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -21,8 +31,9 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.converters.CSVLoader;
+import weka.core.converters.ArffLoader;
 import weka.core.converters.ConverterUtils.DataSource;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.StringToNominal;
@@ -35,7 +46,7 @@ import weka.filters.unsupervised.attribute.StringToNominal;
 public class CustomJ48 {
 
 	public enum ExportFormat {
-		DOT, JSON, GRAPHML;
+		DOT, JSON, GRAPHML, JAVA;
 	}
 	
 	public enum InputFormat{
@@ -44,6 +55,9 @@ public class CustomJ48 {
 	
 	static InputFormat format;
 	
+	// Options used to build every tree
+	static final String TREE_OPTIONS = "-M 1 -U -O";
+	
 	public static void main(String[] args) {
 
 		LogManager.getLogManager().reset(); // Prevent the system from continuously writing logs to the console
@@ -57,29 +71,90 @@ public class CustomJ48 {
 		// Let's create the option to use a file instead the console stream for the
 		// export code
 		Option fileStream = Option.builder("f").argName("file").hasArg()
-				.desc("Outputs the export code to the given file").build();
+				.desc("Outputs the export code to the given file, or to the given files separated by commas, one per export format").build();
 
 		// The 'e' option allows the user to decide the export format (graphml, dot and
-		// json), default is dot
+		// json), or several formats exported at once, default is dot
 		Option exportFormat = Option.builder("e").argName("format").hasArg()
-				.desc("Specifies the export format (dot, json). Default is: dot").build();
+				.desc("Specifies the export format (dot, json, graphml, java), or several formats separated by commas. Default is: dot").build();
 
 		// The 'e' option allows the user to decide the export format (graphml, dot and
 		// json), default is dot
 		Option inputFormat = Option.builder("i").argName("format").hasArg()
 				.desc("Input format for STDIN data set input (csv, arff). Default is: csv").build();
 
+		// The 'n' option allows the user to attach some information to the nodes in the dot format
+		Option nodePayload = Option.builder("n").argName("payload").hasArg()
+				.desc("Specifies the information attached to the nodes in the dot format (none, distribution, data). Default is: none")
+				.build();
+
+		// The 't' option allows the user to build and export large trees using more threads
+		Option threads = Option.builder("t").argName("threads").hasArg()
+				.desc("Specifies the number of threads used to build and export the tree or to classify the test set. Default is: 1")
+				.build();
+
+		// The 'a' option allows the user to build and export the trees of many data sets at once
+		Option batchDataSets = Option.builder("a").argName("datasets").hasArg()
+				.desc("Builds and exports the tree of every data set (csv, arff) in the given directory or matching the given glob, writing the exports in the -f directory or next to the data sets, -t data sets at a time")
+				.build();
+
+		// The 'c' option allows the user to classify a test set with the built tree instead of exporting it
+		Option testSet = Option.builder("c").argName("testset").hasArg()
+				.desc("Classifies the given test set with the built tree, writing a predicted class per line instead of the export")
+				.build();
+
+		// The 's' option starts a local server keeping the built trees in memory
+		Option serverPort = Option.builder("s").argName("port").hasArg()
+				.desc("Starts a local server on the given port, serving the building, export and classification requests with -t threads")
+				.build();
+
+		// The 'm' option bounds the number of trees kept in memory by the server
+		Option serverModels = Option.builder("m").argName("models").hasArg()
+				.desc("Specifies the maximum number of trees kept in memory by the server. Default is: 16")
+				.build();
+
+		// The 'o' option saves the built tree, so it can be loaded by another run with the 'l' option
+		Option saveSnapshot = Option.builder("o").argName("snapshot").hasArg()
+				.desc("Saves the built tree to the given snapshot file")
+				.build();
+
+		Option loadSnapshot = Option.builder("l").argName("snapshot").hasArg()
+				.desc("Loads the tree from the given snapshot file instead of building it from a data set")
+				.build();
+
+		// The 'k' option keeps the built trees in a cache, used when the same data set is given again
+		Option cacheDirectory = Option.builder("k").argName("directory").hasArg()
+				.desc("Caches the built trees in the given directory, loading them instead of building them again from the same data set")
+				.build();
+
+		Option cacheSize = Option.builder("u").argName("megabytes").hasArg()
+				.desc("Specifies the maximum size of the cache, removing the least recently used trees. Default is: 256")
+				.build();
+
 		// And now add them to the options array with the boolean ones (flags)
 		Options options = new Options();
 		options.addOption(datasetPath);
 		options.addOption(fileStream);
 		options.addOption(exportFormat);
 		options.addOption(inputFormat);
+		options.addOption(nodePayload);
+		options.addOption(threads);
+		options.addOption(batchDataSets);
+		options.addOption(testSet);
+		options.addOption(serverPort);
+		options.addOption(serverModels);
+		options.addOption(saveSnapshot);
+		options.addOption(loadSnapshot);
+		options.addOption(cacheDirectory);
+		options.addOption(cacheSize);
+		options.addOption("b", "Bypasses the cache, building the tree again and replacing the cached one"); // ignore the cached tree
 		options.addOption("p", "Enables the pruning feature"); // Enable or no the pruning feature?
+		options.addOption("g", "Writes identical subtrees once in the dot and JSON exports, referenced by every branch reaching them"); // export a graph
 		options.addOption("r", "Replaces empty strings (with _) to make them actual values"); // replace empty string
 																								// with a value
 		options.addOption("h", "Prints this help message"); // print the help message
 		options.addOption("v", "Prints the software version"); // print software version
+		options.addOption(null, "stats", false, "Prints the time, the allocated bytes and the counts of every phase as JSON on STDERR"); // -stats
 
 		CommandLineParser parser = new DefaultParser(); // create the parser
 
@@ -105,14 +180,17 @@ public class CustomJ48 {
 				return;
 			}
 
-			// Let's define the printwriter instance, console or file?
-			PrintStream writer;
+			if (line.hasOption("stats") && !line.hasOption("s")) // the server would keep the phases of all its requests
+				RunStats.collect();
 
-			if (line.hasOption("f")) {
-				writer = new PrintStream(line.getOptionValue("f"), "UTF-8");
-			} else {
-				writer = new PrintStream(System.out, true, "UTF-8");
+			List<ExportFormat> exports = new ArrayList<ExportFormat>(); // the formats the tree is exported to
 
+			// We set the export format to our default value, and we change it only if the -e option has been specified
+			if (line.hasOption("e")) {
+				for (String name : line.getOptionValue("e").split(","))
+					exports.add(parseExportFormat(name.trim()));
+			} else {
+				exports.add(ExportFormat.DOT);
 			}
 
 			boolean pruning = false; // we set the pruning to the default value
@@ -121,109 +199,201 @@ public class CustomJ48 {
 			if (line.hasOption("p"))
 				pruning = true;
 
-			ExportFormat export = ExportFormat.DOT; // We set the export format to our defualt value
+			CustomJ48Tree.NodePayload payload = CustomJ48Tree.NodePayload.NONE; // by default nodes have only their label
 
-			// and we change it only if the -e option has been specified
-
-			if (line.hasOption("e")) {
-				if (line.getOptionValue("e").equals("graphml")) //change it to graphml
-					export = ExportFormat.GRAPHML;
-				else if (line.getOptionValue("e").equals("json")) //change it to json
-					export = ExportFormat.JSON;
+			if (line.hasOption("n")) {
+				if (line.getOptionValue("n").equals("distribution")) //attach the class distribution
+					payload = CustomJ48Tree.NodePayload.DISTRIBUTION;
+				else if (line.getOptionValue("n").equals("data")) //attach the training data
+					payload = CustomJ48Tree.NodePayload.DATA;
 			}
 
-			// prepare to read instances
-			DataSource source;
-			Instances data;
-			boolean replace = false;
-			
-			if (line.hasOption("d")) { //if the input comes from a file
+			boolean shared = line.hasOption("g"); // identical subtrees written once
 
-				String path = line.getOptionValue("d"); //take the path
+			if (shared && payload == CustomJ48Tree.NodePayload.DATA) // the data of every node is different
+				throw new ParseException("The training data cannot be attached to shared subtrees (-n data with -g)");
 
-				if (line.hasOption("r") && !DataSource.isArff(path)) { //if the user wants replace and file is CSV
-					replace = true;
-					
-					String dataSet = read(new FileInputStream(path), replace, true); //read and replace
+			if (shared && (exports.contains(ExportFormat.GRAPHML) || exports.contains(ExportFormat.JAVA))) // always trees
+				throw new ParseException("Shared subtrees can be exported only in the dot and JSON formats (-g with -e graphml or java)");
 
-					data = getInstancesFromCSV(dataSet);
-				
-				} else { //otherwise we simply read the data set from the file
-					source = new DataSource(path);
-					data = source.getDataSet();
-				}
+			int exportThreads = 1; // by default the tree is built and exported sequentially
 
-			} else { //the input comes from STDIN
+			if (line.hasOption("t"))
+				exportThreads = parsePositive("threads", line.getOptionValue("t"));
+
+			if (line.hasOption("s")) { // serve the requests until the process is stopped
+				
+				int models = line.hasOption("m") ? parsePositive("models", line.getOptionValue("m")) : 16;
 				
-				format = InputFormat.CSV;
+				startServer(parsePort(line.getOptionValue("s")), exportThreads, models);
+				return;
+			}
+
+			if (line.hasOption("a")) { // build and export every data set of the batch, without reading STDIN
 				
-				if(line.hasOption("i") && line.getOptionValue("i").equals("arff")) //change default format if specified
-					format = InputFormat.ARFF;
+				File directory = line.hasOption("f") ? new File(line.getOptionValue("f")) : null;
 				
-				if(line.hasOption("r") && format.equals(InputFormat.CSV)) //if user wants replace and file is CSV
-					replace = true;
+				if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+					throw new ParseException("The output directory cannot be created: " + directory);
 				
-				System.err.println("Input your data set:"); //print message to the user on a different stream so we don't intefere in case of piping
+				List<File> dataSets = BatchBuilder.findDataSets(line.getOptionValue("a"));
 				
-				String dataSet = read(System.in, replace, false); //get dataset from function
+				if (dataSets.isEmpty())
+					throw new ParseException("No data set found in " + line.getOptionValue("a"));
 				
-				switch(format) { //check the format
-					case ARFF: //if it is ARFF get the stream and let weka use the arff default loader
-						ByteArrayInputStream in = new ByteArrayInputStream(dataSet.getBytes("utf-8"));
-						source = new DataSource(in);
-						data = source.getDataSet();
-					break;
-					
-					default: //otherwise just use the CSV one
-						data = getInstancesFromCSV(dataSet);
-					break;
-				}
+				BatchBuilder batch = new BatchBuilder(exports, directory, pruning, line.hasOption("r"), payload, shared,
+						exportThreads);
 				
+				batch.process(dataSets).print(System.err); // on a different stream, as the other messages to the user
+				RunStats.printSummary(System.err);
+				System.exit(0);
 			}
 
-			// check for attributes read as string
-			if (data.checkForStringAttributes()) {
+			// Let's define the printwriter instances, console or files?
+			List<PrintStream> writers = new ArrayList<PrintStream>();
 
-				// Apply weka filter to convert them to nominal
-				StringToNominal filter = new StringToNominal();
-				filter.setAttributeRange("first-last");
-				filter.setInputFormat(data);
+			if (exports.size() > 1 && !line.hasOption("c")) { // every format is written to its own file, at the same time
+				
+				String[] files = line.hasOption("f") ? line.getOptionValue("f").split(",") : new String[0];
+				
+				if (files.length != exports.size())
+					throw new ParseException("Specify an output file for every export format with -f");
+				
+				for (String file : files)
+					writers.add(createWriter(file.trim()));
+				
+			} else if (line.hasOption("f")) {
+				writers.add(createWriter(line.getOptionValue("f")));
+			} else {
+				writers.add(new PrintStream(System.out, true, "UTF-8"));
 
-				data = Filter.useFilter(data, filter);
 			}
-
-			if (data.classIndex() == -1) // Setting the class attribute to be last one if not explicitly set
-				data.setClassIndex(data.numAttributes() - 1);
-
-			// Creating the tree object
 			
-			CustomJ48Tree tree = new CustomJ48Tree();
-
-			// Setting options
-
-			String[] treeOptions = weka.core.Utils.splitOptions("-M 1 -U -O");
-			tree.setOptions(treeOptions);
+			PrintStream writer = writers.get(0);
 
-			tree.buildClassifier(data); // Build the tree
+			CustomJ48Tree tree;
+			boolean replace = false;
 			
-
-			// Export it according to user's options
-			switch (export) {
-
-			case GRAPHML:
-				tree.exportGraphML(writer, pruning, replace);
-				break;
-			case JSON:
-				tree.JSONExport(writer, pruning, replace);
-				break;
-			default:
-				tree.dotExport(writer, pruning, replace);
-				break;
+			if (line.hasOption("l")) { // restore the tree saved by a previous run instead of building it
+				
+				RunStats.Phase load = RunStats.start("snapshot.load");
+				TreeSnapshot snapshot = TreeSnapshot.load(new File(line.getOptionValue("l")));
+				
+				tree = snapshot.getTree();
+				load.tree(tree).end();
+				replace = snapshot.isReplace(); // the labels contain underscores only if they were replaced
+				
+			} else {
+				
+				String path = line.getOptionValue("d"); // the path of the data set, null for STDIN
+				InputStream stdin = System.in;
+				
+				if (path != null) { //if the input comes from a file
+					
+					if (line.hasOption("r") && !DataSource.isArff(CompressedFiles.getUncompressedName(path))) //if the user wants replace and file is CSV
+						replace = true;
+					
+				} else { //the input comes from STDIN
+				
+					format = InputFormat.CSV;
+				
+					if(line.hasOption("i") && line.getOptionValue("i").equals("arff")) //change default format if specified
+						format = InputFormat.ARFF;
+				
+					if(line.hasOption("r") && format.equals(InputFormat.CSV)) //if user wants replace and file is CSV
+						replace = true;
+				
+					System.err.println("Input your data set:"); //print message to the user on a different stream so we don't intefere in case of piping
+				}
+				
+				BuildCache cache = null;
+				String key = null;
+				TreeSnapshot cached = null;
+				
+				if (line.hasOption("k")) { // look for a tree built from the same data set
+					
+					long size = line.hasOption("u") ? parsePositive("megabytes", line.getOptionValue("u")) : 256;
+					cache = new BuildCache(new File(line.getOptionValue("k")), size * 1024 * 1024);
+					
+					if (path != null) {
+						String name = CompressedFiles.getUncompressedName(path); // a compressed data set shares the tree of the original
+						key = BuildCache.key(CompressedFiles.open(new File(path)), TREE_OPTIONS, String.valueOf(replace),
+								"file " + name.substring(name.lastIndexOf('.') + 1).toLowerCase());
+					} else { // STDIN can be read only once, so it is kept in memory
+						byte[] bytes = readAll(System.in);
+						key = BuildCache.key(new ByteArrayInputStream(bytes), TREE_OPTIONS, String.valueOf(replace),
+								"stdin " + format);
+						stdin = new ByteArrayInputStream(bytes);
+					}
+					
+					if (!line.hasOption("b")) // the cache is bypassed, but the tree built is still saved
+						cached = cache.get(key);
+				}
+				
+				if (cached != null) {
+					
+					tree = cached.getTree();
+					
+					System.err.println("Tree loaded from the cache");
+					
+				} else {
+					
+					// prepare to read instances
+					DataSource source;
+					Instances data;
+					RunStats.Phase read = RunStats.start("read");
+					
+					if (path != null) { //if the input comes from a file
+	
+						if (isDataSetFile(path)) { //read it mapped in memory or decompressing it, replacing while loading if asked
+							
+							data = readDataSet(new File(path), replace);
+					
+						} else { //otherwise we let Weka choose the loader from the extension
+							source = new DataSource(path);
+							data = source.getDataSet();
+						}
+	
+					} else { //the input comes from STDIN
+						
+						data = readDataSet(stdin, format, replace); //get dataset from function
+					}
+					
+					read.data(data).end();
+	
+					tree = buildTree(data, exportThreads); // Build the tree
+					
+					if (cache != null) // save it for the next runs
+						cache.put(key, new TreeSnapshot(tree, replace));
+				}
+			}
 			
+			if (line.hasOption("o")) { // save the tree, so it can be exported or used again without building it
+				
+				RunStats.Phase save = RunStats.start("snapshot.save");
+				File snapshot = new File(line.getOptionValue("o"));
+				
+				new TreeSnapshot(tree, replace).save(snapshot);
+				save.tree(tree).output(snapshot.length()).end();
+			}
+			
+			tree.setExportThreads(exportThreads);
+			tree.setNodePayload(payload);
+			tree.setSharedSubtrees(shared);
+			
+			if (line.hasOption("c")) { // classify the test set instead of exporting the tree
+				
+				long count = predict(tree, line.getOptionValue("c"), writer, exportThreads, replace);
+				
+				System.err.println("Prediction completed: " + count + " instances classified");
 				
+			} else { // Export it according to user's options
 				
+				export(tree, exports, writers, pruning, replace);
 			}
 			
+			RunStats.printSummary(System.err); // only if the phases have been collected
+			
 
 		} catch (ParseException e) {
 
@@ -244,65 +414,526 @@ public class CustomJ48 {
 
 	
 	/**
-	 * Function used to read a data set from STDIN or from a file (replacing underscores)
+	 * Function used to export the built tree in several formats, all at the same time on
+	 * their own threads, so the tree is built once and the time is close to the one of the
+	 * slowest export
+	 * 
+	 * @param tree the built tree
+	 * @param exports the export formats
+	 * @param writers the streams of the exports, one per format
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param replace whether we are replacing back underscores
+	 * @throws Exception if an export fails
+	 */
+	static void export(final CustomJ48Tree tree, List<ExportFormat> exports, List<PrintStream> writers,
+			final boolean pruning, final boolean replace) throws Exception {
+		
+		if (exports.size() == 1) { // no need of other threads
+			export(tree, exports.get(0), writers.get(0), pruning, replace);
+			return;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(exports.size());
+		
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			
+			for (int i = 0; i < exports.size(); i++) {
+				
+				final ExportFormat export = exports.get(i);
+				final PrintStream writer = writers.get(i);
+				
+				results.add(pool.submit(() -> {
+					export(tree, export, writer, pruning, replace);
+					return null;
+				}));
+			}
+			
+			for (Future<Void> result : results) // wait for all the exports, failing with the first error
+				result.get();
+			
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Function used to export the built tree in a single format
+	 * 
+	 * @param tree the built tree
+	 * @param export the export format
+	 * @param writer the stream of the export, closed at the end
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param replace whether we are replacing back underscores
+	 * @throws Exception if the export fails
+	 */
+	static void export(CustomJ48Tree tree, ExportFormat export, PrintStream writer, boolean pruning,
+			boolean replace) throws Exception {
+		
+		switch (export) {
+
+		case GRAPHML:
+			tree.exportGraphML(writer, pruning, replace);
+			break;
+		case JSON:
+			tree.JSONExport(writer, pruning, replace);
+			break;
+		case JAVA:
+			tree.javaExport(writer, pruning, replace);
+			break;
+		default:
+			tree.dotExport(writer, pruning, replace);
+			break;
+		}
+	}
+	
+	/**
+	 * Function used to parse an export format specified by the user, the dot format if
+	 * it is not known
+	 * 
+	 * @param name the name of the format
+	 * @return the export format
+	 */
+	private static ExportFormat parseExportFormat(String name) {
+		
+		if (name.equals("graphml")) //change it to graphml
+			return ExportFormat.GRAPHML;
+		else if (name.equals("json")) //change it to json
+			return ExportFormat.JSON;
+		else if (name.equals("java")) //change it to java source
+			return ExportFormat.JAVA;
+		
+		return ExportFormat.DOT;
+	}
+	
+	/**
+	 * Function used to parse a number specified by the user
+	 * 
+	 * @param name what the number counts, used in the error message
+	 * @param value the value of the option
+	 * @return the number
+	 * @throws ParseException if the value is not a positive number
+	 */
+	private static int parsePositive(String name, String value) throws ParseException {
+		
+		try {
+			int number = Integer.parseInt(value.trim());
+			
+			if (number > 0)
+				return number;
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		
+		throw new ParseException("The number of " + name + " should be a positive number, found: " + value);
+	}
+	
+	/**
+	 * Function used to parse the port of the server specified by the user
+	 * 
+	 * @param value the value of the option
+	 * @return the port, 0 to use any free port
+	 * @throws ParseException if the value is not a valid port
+	 */
+	private static int parsePort(String value) throws ParseException {
+		
+		try {
+			int port = Integer.parseInt(value.trim());
+			
+			if (port >= 0 && port <= 65535)
+				return port;
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		
+		throw new ParseException("The port should be a number between 0 and 65535, found: " + value);
+	}
+	
+	/**
+	 * Function used to start the local server, which is stopped together with the JVM
+	 * 
+	 * @param port the port of the server
+	 * @param threads the number of threads serving the requests
+	 * @param models the maximum number of trees kept in memory
+	 * @throws IOException if the port cannot be bound
+	 */
+	private static void startServer(int port, int threads, int models) throws IOException {
+		
+		final CustomJ48Server server = new CustomJ48Server(port, threads, models);
+		
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				server.stop(1); // let the requests being served complete
+			}
+		}));
+		
+		server.start();
+		
+		// print the address on a different stream so it can be read also when the output is redirected
+		System.err.println("Server listening on http://localhost:" + server.getAddress().getPort() + "/models");
+	}
+	
+	/**
+	 * Function used to build the tree from a data set, converting the string attributes
+	 * to nominal ones first
+	 * 
+	 * @param data the training data set, with the class as last attribute if not set
+	 * @param threads the number of threads building the tree, 1 to build it sequentially
+	 * @return the built tree
+	 * @throws Exception if the data set cannot be filtered or the tree cannot be built
+	 */
+	static CustomJ48Tree buildTree(Instances data, int threads) throws Exception {
+		return buildTree(data, threads, false);
+	}
+	
+	/**
+	 * Function used to build the tree from a data set, converting the string attributes
+	 * to nominal ones first and keeping the training data if the tree will be updated
+	 * 
+	 * @param data the training data set, with the class as last attribute if not set
+	 * @param threads the number of threads building the tree, 1 to build it sequentially
+	 * @param keepTrainingData whether the tree keeps its training data to be updated
+	 * @return the built tree
+	 * @throws Exception if the data set cannot be filtered or the tree cannot be built
+	 */
+	static CustomJ48Tree buildTree(Instances data, int threads, boolean keepTrainingData) throws Exception {
+		
+		RunStats.Phase filter = RunStats.start("filter");
+		data = prepareDataSet(data);
+		filter.data(data).end();
+
+		// Creating the tree object
+		
+		CustomJ48Tree tree = new CustomJ48Tree();
+
+		// Setting options
+
+		String[] treeOptions = weka.core.Utils.splitOptions(TREE_OPTIONS);
+		tree.setOptions(treeOptions);
+		tree.setBuildThreads(threads);
+		tree.setKeepTrainingData(keepTrainingData);
+
+		RunStats.Phase build = RunStats.start("build");
+		tree.buildClassifier(data); // Build the tree
+		build.data(data).tree(tree).end();
+		
+		return tree;
+	}
+	
+	/**
+	 * Function used to prepare a data set for the tree, converting the string attributes
+	 * to nominal ones and setting the class
+	 * 
+	 * @param data the data set, with the class as last attribute if not set
+	 * @return the prepared data set
+	 * @throws Exception if the data set cannot be filtered
+	 */
+	static Instances prepareDataSet(Instances data) throws Exception {
+		
+		// check for attributes read as string
+		if (data.checkForStringAttributes()) {
+
+			// Apply weka filter to convert them to nominal
+			StringToNominal filter = new StringToNominal();
+			filter.setAttributeRange("first-last");
+			filter.setInputFormat(data);
+
+			data = Filter.useFilter(data, filter);
+		}
+
+		if (data.classIndex() == -1) // Setting the class attribute to be last one if not explicitly set
+			data.setClassIndex(data.numAttributes() - 1);
+		
+		return data;
+	}
+	
+	/**
+	 * Function used to classify a test set with the built tree, in parallel, writing the
+	 * predicted classes in the same order of the instances
+	 * 
+	 * @param tree the built tree
+	 * @param path the path of the test set
+	 * @param writer the stream of the predictions
+	 * @param threads the number of threads used to classify the instances
+	 * @param replaceEmptyStrings are we replacing underscores
+	 * @return the number of classified instances
+	 * @throws Exception if the test set cannot be read or classified
+	 */
+	private static long predict(CustomJ48Tree tree, String path, PrintStream writer, int threads,
+			boolean replaceEmptyStrings) throws Exception {
+		
+		InputFormat testFormat = DataSource.isArff(CompressedFiles.getUncompressedName(path)) ? InputFormat.ARFF : InputFormat.CSV;
+		
+		return predict(tree, CompressedFiles.open(new File(path)), testFormat, writer, threads, replaceEmptyStrings);
+	}
+	
+	/**
+	 * Function used to classify a test set read from a stream with the built tree, in
+	 * parallel, writing the predicted classes in the same order of the instances
+	 * 
+	 * @param tree the built tree
+	 * @param in the stream of the test set, closed at the end
+	 * @param format the format of the test set (CSV or ARFF)
+	 * @param output the stream of the predictions, closed at the end
+	 * @param threads the number of threads used to classify the instances
+	 * @param replaceEmptyStrings are we replacing underscores
+	 * @return the number of classified instances
+	 * @throws Exception if the test set cannot be read or classified
+	 */
+	static long predict(CustomJ48Tree tree, InputStream in, InputFormat format, OutputStream output, int threads,
+			boolean replaceEmptyStrings) throws Exception {
+		
+		FlatTreePredictor flat;
+		Instances header;
+		
+		synchronized (tree) { // the predictor and the header of the same tree, also while it is updated
+			flat = tree.getPredictor();
+			header = tree.getHeader();
+		}
+		
+		BatchPredictor predictor = new BatchPredictor(flat, header, threads, replaceEmptyStrings);
+		RunStats.Phase phase = RunStats.start("predict");
+		RunStats.CountingOutputStream counted = new RunStats.CountingOutputStream(output);
+		Writer out = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8));
+		long count;
+		
+		try {
+			if (format == InputFormat.ARFF) { // the ARFF reader handles the whole format by itself
+				count = predictor.predictARFF(new InputStreamReader(in, StandardCharsets.UTF_8), out);
+			} else {
+			
+				DataSetReader reader = read(in, replaceEmptyStrings); // pre-process as the training data
+				
+				try {
+					count = predictor.predictCSV(reader, out);
+				} catch (IOException e) {
+					
+					if (reader.getParseException() != null) // an underscore was already found during replacement
+						throw reader.getParseException();
+					
+					throw e;
+				} finally {
+					reader.close();
+				}
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		
+		phase.rows(count).output(counted.getCount()).end();
+		
+		return count;
+	}
+	
+	/**
+	 * Function used to read a data set from STDIN or from a file (replacing underscores),
+	 * streaming it through the pre-processing reader directly into the Weka loader
 	 * 
 	 * @param in Input stream used
+	 * @param format the format of the data set (CSV or ARFF)
 	 * @param replaceEmptyStrings are we replacing underscores
-	 * @return the data set as string
+	 * @return an Instances object containing all instances
 	 * @throws ParseException if there is already a single underscore as attribute
-	 * @throws IOException 
+	 * @throws IOException if the loader fails
 	 */
-	private static String read(InputStream in, boolean replaceEmptyStrings, boolean isFile) throws ParseException, IOException {
-
-		// Read and replace the content of the dataset
-		BufferedReader myScanner = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+	static Instances readDataSet(InputStream in, InputFormat format, boolean replaceEmptyStrings) throws ParseException, IOException {
+		
+		DataSetReader reader = read(in, replaceEmptyStrings);
+		
+		try {
+			switch(format) { //check the format
+				case ARFF: //if it is ARFF let weka use the arff reader
+					return new ArffLoader.ArffReader(reader).getData();
+				default: //otherwise just use the CSV one
+					return getInstancesFromCSV(reader);
+			}
+		} catch (IOException e) {
+			
+			if (reader.getParseException() != null) // an underscore was already found during replacement
+				throw reader.getParseException();
+			
+			throw e;
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Function used to read the rows appended to a data set (replacing underscores), so
+	 * the rows of a CSV file without the names of the attributes or the data lines of an
+	 * ARFF file, according to the header of the data set. Only the new rows are parsed:
+	 * the values of the nominal attributes of an ARFF file must be declared in the header,
+	 * while the ones of a CSV file are added after the known ones.
+	 * 
+	 * @param in Input stream used
+	 * @param header the header of the data set
+	 * @param format the format of the rows (CSV or ARFF)
+	 * @param replaceEmptyStrings are we replacing underscores
+	 * @return an Instances object containing the new instances, with the nominal values added
+	 * @throws ParseException if there is already a single underscore as attribute
+	 * @throws IOException if the rows cannot be read with the header
+	 */
+	static Instances readRows(InputStream in, Instances header, InputFormat format, boolean replaceEmptyStrings) throws ParseException, IOException {
+		
+		DataSetReader reader = read(in, replaceEmptyStrings);
 		
-		String newFile = "";
-		int lineNumber = 0;
+		try {
+			switch(format) { //check the format
+				case ARFF: //the data lines are read by the arff reader with the header as template
+					ArffLoader.ArffReader arff = new ArffLoader.ArffReader(reader, header, 0);
+					Instances rows = new Instances(header, 0);
+					Instance row;
+					
+					while ((row = arff.readInstance(rows)) != null)
+						rows.add(row);
+					
+					return rows;
+				default: //otherwise the rows are typed by the CSV one
+					return new DictionaryCSVLoader(reader).getRows(header);
+			}
+		} catch (IOException e) {
+			
+			if (reader.getParseException() != null) // an underscore was already found during replacement
+				throw reader.getParseException();
+			
+			throw e;
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Function used to read a data set file (replacing underscores), parsing it with the
+	 * CSV or ARFF loader according to its extension. Uncompressed files are mapped in
+	 * memory, while the ones compressed with gzip or Zstandard are decompressed while
+	 * they are parsed.
+	 * 
+	 * @param file the data set file, in CSV or ARFF format, compressed or not
+	 * @param replaceEmptyStrings are we replacing underscores, only for CSV files
+	 * @return an Instances object containing all instances
+	 * @throws ParseException if there is already a single underscore as attribute
+	 * @throws IOException if the loader fails
+	 */
+	static Instances readDataSet(File file, boolean replaceEmptyStrings) throws ParseException, IOException {
 		
-		Pattern p = Pattern.compile("\\b_\\b"); //create RegEx to find pre-existing underscores
-		Matcher m = p.matcher("");  //create empty matcher so we can reuse the same without creating different objects, 
-		//less memory is so used
+		String name = CompressedFiles.getUncompressedName(file.getName());
+		boolean arff = DataSource.isArff(name);
+		boolean replace = replaceEmptyStrings && !arff;
+		MappedDataSetReader mapped = null;
+		Reader reader;
 		
+		if (!CompressedFiles.isCompressed(file.getName()))
+			reader = mapped = new MappedDataSetReader(file, replace);
+		else if (replace) // pre-processed as STDIN
+			reader = read(CompressedFiles.open(file), true);
+		else // the content is parsed as it is, as for the uncompressed files
+			reader = new InputStreamReader(CompressedFiles.open(file), StandardCharsets.UTF_8);
 		
-		String fileLine = myScanner.readLine();
-		while (fileLine != null) { //while we have another line
-
-			lineNumber++;
-			fileLine = fileLine.replaceAll("\\s*,\\s*", ",").trim(); // remove trailing and leading
-																						// spaces
-			if(replaceEmptyStrings) { //if we are replacing 
-				m = m.reset(fileLine); //set the matcher to the current line
+		try {
+			if (arff) //if it is ARFF let weka use the arff reader, buffered as it reads a character at a time
+				return new ArffLoader.ArffReader(new BufferedReader(reader)).getData();
 			
-				if (m.find()) // if it already contains an underscore throw an exception
-					throw new ParseException("Underscore character already found during replacement at line " + lineNumber);
-
-				newFile += fileLine.replaceAll(",,", ",_,") + "\n"; // otherwise replace empty strings with underscore
-			} else
-				newFile += fileLine + "\n"; //add it to content
+			//otherwise just use the CSV one, on the bytes of a mapped file so only its distinct values are decoded
+			Instances data = mapped != null ? getInstancesFromCSV(mapped.getBytes()) : getInstancesFromCSV(reader);
+			
+			//name the relation after the file, as the CSV loader of weka does
+			data.setRelationName(name.replaceAll("\\.[^.]*$", ""));
+			
+			return data;
+			
+		} catch (IOException e) {
+			
+			if (e.getCause() instanceof ParseException) // an underscore was already found during replacement
+				throw (ParseException) e.getCause();
 			
-			fileLine = myScanner.readLine();
+			throw e;
+		} finally {
+			reader.close();
 		}
+	}
+	
+	/**
+	 * Function used to check whether a data set file can be read by {@link #readDataSet(File, boolean)},
+	 * so if it is a CSV or ARFF file, compressed with gzip or Zstandard or not
+	 * 
+	 * @param path the path of the data set
+	 * @return true if it can be read without the loaders chosen by Weka
+	 */
+	static boolean isDataSetFile(String path) {
 		
-		myScanner.close();
-
-		return newFile; //return the data set
+		String name = CompressedFiles.getUncompressedName(path).toLowerCase();
+		
+		return name.endsWith(".csv") || name.endsWith(".arff");
+	}
+	
+	/**
+	 * Function used to create the stream of an output file, compressed if its extension
+	 * is the one of gzip or Zstandard
+	 * 
+	 * @param path the path of the output file
+	 * @return the stream writing the file in UTF-8
+	 * @throws IOException if the file cannot be created
+	 */
+	static PrintStream createWriter(String path) throws IOException {
+		return new PrintStream(CompressedFiles.create(new File(path)), false, "UTF-8");
+	}
+	
+	/**
+	 * Function used to read a whole stream in memory
+	 * 
+	 * @param in the stream
+	 * @return the bytes read
+	 * @throws IOException if the stream cannot be read
+	 */
+	static byte[] readAll(InputStream in) throws IOException {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[65536];
+		int read;
+		
+		while ((read = in.read(buffer)) > 0)
+			bytes.write(buffer, 0, read);
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Function used to read a data set from STDIN or from a file (replacing underscores)
+	 * 
+	 * @param in Input stream used
+	 * @param replaceEmptyStrings are we replacing underscores
+	 * @return a reader returning the pre-processed data set line by line
+	 */
+	private static DataSetReader read(InputStream in, boolean replaceEmptyStrings) {
+		return new DataSetReader(in, replaceEmptyStrings);
 	}
 	
 	/**
-	 * Function used to get instances from a string representing a CSV file
-	 * @param file string representing the data set
+	 * Function used to get instances from a reader returning a CSV file, building the
+	 * nominal attributes directly instead of string ones
+	 * @param in reader returning the data set
 	 * @return an Instances object containing all instances
 	 * @throws IOException if the loader fails
 	 */
-	private static Instances getInstancesFromCSV(String file) throws IOException {
+	private static Instances getInstancesFromCSV(Reader in) throws IOException {
 		
-		ByteArrayInputStream in = new ByteArrayInputStream(file.getBytes("utf-8")); // create the input
-		// stream from the new
-		// content
+		DictionaryCSVLoader csv = new DictionaryCSVLoader(in); // load it as CSV
 
-		CSVLoader csv = new CSVLoader(); // load it as CSV
-		csv.setSource(in);
+		return csv.getDataSet(); // get the data set
+	}
+	
+	/**
+	 * Function used to get instances from a stream returning a CSV file in UTF-8, decoding
+	 * only the distinct values
+	 * @param in stream returning the data set
+	 * @return an Instances object containing all instances
+	 * @throws IOException if the loader fails
+	 */
+	private static Instances getInstancesFromCSV(InputStream in) throws IOException {
+		
+		DictionaryCSVLoader csv = new DictionaryCSVLoader(in); // load it as CSV, from the bytes
 
 		return csv.getDataSet(); // get the data set
 	}
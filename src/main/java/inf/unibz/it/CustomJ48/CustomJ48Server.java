@@ -0,0 +1,377 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.cli.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import weka.core.Instances;
+
+/**
+ * Local HTTP server keeping the built trees in memory, so the clients pay the
+ * start of the JVM and the loading of Weka only once. The server listens only
+ * on the loopback interface and serves the requests concurrently with a fixed
+ * pool of threads. The trees are kept in a {@link ModelRegistry}, so only the
+ * most recently used ones stay in memory.
+ *
+ * The following requests are served, where name is made of letters, digits,
+ * dots, dashes and underscores:
+ *
+ * <pre>
+ * GET    /models                       the names of the trees, one per line
+ * PUT    /models/name?format=csv&amp;replace  builds a tree from the data set in the body
+ * POST   /models/name/append           updates a tree with the instances in the body
+ * GET    /models/name/export?format=dot&amp;pruning  exports a tree (dot, json, graphml, java)
+ * POST   /models/name/predict?format=csv  classifies the test set in the body
+ * DELETE /models/name                  removes a tree
+ * </pre>
+ *
+ * The replacement of the empty strings chosen when the tree is built applies
+ * also to its exports and to the test sets classified with it, as its format
+ * applies to the instances appended to its data set, which are the rows of a
+ * CSV file without the header or the data lines of an ARFF file.
+ */
+public class CustomJ48Server {
+
+	private final HttpServer server;
+	private final ExecutorService pool;
+	private final ModelRegistry<Model> registry;
+
+	/**
+	 * Creates a server, which is not started yet
+	 *
+	 * @param port     the port, on the loopback interface
+	 * @param threads  the number of threads serving the requests
+	 * @param capacity the maximum number of trees kept in memory
+	 * @throws IOException if the port cannot be bound
+	 */
+	public CustomJ48Server(int port, int threads, int capacity) throws IOException {
+		this.registry = new ModelRegistry<Model>(capacity);
+		this.pool = Executors.newFixedThreadPool(threads);
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.setExecutor(pool);
+		this.server.createContext("/models", new ModelsHandler());
+	}
+
+	/**
+	 * Starts serving the requests in background
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the server, waiting at most the given time for the requests being
+	 * served
+	 *
+	 * @param delay the maximum time to wait, in seconds
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		pool.shutdown();
+	}
+
+	/**
+	 * Gets the address the server is listening on
+	 *
+	 * @return the address, with the actual port if 0 was requested
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Built tree, keeping its training data, with the options used to read it
+	 */
+	private static class Model {
+
+		private final CustomJ48Tree tree;
+		private final CustomJ48.InputFormat format;
+		private final boolean replace;
+
+		private Model(CustomJ48Tree tree, CustomJ48.InputFormat format, boolean replace) {
+			this.tree = tree;
+			this.format = format;
+			this.replace = replace;
+		}
+	}
+
+	/**
+	 * Request that cannot be served, answered with the given status
+	 */
+	private static class RequestException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		private RequestException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Handler of all the requests on the models
+	 */
+	private class ModelsHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+
+			try {
+				String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+				Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+				String method = exchange.getRequestMethod();
+
+				if (path.length == 1) { // the whole registry
+					requireMethod(method, "GET");
+					list(exchange);
+					return;
+				}
+
+				String name = path[1];
+
+				if (!name.matches("[A-Za-z0-9_.-]+"))
+					throw new RequestException(400, "Invalid model name: " + name);
+
+				if (path.length == 2) { // a single model
+					if (method.equals("PUT") || method.equals("POST"))
+						train(exchange, name, query);
+					else if (method.equals("DELETE"))
+						delete(exchange, name);
+					else
+						throw new RequestException(405, "Method not allowed: " + method);
+				} else if (path.length == 3 && path[2].equals("append")) {
+					requireMethod(method, "POST");
+					append(exchange, name, getModel(name));
+				} else if (path.length == 3 && path[2].equals("export")) {
+					requireMethod(method, "GET");
+					export(exchange, getModel(name), query);
+				} else if (path.length == 3 && path[2].equals("predict")) {
+					requireMethod(method, "POST");
+					predict(exchange, getModel(name), query);
+				} else {
+					throw new RequestException(404, "Unknown request: " + exchange.getRequestURI().getPath());
+				}
+
+			} catch (RequestException e) {
+				sendText(exchange, e.status, e.getMessage());
+			} catch (ParseException e) { // the data set cannot be read
+				sendText(exchange, 400, e.getMessage());
+			} catch (Exception e) {
+				e.printStackTrace();
+				sendText(exchange, 500, e.getClass().getSimpleName() + ": " + e.getMessage());
+			} finally {
+				exchange.close();
+			}
+		}
+
+		/**
+		 * Writes the names of the registered models
+		 */
+		private void list(HttpExchange exchange) throws IOException {
+			StringBuilder names = new StringBuilder();
+			for (String name : registry.names())
+				names.append(name).append('\n');
+			sendText(exchange, 200, names.toString());
+		}
+
+		/**
+		 * Builds a tree from the data set in the body of the request and registers it
+		 */
+		private void train(HttpExchange exchange, String name, Map<String, String> query) throws Exception {
+
+			CustomJ48.InputFormat format = parseFormat(query);
+			boolean replace = query.containsKey("replace") && format == CustomJ48.InputFormat.CSV; // as for the console
+
+			Instances data = CustomJ48.readDataSet(exchange.getRequestBody(), format, replace);
+
+			if (data.numInstances() == 0)
+				throw new RequestException(400, "The data set is empty");
+
+			// the requests are already served in parallel, so every tree is built by a single worker,
+			// keeping its training data to be updated with the appended instances
+			CustomJ48Tree tree = CustomJ48.buildTree(data, 1, true);
+
+			registry.put(name, new Model(tree, format, replace));
+
+			sendText(exchange, 200, "Model " + name + " built: " + (int) tree.measureTreeSize() + " nodes, "
+					+ (int) tree.measureNumLeaves() + " leaves\n");
+		}
+
+		/**
+		 * Appends the instances in the body of the request to the data set of a
+		 * model and updates its tree. Only the new instances are read, with the
+		 * header of the data set, as if they had been there from the start: if
+		 * they add values to the nominal attributes the tree is built again,
+		 * otherwise it is updated in place.
+		 */
+		private void append(HttpExchange exchange, String name, Model model) throws Exception {
+
+			synchronized (model) { // the appends to the same model are applied in order
+
+				Instances rows;
+
+				try {
+					rows = CustomJ48.readRows(exchange.getRequestBody(), model.tree.getHeader(), model.format,
+							model.replace);
+				} catch (IOException e) { // the rows do not match the data set, as a value of a new type
+					throw new RequestException(400, "The instances cannot be appended to the data set: " + e.getMessage());
+				}
+
+				model.tree.update(rows);
+
+				sendText(exchange, 200, "Model " + name + " updated: " + (int) model.tree.measureTreeSize()
+						+ " nodes, " + (int) model.tree.measureNumLeaves() + " leaves\n");
+			}
+		}
+
+		/**
+		 * Removes a model from the registry
+		 */
+		private void delete(HttpExchange exchange, String name) throws Exception {
+			if (registry.remove(name) == null)
+				throw new RequestException(404, "Unknown model: " + name);
+			sendText(exchange, 200, "Model " + name + " removed\n");
+		}
+
+		/**
+		 * Exports a tree in the format given by the request. The export is
+		 * written in memory first, so a failure is answered with its status.
+		 */
+		private void export(HttpExchange exchange, Model model, Map<String, String> query) throws Exception {
+
+			String format = query.containsKey("format") ? query.get("format") : "dot";
+			boolean pruning = query.containsKey("pruning");
+
+			if (!format.matches("dot|json|graphml|java"))
+				throw new RequestException(400, "Unknown export format: " + format);
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+			if (format.equals("graphml"))
+				model.tree.writeGraphML(body, pruning, model.replace, true);
+			else if (format.equals("json"))
+				model.tree.writeJSON(body, pruning, model.replace, false);
+			else if (format.equals("java"))
+				model.tree.writeJava(body, pruning, model.replace, "J48Scorer");
+			else
+				model.tree.writeDot(body, pruning, model.replace);
+
+			send(exchange, 200, body.toByteArray());
+		}
+
+		/**
+		 * Classifies the test set in the body of the request, writing a predicted
+		 * class per line. The predictions are kept in memory until the whole test
+		 * set has been read, so a test set that cannot be read is answered with 400.
+		 */
+		private void predict(HttpExchange exchange, Model model, Map<String, String> query) throws Exception {
+
+			CustomJ48.InputFormat format = parseFormat(query);
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+			try {
+				// the requests are already served in parallel, so every test set is classified by a single worker
+				CustomJ48.predict(model.tree, exchange.getRequestBody(), format, body, 1, model.replace);
+			} catch (IOException e) { // the predictions are written in memory, so only the reading fails
+				throw new RequestException(400, "The test set cannot be read: " + e.getMessage());
+			}
+
+			send(exchange, 200, body.toByteArray());
+		}
+
+		/**
+		 * Gets a registered model
+		 */
+		private Model getModel(String name) throws RequestException {
+			Model model = registry.get(name);
+			if (model == null)
+				throw new RequestException(404, "Unknown model: " + name);
+			return model;
+		}
+
+		private void requireMethod(String method, String allowed) throws RequestException {
+			if (!method.equals(allowed))
+				throw new RequestException(405, "Method not allowed: " + method);
+		}
+
+		private CustomJ48.InputFormat parseFormat(Map<String, String> query) throws RequestException {
+			String format = query.containsKey("format") ? query.get("format") : "csv";
+			if (format.equals("csv"))
+				return CustomJ48.InputFormat.CSV;
+			if (format.equals("arff"))
+				return CustomJ48.InputFormat.ARFF;
+			throw new RequestException(400, "Unknown input format: " + format);
+		}
+	}
+
+	/**
+	 * Parses the parameters of a query, a parameter without value is mapped to the
+	 * empty string
+	 *
+	 * @param query the raw query, null if none
+	 * @return the parameters
+	 */
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+
+		Map<String, String> parameters = new HashMap<String, String>();
+
+		if (query == null)
+			return parameters;
+
+		for (String parameter : query.split("&")) {
+			if (parameter.isEmpty())
+				continue;
+			int equals = parameter.indexOf('=');
+			String key = equals < 0 ? parameter : parameter.substring(0, equals);
+			String value = equals < 0 ? "" : parameter.substring(equals + 1);
+			parameters.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+
+		return parameters;
+	}
+
+	/**
+	 * Sends a whole text response, if the headers have not been sent yet
+	 */
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+
+		if (exchange.getResponseCode() != -1) { // the response was already started, the error can only be logged
+			System.err.println("Request " + exchange.getRequestURI() + " failed: " + text);
+			return;
+		}
+
+		send(exchange, status, (text.endsWith("\n") ? text : text + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends a whole response with its length. If the body cannot be written
+	 * completely, closing the exchange aborts the connection, so the client
+	 * never gets a truncated response.
+	 */
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
@@ -1,27 +1,27 @@
 package inf.unibz.it.CustomJ48;
 
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.PrintWriter;
-
-import org.apache.commons.text.StringEscapeUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.stream.XMLStreamException;
 
 import weka.classifiers.trees.J48;
-import weka.classifiers.trees.j48.ClassifierSplitModel;
 import weka.classifiers.trees.j48.ClassifierTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
 
@@ -48,12 +48,421 @@ import weka.core.Utils;
  * 
  *         The dot format is used in its standard specification and therefore it
  *         is compatible with all dot visualizers
+ * 
+ *         The tree can also be exported as the source of a Java class, which
+ *         can be compiled in memory to classify instances on the hot path.
+ * 
+ *         All the exporters visit the compact form of the tree, built once
+ *         after the training ({@link CompactNode}), through the same iterative
+ *         {@link TreeTraversal}, which keeps the node ids in local state, so a
+ *         built tree can be exported several times, also concurrently. When
+ *         more than one export thread is set, sibling subtrees are exported in
+ *         parallel, producing the same output. The labels written by every
+ *         format are taken from the {@link ExportTree} of the compact form, so
+ *         they are escaped once for all the exports of the tree.
+ * 
+ *         The dot and JSON exports can also write the tree as a directed
+ *         acyclic graph, where identical subtrees are written once and
+ *         referenced by all the branches reaching them ({@link SubtreeDag}).
  */
 public class CustomJ48Tree extends J48 {
 
-	// Id used to uniquely identify every node in the tree
-	private int id = 1;
-	private Document document;
+	/**
+	 * Information attached to every node in the dot format: nothing, the number
+	 * of training instances of every class or the whole training data reaching
+	 * the node.
+	 */
+	public enum NodePayload {
+		NONE, DISTRIBUTION, DATA;
+	}
+
+	// Number of threads used to export the tree, 1 for a sequential export
+	private int exportThreads = 1;
+
+	// Number of threads used to build the tree, 1 for a sequential building
+	private int buildThreads = 1;
+
+	// Information attached to the nodes in the dot format
+	private NodePayload nodePayload = NodePayload.NONE;
+
+	// Whether identical subtrees are written once in the dot and JSON formats
+	private boolean sharedSubtrees = false;
+
+	// Compact form of the built tree, used by all the exporters. It is replaced
+	// and never changed when the tree is updated, so it can be read while updating
+	private volatile CompactNode compactRoot;
+
+	// Export form of the compact tree, keeping the labels already written by the exporters
+	private volatile ExportTree exportTree;
+
+	// Flat form of the built tree, used to classify instances without allocations
+	private volatile FlatTreePredictor predictor;
+
+	// Header of the training data, used to read the instances to classify
+	private volatile Instances header;
+
+	// Whether the training data is kept after building, to update the tree with new instances
+	private boolean keepTrainingData = false;
+
+	// Training data of the built tree, kept only if asked to update it with new instances
+	private Instances trainingData;
+
+	/**
+	 * Builds the tree, its compact form, which keeps only the labels and the
+	 * class distribution of every node, and its flat predictor. The training data
+	 * of the nodes is kept only if the tree is not cleaned up after it has been
+	 * built. If more than one build thread is set, the tree is built in parallel
+	 * unless reduced error pruning is used. The training data itself is kept
+	 * only if the tree has to be updated ({@link #setKeepTrainingData(boolean)}).
+	 * 
+	 * @param instances the training data
+	 * @throws Exception if the tree cannot be built
+	 */
+	@Override
+	public synchronized void buildClassifier(Instances instances) throws Exception {
+		if (buildThreads > 1 && !m_reducedErrorPruning)
+			buildParallel(instances);
+		else
+			super.buildClassifier(instances);
+		compile();
+		trainingData = keepTrainingData ? instances : null;
+	}
+
+	/**
+	 * Builds the tree as J48 does, evaluating the candidate splits of every node
+	 * and building the sons on a fork-join pool, so the tree is identical to the
+	 * sequential one
+	 * 
+	 * @param instances the training data
+	 * @throws Exception if the tree cannot be built
+	 */
+	private void buildParallel(final Instances instances) throws Exception {
+
+		getCapabilities().testWithFail(instances);
+
+		ParallelModelSelection selection = new ParallelModelSelection(m_minNumObj, instances, m_binarySplits,
+				m_useMDLcorrection, m_doNotMakeSplitPointActualValue);
+		final ParallelClassifierTree root = new ParallelClassifierTree(selection, !m_unpruned, m_CF,
+				m_subtreeRaising, !m_noCleanup, m_collapseTree);
+
+		ForkJoinPool pool = new ForkJoinPool(buildThreads);
+
+		try {
+			// the root is built in the pool, so the nodes can fork their candidates and their sons
+			pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					root.buildClassifier(instances);
+					return null;
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+			selection.cleanup();
+		}
+
+		m_root = root;
+	}
+
+	/**
+	 * Updates the built tree with new instances appended to its training data.
+	 * An unpruned tree is updated in place with {@link TreeUpdater}, choosing the
+	 * splits again only where the data changes, otherwise it is built again from
+	 * all the instances. In both cases the result is the tree J48 builds from all
+	 * the instances. If the new instances add values to some nominal attributes,
+	 * the tree is built again from the training data extended with them. If the
+	 * update fails, the tree, its compiled forms and its training data are left
+	 * as they were.
+	 * 
+	 * @param instances the new instances, with the same attributes of the
+	 *                  training data, nominal ones possibly with more values
+	 * @throws Exception if the tree has not been built keeping its training data
+	 *                   or cannot be updated
+	 */
+	public synchronized void update(Instances instances) throws Exception {
+
+		if (m_root == null || trainingData == null)
+			throw new IllegalStateException("Only a built tree keeping its training data can be updated");
+
+		Instances all;
+		String message = trainingData.equalHeadersMsg(instances);
+
+		if (message != null) {
+			if (!extendsHeader(trainingData, instances))
+				throw new IllegalArgumentException("The new instances do not match the training data: " + message);
+
+			// the attribute values keep their indexes, so the old instances are copied as they are
+			all = new Instances(instances, trainingData.numInstances() + instances.numInstances());
+			for (Instance instance : trainingData)
+				all.add(new DenseInstance(instance.weight(), instance.toDoubleArray()));
+		} else { // the old instances followed by the new ones, as if they were read together
+			all = new Instances(trainingData);
+		}
+
+		for (Instance instance : instances)
+			all.add(instance);
+
+		getCapabilities().testWithFail(all);
+
+		// the built tree, restored if the update fails, so the tree and its compiled forms always match
+		ClassifierTree root = m_root;
+		CompactNode compact = compactRoot;
+		ExportTree export = exportTree;
+		FlatTreePredictor flat = predictor;
+		Instances trainingHeader = header;
+		Instances data = trainingData;
+		boolean changed = false; // whether the nodes of the built tree have been changed in place
+
+		try {
+			if (message == null && TreeUpdater.canUpdate(this, trainingData, all)) {
+
+				ClassifierTree updated = TreeUpdater.update(this, m_root, trainingData, instances, all);
+				changed = updated == root; // the old nodes are changed only once the whole update succeeds
+
+				try {
+					m_root = updated;
+					if (!m_noCleanup) // as done by J48 at the end of the building
+						m_root.cleanup(new Instances(all, 0));
+
+					compile();
+					trainingData = all;
+					return;
+				} catch (Exception e) { // the changed nodes cannot be used, so the tree is built again
+					System.err.println("The updated tree cannot be compiled, it is built again: " + e.getMessage());
+				}
+			}
+
+			buildClassifier(all);
+
+		} catch (Exception e) {
+			// without its old nodes the tree keeps only its compiled forms, as a restored one
+			m_root = changed ? null : root;
+			compactRoot = compact;
+			exportTree = export;
+			predictor = flat;
+			header = trainingHeader;
+			trainingData = data;
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks if a header has the same attributes of the training data, nominal
+	 * ones possibly with more values after the known ones
+	 */
+	private static boolean extendsHeader(Instances training, Instances extended) {
+
+		if (training.numAttributes() != extended.numAttributes() || training.classIndex() != extended.classIndex())
+			return false;
+
+		for (int i = 0; i < training.numAttributes(); i++) {
+			Attribute known = training.attribute(i);
+			Attribute attribute = extended.attribute(i);
+
+			if (!known.name().equals(attribute.name()) || known.type() != attribute.type())
+				return false;
+			if (known.isNominal()) {
+				if (known.numValues() > attribute.numValues())
+					return false;
+				for (int j = 0; j < known.numValues(); j++)
+					if (!known.value(j).equals(attribute.value(j)))
+						return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Computes the compact form, the flat predictor and the header of the built
+	 * tree
+	 */
+	private void compile() throws Exception {
+		compactRoot = CompactNode.compact(m_root, m_noCleanup);
+		exportTree = new ExportTree(compactRoot);
+		predictor = FlatTreePredictor.compile(m_root, m_root.getTrainingData());
+		header = new Instances(m_root.getTrainingData(), 0);
+	}
+
+	/**
+	 * Restores a tree read from a {@link TreeSnapshot}. Only the compact form and
+	 * the flat predictor are restored, so the tree can be exported and can
+	 * classify instances, but the J48 tree is not available.
+	 * 
+	 * @param compactRoot the compact form of the tree
+	 * @param predictor the flat predictor of the tree
+	 * @param header the header of the training data
+	 */
+	void restore(CompactNode compactRoot, FlatTreePredictor predictor, Instances header) {
+		this.compactRoot = compactRoot;
+		this.exportTree = new ExportTree(compactRoot);
+		this.predictor = predictor;
+		this.header = header;
+	}
+
+	/**
+	 * Classifies an instance, with the flat predictor if the tree has been
+	 * restored from a snapshot
+	 * 
+	 * @param instance the instance to classify
+	 * @return the index of the predicted class
+	 * @throws Exception if the instance cannot be classified
+	 */
+	@Override
+	public double classifyInstance(Instance instance) throws Exception {
+		if (m_root == null && predictor != null) // restored, the flat predictor gives the same result
+			return predictor.classifyInstance(instance);
+		return super.classifyInstance(instance);
+	}
+
+	/**
+	 * Gets the compact form of the built tree
+	 * 
+	 * @return the root of the compact tree, null if the tree has not been built
+	 */
+	public CompactNode getCompactRoot() {
+		return compactRoot;
+	}
+
+	/**
+	 * Gets the predictor compiled from the built tree, which classifies instances
+	 * as {@link #classifyInstance(weka.core.Instance)} does, without allocating
+	 * any object
+	 * 
+	 * @return the predictor, null if the tree has not been built
+	 */
+	public FlatTreePredictor getPredictor() {
+		return predictor;
+	}
+
+	/**
+	 * Gets the header of the training data, with the attributes used by the tree
+	 * 
+	 * @return the header, null if the tree has not been built
+	 */
+	public Instances getHeader() {
+		return header;
+	}
+
+	/**
+	 * Gets the training data of the built tree, followed by the instances of all
+	 * the updates
+	 * 
+	 * @return the training data, null if the tree has not been built or does not
+	 *         keep its training data
+	 */
+	public synchronized Instances getTrainingData() {
+		return trainingData;
+	}
+
+	/**
+	 * Sets whether the training data is kept after building the tree, so that it
+	 * can be updated with new instances ({@link #update(Instances)}). It is not
+	 * kept by default, since a tree that is only exported does not need it.
+	 * 
+	 * @param keepTrainingData whether the training data is kept
+	 */
+	public void setKeepTrainingData(boolean keepTrainingData) {
+		this.keepTrainingData = keepTrainingData;
+	}
+
+	/**
+	 * Checks whether the training data is kept after building the tree
+	 * 
+	 * @return true if the tree can be updated
+	 */
+	public boolean isKeepTrainingData() {
+		return keepTrainingData;
+	}
+
+	/**
+	 * Sets the number of threads used to export the tree
+	 * 
+	 * @param exportThreads the number of threads, 1 for a sequential export
+	 */
+	public void setExportThreads(int exportThreads) {
+		if (exportThreads < 1)
+			throw new IllegalArgumentException("The number of export threads must be positive");
+		this.exportThreads = exportThreads;
+	}
+
+	/**
+	 * Gets the number of threads used to export the tree
+	 * 
+	 * @return the number of threads, 1 for a sequential export
+	 */
+	public int getExportThreads() {
+		return exportThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to build the tree
+	 * 
+	 * @param buildThreads the number of threads, 1 for a sequential building
+	 */
+	public void setBuildThreads(int buildThreads) {
+		if (buildThreads < 1)
+			throw new IllegalArgumentException("The number of build threads must be positive");
+		this.buildThreads = buildThreads;
+	}
+
+	/**
+	 * Gets the number of threads used to build the tree
+	 * 
+	 * @return the number of threads, 1 for a sequential building
+	 */
+	public int getBuildThreads() {
+		return buildThreads;
+	}
+
+	/**
+	 * Sets the information attached to every node when exporting in the dot
+	 * format. The training data is available only if the tree has been built
+	 * without cleaning it up (-L option).
+	 * 
+	 * @param nodePayload the information attached to the nodes
+	 */
+	public void setNodePayload(NodePayload nodePayload) {
+		this.nodePayload = nodePayload;
+	}
+
+	/**
+	 * Gets the information attached to every node when exporting in the dot format
+	 * 
+	 * @return the information attached to the nodes
+	 */
+	public NodePayload getNodePayload() {
+		return nodePayload;
+	}
+
+	/**
+	 * Sets whether identical subtrees are written once when exporting in the dot
+	 * and JSON formats, as a directed acyclic graph. In the dot format the nodes
+	 * of a shared subtree have an edge from every parent, in JSON the first
+	 * occurrence has a "$id" member and the other ones are objects with only the
+	 * edge label and a "$ref" member with the same id. Subtrees are identical if
+	 * their labels are, and also their class distributions when they are
+	 * attached to the nodes. Graphs are always exported sequentially, and the
+	 * training data cannot be attached to their nodes.
+	 * 
+	 * @param sharedSubtrees whether identical subtrees are written once
+	 */
+	public void setSharedSubtrees(boolean sharedSubtrees) {
+		this.sharedSubtrees = sharedSubtrees;
+	}
+
+	/**
+	 * Checks whether identical subtrees are written once in the dot and JSON formats
+	 * 
+	 * @return true if the tree is exported as a graph
+	 */
+	public boolean isSharedSubtrees() {
+		return sharedSubtrees;
+	}
 
 	// #########################################################################################
 	// ## ##
@@ -62,306 +471,125 @@ public class CustomJ48Tree extends J48 {
 	// #########################################################################################
 
 	/**
-	 * Method to export the given tree in the GraphML format.
+	 * Method to export the given tree in the GraphML format, indenting the output.
 	 * 
 	 * @param writer The writer instance for the output
 	 * @param pruning  boolean value representing if we would like to apply our
 	 *                 pruning criteria or not
-	 * @param replace  boolean value representing if we are replacing back underscore                
-	 * @throws ParserConfigurationException  For misconfiguration
-	 * @throws TransformerException  If the XML Transformer is not able to write the XML file
-	 */
-	public void exportGraphML(PrintStream writer, boolean pruning, boolean replace) throws ParserConfigurationException, TransformerException {
-
-		
-		 DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance(); //get a document factory instance
-		 
-         DocumentBuilder documentBuilder = documentFactory.newDocumentBuilder(); //get a document builder instance
-         
-         //get the document
-         document = documentBuilder.newDocument();
-       //Create the root element (graphml) with all the references to the schemas
-         Element root = document.createElement("graphml");
-         root.setAttribute("xmlns", "http://graphml.graphdrawing.org/xmlns");
-         root.setAttribute("xmlns:java", "http://www.yworks.com/xml/yfiles-common/1.0/java");
-         root.setAttribute("xmlns:sys", "http://www.yworks.com/xml/yfiles-common/markup/primitives/2.0");
-         root.setAttribute("xmlns:bpmn", "http://www.yworks.com/xml/yfiles-for-html/bpmn/2.0");
-         root.setAttribute("xmlns:x", "http://www.yworks.com/xml/yfiles-common/markup/2.0");
-         root.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-         root.setAttribute("xmlns:y", "http://www.yworks.com/xml/graphml");
-         root.setAttribute("xmlns:yed", "http://www.yworks.com/xml/yed/3");
-         root.setAttribute("xsi:schemaLocation", "http://graphml.graphdrawing.org/xmlns http://www.yworks.com/xml/schema/graphml/1.1/ygraphml.xsd");
-       
-         document.appendChild(root);
- 		
-         // Append the keys, so the types of the variables used to store labels
- 		// attributes and descriptions
-		Element graphmlKey = document.createElement("key"); //Create the label key for yEd
-		graphmlKey.setAttribute("id", "d7");
-		graphmlKey.setAttribute("for", "graphml");
-		graphmlKey.setAttribute("yfiles.type", "resources");
-		
-		root.appendChild(graphmlKey);
-		
-				
-		Element descKey = document.createElement("key"); //create the description key, standard graphml 
-		descKey.setAttribute("id", "desc");
-		descKey.setAttribute("for", "all");
-		descKey.setAttribute("attr.name", "description");
-		root.appendChild(descKey);
-		
-		Element labKey = document.createElement("key"); //create the node key
-		labKey.setAttribute("id", "d6");
-		labKey.setAttribute("for", "node");
-		labKey.setAttribute("yfiles.type", "nodegraphics");
-		root.appendChild(labKey);
-		
-		Element edgeKey = document.createElement("key"); //create the edge key
-		edgeKey.setAttribute("id", "d10");
-		edgeKey.setAttribute("for", "edge");
-		edgeKey.setAttribute("yfiles.type", "edgegraphics");
-		root.appendChild(edgeKey);
-		
-		Element graph = document.createElement("graph"); //Create the graph element
-		graph.setAttribute("edgedefault", "directed");
-		root.appendChild(graph);
-		
-		//Create the root node structure, label will be added later in the if  
-		Element treeRoot = document.createElement("node");
-		treeRoot.setAttribute("id", "0");
-		graph.appendChild(treeRoot);
-		//Create the label structure
-		Element dataLab = document.createElement("data");
-		dataLab.setAttribute("key", "d6");
-		
-		Element xList = document.createElement("y:ShapeNode");
-		
-		
-		// If the root is a leaf 
-		if (m_root.isLeaf()) {
-			try {
-				//Get the right label
-				String text = m_root.getLocalModel().dumpLabel(0, m_root.getTrainingData());
-				//Add it to the node
-				Element yLabelText = document.createElement("y:NodeLabel");
-				
-				yLabelText.appendChild(document.createTextNode(text));
-				xList.appendChild(yLabelText);
-				dataLab.appendChild(xList);
-				treeRoot.appendChild(dataLab);
-				
-				//Create also the standard GraphML description
-				Element dataDesc = document.createElement("data");
-				dataDesc.setAttribute("key", "desc");
-				dataDesc.appendChild(document.createTextNode(text));
-				
-				treeRoot.appendChild(dataDesc); //append the node and terminate, it was a leaf
-			
-				
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		} else { // print the value of the root and then start printing the tree structure
-
-			//Get the right label
-			String text = m_root.getLocalModel().leftSide(m_root.getTrainingData());
-			
-			//Add it to the structure
-			Element yLabelText = document.createElement("y:NodeLabel");
-			yLabelText.appendChild(document.createTextNode(text));
-			xList.appendChild(yLabelText);
-			
-			
-			dataLab.appendChild(xList);
-			treeRoot.appendChild(dataLab);
-			//Add also the description
-			Element dataDesc = document.createElement("data");
-			dataDesc.setAttribute("key", "desc");
-			dataDesc.appendChild(document.createTextNode(text));
-			
-			treeRoot.appendChild(dataDesc);
-			
-			// traverse the tree recurring on the sons
-			exportGraphML(m_root, 0, graph, pruning, replace);
-
-		}
-		
-		// Writing everything on the user's specified file
-		
-		TransformerFactory transformerFactory = TransformerFactory.newInstance(); //get the transformere
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes"); //Forma the file with new lines and indentations
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        
-        DOMSource domSource = new DOMSource(document); //give the source
-        StreamResult streamResult = new StreamResult(writer); //give the destination
-
-        transformer.transform(domSource, streamResult); //write
-
-		// Resetting variables and close stream
-		id = 1;
-		writer.close();
-		
+	 * @param replace  boolean value representing if we are replacing back underscore
+	 * @throws Exception  If the XML writer is not able to write the XML file
+	 */
+	public void exportGraphML(PrintStream writer, boolean pruning, boolean replace) throws Exception {
+		exportGraphML(writer, pruning, replace, true);
+	}
+
+	/**
+	 * Method to export the given tree in the GraphML format. Nodes and edges are
+	 * streamed to the writer as soon as they are visited.
+	 * 
+	 * @param writer The writer instance for the output
+	 * @param pruning  boolean value representing if we would like to apply our
+	 *                 pruning criteria or not
+	 * @param replace  boolean value representing if we are replacing back underscore
+	 * @param pretty   boolean value representing if we are indenting the output or not
+	 * @throws Exception  If the XML writer is not able to write the XML file
+	 */
+	public void exportGraphML(PrintStream writer, boolean pruning, final boolean replace, final boolean pretty) throws Exception {
+
+		writeGraphML(writer, pruning, replace, pretty);
+
 		// Confirm everything went smooth
 		System.out.println("GraphML export completed!");
 	}
 
 	/**
-	 * Private helper method using to export the sons of the root after it has been
-	 * printed.
+	 * Method to write the given tree in the GraphML format, closing the stream at
+	 * the end. Unlike {@link #exportGraphML(PrintStream, boolean, boolean, boolean)}
+	 * nothing is printed on the console.
 	 * 
-	 * @param currentNode The current node analyzed, at the beginning the root node
-	 * @param parentId    The id of the parent node
-	 * @param graph       DOM element representing the final graph, used to add nodes
-	 * @param pruning	  boolean value representing if we are pruning branches or not	  
-	 * @param replace	  boolean value representing if we are replacing back underscores or not
+	 * @param output   The stream of the output
+	 * @param pruning  boolean value representing if we would like to apply our
+	 *                 pruning criteria or not
+	 * @param replace  boolean value representing if we are replacing back underscore
+	 * @param pretty   boolean value representing if we are indenting the output or not
+	 * @throws Exception  If the XML writer is not able to write the XML file
 	 */
-	private void exportGraphML(ClassifierTree currentNode, int parentId, Element graph, boolean pruning, boolean replace) {
+	public void writeGraphML(OutputStream output, boolean pruning, final boolean replace, final boolean pretty) throws Exception {
 
-		try {
+		RunStats.Phase phase = RunStats.start("export.graphml");
+		RunStats.CountingOutputStream counted = new RunStats.CountingOutputStream(output);
 
-			// Get the sons of the current node
-			ClassifierTree[] sons = currentNode.getSons();
-
-			// Get the model and the data at the current node
-			ClassifierSplitModel localModel = currentNode.getLocalModel();
-			Instances trainingData = currentNode.getTrainingData();
-
-			// Analyze every son
-			for (int i = 0; i < sons.length; i++) {
-
-				double nInstances = sons[i].getLocalModel().distribution().total();
-				
-				//If we are not pruning or there are some instances
-				if (!pruning || nInstances > 0) {
-					
-					// Create the node element with the id
-					Element current = document.createElement("node");
-					current.setAttribute("id", id + "");
-					graph.appendChild(current);
-					//Create the label structure
-					Element dataLab = document.createElement("data");
-					dataLab.setAttribute("key", "d6");
-					
-					Element xList = document.createElement("y:ShapeNode");
-					
-					if (sons[i].isLeaf()) { // if the son is a leaf
-
-						String label = localModel.dumpLabel(i, trainingData); // get the class label
-
-						//Add the class label to the label structure
-						Element yLabelText = document.createElement("y:NodeLabel");
-						yLabelText.appendChild(document.createTextNode(label));
-						xList.appendChild(yLabelText);
-						
-						//Add everything to the node
-						
-						dataLab.appendChild(xList);
-						current.appendChild(dataLab);
-						
-						//Create also the description with the same class label for cross compatibility
-						Element dataDesc = document.createElement("data");
-						dataDesc.setAttribute("key", "desc");
-						dataDesc.appendChild(document.createTextNode(label));
-						
-						current.appendChild(dataDesc);
-						
-						graph.appendChild(current); //add node to graph
-						
-						// Writing edge between current node and its son
-						writeEdge(localModel, trainingData, parentId, i, graph, replace);
-
-						id++; // increment the node id
-					} else {
-						
-						//get the correct label
-						String label = sons[i].getLocalModel().leftSide(sons[i].getTrainingData());
-
-						//Add the label to the structure 
-						Element yLabelText = document.createElement("y:NodeLabel");
-						yLabelText.appendChild(document.createTextNode(label));
-						xList.appendChild(yLabelText);
-						
-						//Append everything to the node
-						
-						dataLab.appendChild(xList);
-						current.appendChild(dataLab);
-						
-						//Write description for cross compatibility
-						Element dataDesc = document.createElement("data");
-						dataDesc.setAttribute("key", "desc");
-						dataDesc.appendChild(document.createTextNode(label));
-						
-						current.appendChild(dataDesc);
-						
-						graph.appendChild(current);//add node to graph
-
-						// Writing edge between current node and its son
-						writeEdge(localModel, trainingData, parentId, i, graph, replace);
-
-						id++; // increment the node id
-
-						exportGraphML(sons[i], id - 1, graph, pruning, replace); // recur on the sons
-					}
-				}
-			}
+		Writer out = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8));
+		GraphMLWriter graphML = new GraphMLWriter(out, pretty, 0); //get the streaming writer
 
-		} catch (Exception e) {
+		//Write the root element, the keys and open the graph
+		graphML.startGraph();
+		graphML.flush();
 
-			e.printStackTrace();
-		}
+		// traverse the tree writing every node with the edge from its parent, inside the graph element
+		final ExportTree tree = exportTree;
+		export(tree, null, out, pruning, (fragment, level, first) -> new GraphMLVisitor(new GraphMLWriter(fragment, pretty, 2), tree, replace));
 
+		graphML.endGraph(); // close the graph and the stream
+		graphML.close();
+		phase.tree(this).output(counted.getCount()).end();
 	}
 
 	/**
-	 * Private method used to write the edge from the current node to its parent,
-	 * used both for leaf and non-leaf nodes
-	 * 
-	 * @param localModel   The local model of the current node
-	 * @param trainingData The training data at the current node
-	 * @param parentId     The id of the parent node
-	 * @param current      The id of the current node
-	 * @param graph        DOM element representing the final graph
-	 * @param replace	   Boolean value representing if we are replacing back underscores or not
-	 */
-	private void writeEdge(ClassifierSplitModel localModel, Instances trainingData, int parentId, int current,
-			Element graph, boolean replace) {
-		
-		String labelText = localModel.rightSide(current, trainingData).trim(); //taking edge label
-		
-		if(replace) { //if we are replacing
-			
-			labelText = replace_underscore(labelText, false); //get the resulting label from the replacing function
-		}
-			
-		// Writing edge between current node and its son
-		//Create the element with the ids of source and destination
-		Element edge = document.createElement("edge");
-		edge.setAttribute("id", "e" + id);
-		edge.setAttribute("source", "" + parentId);
-		edge.setAttribute("target", "" + id);
-		//create the data label structure
-		Element dataLab = document.createElement("data");
-		dataLab.setAttribute("key", "d10");
-		
-		Element xList = document.createElement("y:PolyLineEdge");
-		
-		//Add the label text
-		Element yLabelText = document.createElement("y:EdgeLabel");
-		yLabelText.appendChild(document.createTextNode(labelText));
-		
-		//add everything to the node
-		xList.appendChild(yLabelText);
-		dataLab.appendChild(xList);
-		edge.appendChild(dataLab);
-		
-		//Alwasy standard description for cross compatibility
-		Element dataDesc = document.createElement("data");
-		dataDesc.setAttribute("key", "desc");
-		dataDesc.appendChild(document.createTextNode(labelText));
-		edge.appendChild(dataDesc);
-		
-		graph.appendChild(edge); //add edge to graph
+	 * Visitor writing every node in the GraphML format, followed by the edge from
+	 * its parent.
+	 */
+	private static class GraphMLVisitor implements TreeVisitor {
+
+		private final GraphMLWriter graphML;
+		private final ExportTree tree;
+		private final boolean replace;
+
+		/**
+		 * @param graphML The GraphML writer used to write nodes and edges
+		 * @param tree    The export form of the tree, with the labels of the nodes
+		 * @param replace boolean value representing if we are replacing back underscores or not
+		 */
+		private GraphMLVisitor(GraphMLWriter graphML, ExportTree tree, boolean replace) {
+			this.graphML = graphML;
+			this.tree = tree;
+			this.replace = replace;
+		}
+
+		@Override
+		public void enterNode(CompactNode node, CompactNode parent, int index, int id, int parentId)
+				throws Exception {
+
+			//Write the node with its label
+			graphML.writeNode(id, tree.nodeLabel(ExportTree.Format.GRAPHML, node));
+
+			if (parent != null) { // Writing edge between the parent and the current node
+
+				//taking edge label, with the underscore replaced if we are replacing
+				String labelText = tree.edgeLabel(ExportTree.Format.GRAPHML, parent, index, replace);
+
+				graphML.writeEdge(parentId, id, labelText);
+			}
+		}
+
+		@Override
+		public void leaveNode(CompactNode node, int id) {
+		}
+
+		@Override
+		public void referNode(CompactNode node, CompactNode parent, int index, int id, int parentId) {
+			// the GraphML export is always a tree, every subtree is written where it is reached
+			throw new IllegalStateException("Shared subtrees cannot be exported in the GraphML format");
+		}
+
+		@Override
+		public void flush() throws IOException {
+			try {
+				graphML.flush();
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			}
+		}
 	}
 
 	// #########################################################################################
@@ -372,19 +600,21 @@ public class CustomJ48Tree extends J48 {
 
 	/**
 	 * Method used to export the built tree in the dot format, with the possibility
-	 * to prune branches reached by no instances of the training data.
+	 * to prune branches reached by no instances of the training data. Nodes and
+	 * edges are streamed to the writer as soon as they are visited, with the
+	 * information selected through {@link #setNodePayload(NodePayload)}, and
+	 * identical subtrees are written once if set through
+	 * {@link #setSharedSubtrees(boolean)}.
 	 * 
-	 * @param filepath Output file path
-	 * @param pruning  Whether we would like to prune branches or not
+	 * @param writer  The writer instance for the output
+	 * @param pruning Whether we would like to prune branches or not
+	 * @param replace Whether we are replacing back underscores or not
 	 */
-	public void dotExport(PrintStream writer, boolean pruning, boolean replace) {
+	public void dotExport(PrintStream writer, boolean pruning, final boolean replace) {
+
 		try {
-			// Export the tree
-			StringBuffer exportResult = dotExport(pruning, replace);
+			writeDot(writer, pruning, replace);
 
-			//writeOnStream(writer, exportResult, escapeChars);
-			writer.print(exportResult);
-			writer.close();
 			System.out.println("Dot export completed successfully");
 
 		} catch (IOException io) {
@@ -395,132 +625,109 @@ public class CustomJ48Tree extends J48 {
 	}
 
 	/**
-	 * Helper method used to export the tree in the dot format. It writes the root
-	 * node and then calls another helper method that will recurse on the children,
-	 * pruning the branches reached by no instances.
+	 * Method used to write the built tree in the dot format as
+	 * {@link #dotExport(PrintStream, boolean, boolean)} does, closing the stream
+	 * at the end, but failing with the error instead of printing it.
 	 * 
-	 * @param pruning Whether we would like to prune or not.
-	 * @return returns a string containing the exported tree in the dot format
-	 * @throws Exception if something goes wrong
-	 */
-	private StringBuffer dotExport(boolean pruning, boolean replace) throws Exception {
-
-		// Create a new string buffer to append all information about the tree
-		StringBuffer text = new StringBuffer();
-		// Get the model of the root
-		ClassifierSplitModel model = m_root.getLocalModel();
-
-		// Start writing the root node
-		text.append("digraph J48Tree {\n");
-		// If it is a leaf
-		if (m_root.isLeaf()) {
-			
-			String nodeLab = StringEscapeUtils.escapeHtml4(Utils.backQuoteChars(model.dumpLabel(0, m_root.getTrainingData())));
-			// we append the node
-			text.append("N0 [label=\"" + nodeLab + "\" "
-					+ "shape=box style=filled ");
-			if (m_root.getTrainingData() != null && m_root.getTrainingData().numInstances() > 0) { // with its
-																									// information
-				text.append("data =\n" + m_root.getTrainingData() + "\n");
-				text.append(",\n");
-				// and we are done
-			}
-			text.append("]\n");
-		} else {
-			
-			String nodeLab = StringEscapeUtils.escapeHtml4(Utils.backQuoteChars(model.leftSide(m_root.getTrainingData())));
-			
-			// if it is not a leaf, we append the node and its information
-			text.append("N0 [label=\"" + nodeLab + "\" ");
-			if (m_root.getTrainingData() != null && m_root.getTrainingData().numInstances() > 0) {
-				text.append("data =\n" + m_root.getTrainingData() + "\n");
-				text.append(",\n");
-			}
-			text.append("]\n");
-			// and we call the recursive method on the root to export its sons
-			dotExport(m_root, 0, text, pruning, replace);
+	 * @param output  The stream of the output
+	 * @param pruning Whether we would like to prune branches or not
+	 * @param replace Whether we are replacing back underscores or not
+	 * @throws Exception if the tree cannot be written
+	 */
+	public void writeDot(OutputStream output, boolean pruning, final boolean replace) throws Exception {
+		final NodePayload payload = nodePayload;
+
+		RunStats.Phase phase = RunStats.start("export.dot");
+		RunStats.CountingOutputStream counted = new RunStats.CountingOutputStream(output);
+
+		// Export the tree
+		Writer out = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8));
+		DotWriter dot = new DotWriter(out);
+
+		dot.startGraph();
+		final ExportTree tree = exportTree;
+		SubtreeDag dag = null;
+
+		if (sharedSubtrees) { // identical subtrees, also in their distribution if it is attached
+			if (payload == NodePayload.DATA)
+				throw new IllegalStateException("The training data cannot be attached to shared subtrees");
+			dag = tree.subtreeDag(pruning, payload == NodePayload.DISTRIBUTION);
 		}
-		
-		text.append("}\n");
-		
-		return text;
+
+		export(tree, dag, out, pruning, (fragment, level, first) -> new DotVisitor(new DotWriter(fragment), tree, replace, payload));
+		dot.endGraph();
+
+		dot.close();
+		phase.tree(this).output(counted.getCount()).end();
 	}
 
 	/**
-	 * Helper method that recurs on the children node of the current node, exporting
-	 * them in the dot format.
-	 * 
-	 * @param currentNode The current node analyzed
-	 * @param parentId    The id of the parent nodes
-	 * @param text        String buffer used to append the information about this
-	 *                    subtree
-	 * @param pruning     Whether we are pruning or not.
-	 * @throws Exception If something goes wrong
-	 */
-	private void dotExport(ClassifierTree currentNode, int parentId, StringBuffer text, boolean pruning, boolean replace)
-			throws Exception {
-		// get the sons of the current node
-		ClassifierTree[] sons = currentNode.getSons();
-
-		// Get the model and the data at the current node
-		ClassifierSplitModel localModel = currentNode.getLocalModel();
-		Instances trainingData = currentNode.getTrainingData();
-		
-		
-		for (int i = 0; i < sons.length; i++) { // export each son and corresponding subtree
-
-			double nInstances = sons[i].getLocalModel().distribution().total(); // get the number of instances at the
-																				// node
-
-			if (!pruning || nInstances > 0) { // if we are pruning we check the number of instances in the subtree
-
-				// System.out.println("At the current node : " + nInstances + "instances");
-					
-					String labelText = StringEscapeUtils.escapeHtml4(Utils.backQuoteChars(localModel.rightSide(i, trainingData).trim()));
-					
-					if(replace)
-						labelText = replace_underscore(labelText, false);
-				
-					text.append("N" + parentId + "->" + "N" + id + " [label=\""
-							+ labelText + "\"]\n");
-
-				// and its information
-
-				if (sons[i].isLeaf()) {
-					
-					String nodeLab = StringEscapeUtils.escapeHtml4(Utils.backQuoteChars(localModel.dumpLabel(i, trainingData)));
-					
-					
-					// If it is a leaf after writing its information we are done
-					text.append("N" + id + " [label=\"" + nodeLab
-							+ "\" " + "shape=box style=filled ");
-					if (trainingData != null && trainingData.numInstances() > 0) {
-						text.append("data =\n" + sons[i].getTrainingData() + "\n");
-						text.append(",\n");
-					}
-					text.append("]\n");
-					id++;
-				} else {
-					
-					String nodeLab = StringEscapeUtils.escapeHtml4(Utils.backQuoteChars(sons[i].getLocalModel().leftSide(trainingData)));
-					
-						// otherwise we recur on the sons
-						text.append("N" + id + " [label=\""
-								+ nodeLab + "\" ");
-						if (trainingData != null && trainingData.numInstances() > 0) {
-							text.append("data =\n" + sons[i].getTrainingData() + "\n");
-							text.append(",\n");
-						}
-						text.append("]\n");
-						id++;
-						
-						dotExport(sons[i], id - 1, text, pruning, replace);
-					
-				}
+	 * Visitor writing every node in the dot format, preceded by the edge from its
+	 * parent. Labels are escaped according to the HTML specification.
+	 */
+	private static class DotVisitor implements TreeVisitor {
+
+		private final DotWriter dot;
+		private final ExportTree tree;
+		private final boolean replace;
+		private final NodePayload payload;
+
+		/**
+		 * @param dot     The dot writer used for the output
+		 * @param tree    The export form of the tree, with the escaped labels
+		 * @param replace Whether we are replacing back underscores or not
+		 * @param payload The information attached to every node
+		 */
+		private DotVisitor(DotWriter dot, ExportTree tree, boolean replace, NodePayload payload) {
+			this.dot = dot;
+			this.tree = tree;
+			this.replace = replace;
+			this.payload = payload;
+		}
+
+		@Override
+		public void enterNode(CompactNode node, CompactNode parent, int index, int id, int parentId)
+				throws Exception {
+
+			String distribution = null;
+			Instances data = null;
+
+			if (payload == NodePayload.DISTRIBUTION) { // a compact summary of the instances at the node
+				distribution = ExportTree.escape(classCounts(node));
+			} else if (payload == NodePayload.DATA) {
+				// the data of a node is written only if there is some at its parent (at the node itself for the root)
+				Instances checkedData = parent == null ? node.getData() : parent.getData();
+				data = checkedData != null && checkedData.numInstances() > 0 ? node.getData() : null;
+			}
+
+			if (parent != null) { // write the edge from the parent first
+
+				String labelText = tree.edgeLabel(ExportTree.Format.DOT, parent, index, replace);
+
+				dot.writeEdge(parentId, id, labelText);
 			}
+
+			// and then the node with its information
+			String nodeLab = tree.nodeLabel(ExportTree.Format.DOT, node);
+			dot.writeNode(id, nodeLab, node.isLeaf(), distribution, data);
+		}
+
+		@Override
+		public void referNode(CompactNode node, CompactNode parent, int index, int id, int parentId)
+				throws Exception {
+			// only the edge towards the node already written
+			dot.writeEdge(parentId, id, tree.edgeLabel(ExportTree.Format.DOT, parent, index, replace));
+		}
+
+		@Override
+		public void leaveNode(CompactNode node, int id) {
+		}
+
+		@Override
+		public void flush() throws IOException {
+			dot.flush();
 		}
 	}
-	
 
 
 	// #########################################################################################
@@ -534,45 +741,184 @@ public class CustomJ48Tree extends J48 {
 	 * (github link will follow), giving the chance to prune subtrees not reached by
 	 * any instance. This time we use a particular JSON format, in order to pass the
 	 * exported file to the Node.js application in charge of creating the chatbot.
+	 * The output is compact.
 	 * 
-	 * @param filepath Path of the output file
-	 * @param pruning  Whether we would like to prune subtrees
-	 * @throws Exception If something goes wrong
+	 * @param writer  The writer instance for the output
+	 * @param pruning Whether we would like to prune subtrees
+	 * @param replace Whether we are replacing back underscores or not
 	 */
 	public void JSONExport(PrintStream writer, boolean pruning, boolean replace) {
+		JSONExport(writer, pruning, replace, false);
+	}
+
+	/**
+	 * Method used to export the tree in the JSON format, streaming every node to
+	 * the writer as soon as it is visited. Identical subtrees are written once
+	 * if set through {@link #setSharedSubtrees(boolean)}.
+	 * 
+	 * @param writer  The writer instance for the output
+	 * @param pruning Whether we would like to prune subtrees
+	 * @param replace Whether we are replacing back underscores or not
+	 * @param pretty  Whether we are indenting the output or not
+	 */
+	public void JSONExport(PrintStream writer, boolean pruning, final boolean replace, final boolean pretty) {
 
 		try {
-			StringBuffer text = new StringBuffer();
-			// Get the model of the root
-			ClassifierSplitModel model = m_root.getLocalModel();
+			writeJSON(writer, pruning, replace, pretty);
+
+			System.out.println("JSON export completed successfully");
+
+		} catch (IOException io) {
+			System.out.println("Error while writing on the output file: " + io.getMessage());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
 
-			text.append("{");
+	/**
+	 * Method used to write the tree in the JSON format as
+	 * {@link #JSONExport(PrintStream, boolean, boolean, boolean)} does, closing
+	 * the stream at the end, but failing with the error instead of printing it.
+	 * 
+	 * @param output  The stream of the output
+	 * @param pruning Whether we would like to prune subtrees
+	 * @param replace Whether we are replacing back underscores or not
+	 * @param pretty  Whether we are indenting the output or not
+	 * @throws Exception if the tree cannot be written
+	 */
+	public void writeJSON(OutputStream output, boolean pruning, final boolean replace, final boolean pretty) throws Exception {
 
-			// Writing the root
-			if (m_root.isLeaf()) {
-				// we append the node
-				text.append(
-						"\"label\": \"" + Utils.backQuoteChars(model.dumpLabel(0, m_root.getTrainingData())) + "\"");
+		RunStats.Phase phase = RunStats.start("export.json");
+		RunStats.CountingOutputStream counted = new RunStats.CountingOutputStream(output);
 
-			} else {
-				// if it is not a leaf, we append the node and its information
-				text.append("\"label\":\"" + Utils.backQuoteChars(model.leftSide(m_root.getTrainingData())) + "\" ");
-				text.append(", \"children\" : [");
+		Writer out = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8));
 
-				// and we call the recursive method on the root to export its sons
-				JSONExport(m_root, text, pruning, replace);
+		// every level of the tree is nested in an object and in the array of its children
+		final ExportTree tree = exportTree;
+		final SubtreeDag dag = sharedSubtrees ? tree.subtreeDag(pruning, false) : null;
 
-				text.append("]");
-			}
+		export(tree, dag, out, pruning, (fragment, level, first) -> new JSONVisitor(
+				JSONWriter.fragment(fragment, pretty, 2 * level, first), tree, dag, replace));
 
-			text.append("}");
+		out.close();
+		phase.tree(this).output(counted.getCount()).end();
+	}
 
-			//writeOnStream(writer, text, escapeChars);
-			
-			writer.println(text);
-			writer.close();
-			
-			System.out.println("JSON export completed successfully");
+	/**
+	 * Visitor writing every node as a JSON object, with the label of the edge from
+	 * its parent and the array of its children. When exporting a graph, shared
+	 * subtrees have an id, and the branches reaching them after the first one
+	 * have an object referring to it.
+	 */
+	private static class JSONVisitor implements TreeVisitor {
+
+		private final JSONWriter json;
+		private final ExportTree tree;
+		private final SubtreeDag dag;
+		private final boolean replace;
+
+		/**
+		 * @param json    JSON writer used to write the exported nodes
+		 * @param tree    The export form of the tree, with the labels of the nodes
+		 * @param dag     The identical subtrees, null when exporting a tree
+		 * @param replace Whether we are replacing back underscores or not
+		 */
+		private JSONVisitor(JSONWriter json, ExportTree tree, SubtreeDag dag, boolean replace) {
+			this.json = json;
+			this.tree = tree;
+			this.dag = dag;
+			this.replace = replace;
+		}
+
+		@Override
+		public void enterNode(CompactNode node, CompactNode parent, int index, int id, int parentId)
+				throws Exception {
+
+			json.beginObject();
+
+			if (parent != null) // all nodes except the root have the label of the edge
+				writeEdgeLabel(parent, index);
+
+			if (dag != null && dag.isShared(node)) // the id the other occurrences refer to
+				json.name("$id").value(id);
+
+			json.name("label").value(tree.nodeLabel(ExportTree.Format.JSON, node));
+
+			if (!node.isLeaf()) // the sons will follow in the children array
+				json.name("children").beginArray();
+		}
+
+		@Override
+		public void referNode(CompactNode node, CompactNode parent, int index, int id, int parentId)
+				throws Exception {
+
+			json.beginObject();
+			writeEdgeLabel(parent, index);
+			json.name("$ref").value(id); // the subtree already written
+			json.endObject();
+		}
+
+		@Override
+		public void leaveNode(CompactNode node, int id) throws Exception {
+
+			if (!node.isLeaf())
+				json.endArray();
+
+			json.endObject();
+		}
+
+		/**
+		 * Writes the label of the edge from the parent
+		 */
+		private void writeEdgeLabel(CompactNode parent, int index) throws IOException {
+
+			// without the equal sign, and with the empty value if we are replacing
+			String edgeLabel = tree.edgeLabel(ExportTree.Format.JSON, parent, index, replace);
+
+			json.name("edgeLabel").value(edgeLabel);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			json.flush();
+		}
+	}
+
+	// #########################################################################################
+	// ## ##
+	// ## EXPORT AS JAVA SOURCE ##
+	// ## (for scoring on the hot path) ##
+	// #########################################################################################
+
+	/**
+	 * Method used to export the tree as the source of a Java class named J48Scorer,
+	 * implementing the {@link Scorer} interface with nested switch and if
+	 * statements on the values of the attributes.
+	 * 
+	 * @param writer  The writer instance for the output
+	 * @param pruning Whether we would like to prune subtrees, whose instances are
+	 *                then classified by the fallback scorer
+	 * @param replace Whether we are replacing back underscores or not in the comments
+	 */
+	public void javaExport(PrintStream writer, boolean pruning, boolean replace) {
+		javaExport(writer, pruning, replace, "J48Scorer");
+	}
+
+	/**
+	 * Method used to export the tree as the source of a Java class, streaming
+	 * every method to the writer as soon as it is completed.
+	 * 
+	 * @param writer    The writer instance for the output
+	 * @param pruning   Whether we would like to prune subtrees
+	 * @param replace   Whether we are replacing back underscores or not
+	 * @param className The simple name of the generated class
+	 */
+	public void javaExport(PrintStream writer, boolean pruning, boolean replace, String className) {
+
+		try {
+			writeJava(writer, pruning, replace, className);
+
+			System.out.println("Java export completed successfully");
 
 		} catch (IOException io) {
 			System.out.println("Error while writing on the output file: " + io.getMessage());
@@ -582,85 +928,226 @@ public class CustomJ48Tree extends J48 {
 	}
 
 	/**
-	 * Helper method used to export the sons of the current node, if they satisfy
-	 * the pruning condition
+	 * Method used to write the tree as the source of a Java class as
+	 * {@link #javaExport(PrintStream, boolean, boolean, String)} does, closing
+	 * the stream at the end, but failing with the error instead of printing it.
+	 * 
+	 * @param output    The stream of the output
+	 * @param pruning   Whether we would like to prune subtrees
+	 * @param replace   Whether we are replacing back underscores or not
+	 * @param className The simple name of the generated class
+	 * @throws Exception if the tree cannot be written
+	 */
+	public void writeJava(OutputStream output, boolean pruning, boolean replace, String className) throws Exception {
+
+		RunStats.Phase phase = RunStats.start("export.java");
+		RunStats.CountingOutputStream counted = new RunStats.CountingOutputStream(output);
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8));
+
+		writeScorer(out, pruning, replace, className);
+		out.close();
+		phase.tree(this).output(counted.getCount()).end();
+	}
+
+	/**
+	 * Generates the source of a scorer class from the built tree and compiles it
+	 * in memory, so the JIT can inline the tests of the tree. Instances with missing
+	 * values on their path are classified by the {@link FlatTreePredictor}, so the
+	 * scorer always agrees with {@link #classifyInstance(weka.core.Instance)}.
 	 * 
-	 * @param currentNode Current node analyzed
-	 * @param text        String buffer used to append the exported nodes
-	 * @param pruning     Whether we would like to prune or not
-	 * @throws Exception If something goes wrong
-	 */
-	private void JSONExport(ClassifierTree currentNode, StringBuffer text, boolean pruning, boolean replace) throws Exception {
-
-		// get the sons of the current node
-		ClassifierTree[] sons = currentNode.getSons();
-
-		// Get the model and the data at the current node
-		ClassifierSplitModel localModel = currentNode.getLocalModel();
-		Instances trainingData = currentNode.getTrainingData();
-		
-		boolean secondExport = false;
-		
-		for (int i = 0; i < sons.length; i++) { // export each son and corresponding subtree
-
-			double nInstances = sons[i].getLocalModel().distribution().total(); // get the number of instances at the
-																				// node
-
-			if (!pruning || nInstances > 0) { // if we are pruning we check the number of instances in the subtree
-				
-				text.append(secondExport ? ",{" : "{");
-				secondExport = true;
-				String tempLabel = Utils.backQuoteChars(localModel.rightSide(i, trainingData).trim());
-				
-				if(replace)
-					tempLabel = replace_underscore(tempLabel, true);
-				
-				String edgeLabel = tempLabel.replaceAll("^= ", "");
-
-				text.append("\"edgeLabel\" : \"" + edgeLabel + "\"");
-
-				if (sons[i].isLeaf()) {
-					// If it is a leaf after writing its information we are done
-					text.append(",\"label\" : \"" + Utils.backQuoteChars(localModel.dumpLabel(i, trainingData)) + "\"");
-
-				} else {
-					// otherwise we recur on the sons
-					text.append(",\"label\" : \"" + Utils.backQuoteChars(sons[i].getLocalModel().leftSide(trainingData))
-							+ "\" ");
-
-					text.append(",\"children\": [");
-
-					//and we analyze the son
-					JSONExport(sons[i], text, pruning, replace);
-
-					text.append("]");
+	 * @return the compiled scorer
+	 * @throws Exception if the tree has not been built or no Java compiler is
+	 *                   available
+	 */
+	public Scorer compileScorer() throws Exception {
+
+		StringWriter source = new StringWriter();
+		writeScorer(source, false, false, "J48Scorer");
+
+		return ScorerCompiler.compile("J48Scorer", source.toString(), predictor);
+	}
+
+	/**
+	 * Writes the source of a scorer class. The methods of the class are nested
+	 * while the tree is visited, so the source is always generated sequentially.
+	 */
+	private void writeScorer(Writer out, boolean pruning, boolean replace, String className) throws Exception {
+
+		JavaWriter java = new JavaWriter(out);
+
+		java.startClass(className);
+		ExportTree tree = exportTree;
+		TreeTraversal.traverse(tree.getRoot(), pruning, new JavaVisitor(java, tree, replace));
+		java.endClass();
+	}
+
+	/**
+	 * Visitor writing every inner node as the test of its attribute, with a block
+	 * for every son, and every leaf as the return of its class. When a method grows
+	 * too much the next subtrees are moved to methods of their own.
+	 */
+	private static class JavaVisitor implements TreeVisitor {
+
+		// Methods are kept well below the size the JIT refuses to compile
+		private static final int METHOD_LINES = 300;
+
+		private final JavaWriter java;
+		private final ExportTree tree;
+		private final boolean replace;
+
+		private final Deque<Integer> methods = new ArrayDeque<Integer>(); // the ids of the nodes starting the open methods
+
+		/**
+		 * @param java    Java writer used to write the generated class
+		 * @param tree    The export form of the tree, with the labels of the nodes
+		 * @param replace Whether we are replacing back underscores or not
+		 */
+		private JavaVisitor(JavaWriter java, ExportTree tree, boolean replace) {
+			this.java = java;
+			this.tree = tree;
+			this.replace = replace;
+		}
+
+		@Override
+		public void enterNode(CompactNode node, CompactNode parent, int index, int id, int parentId)
+				throws Exception {
+
+			if (parent == null) { // the root is tested by the method of the interface
+				java.startMethod("public double classifyInstance(Instance instance)", true);
+				methods.push(id);
+			} else {
+
+				String labelText = tree.edgeLabel(ExportTree.Format.JAVA, parent, index, replace);
+
+				java.openBlock(branch(parent, index, parentId), tree.nodeLabel(ExportTree.Format.JAVA, parent) + " " + labelText);
+
+				if (!node.isLeaf() && java.methodLines() > METHOD_LINES) { // continue in a new method
+					java.line("return n" + id + "(instance);", null);
+					java.startMethod("private double n" + id + "(Instance instance)", false);
+					methods.push(id);
 				}
-				text.append("}");
 			}
+
+			if (node.isLeaf()) {
+				java.line("return " + node.getPrediction() + ";", tree.nodeLabel(ExportTree.Format.JAVA, node));
+				return;
+			}
+
+			java.line("double v" + id + " = instance.value(" + node.getAttribute() + ");",
+					tree.nodeLabel(ExportTree.Format.JAVA, node));
+			java.line("if (Double.isNaN(v" + id + ")) return fallback.classifyInstance(instance);", "missing value");
+
+			if (isMultiway(node))
+				java.openBlock("switch ((int) v" + id + ")", null);
+		}
+
+		@Override
+		public void leaveNode(CompactNode node, int id) throws Exception {
+
+			if (!node.isLeaf()) {
+				if (isMultiway(node))
+					java.closeBlock();
+				java.line("return fallback.classifyInstance(instance);", "branch not exported");
+			}
+
+			if (!methods.isEmpty() && methods.peek() == id) { // the node started the current method
+				methods.pop();
+				java.endMethod();
+			}
+
+			if (id != 0) // close the block of the branch in the method of the parent
+				java.closeBlock();
+		}
+
+		@Override
+		public void referNode(CompactNode node, CompactNode parent, int index, int id, int parentId) {
+			// the generated class is always a tree, every subtree is tested where it is reached
+			throw new IllegalStateException("Shared subtrees cannot be exported as Java code");
+		}
+
+		@Override
+		public void flush() throws IOException {
+			java.flush();
+		}
+
+		/**
+		 * Gets the statement opening the block of a son
+		 */
+		private static String branch(CompactNode parent, int index, int parentId) {
+
+			String value = "v" + parentId;
+
+			if (isMultiway(parent))
+				return "case " + index + ":";
+
+			if (parent.isNominal()) // the value of the binary split or any other
+				return "if ((int) " + value + (index == 0 ? " == " : " != ") + (int) parent.getSplitPoint() + ")";
+
+			return "if (" + value + (index == 0 ? " <= " : " > ") + Double.toString(parent.getSplitPoint()) + ")";
+		}
+
+		private static boolean isMultiway(CompactNode node) {
+			return node.isNominal() && Double.isNaN(node.getSplitPoint());
 		}
 	}
-	
-	
+
 	/*
 	 * UTILITY FUNCTIONS
 	 */
-	
+
 	/**
-	 * Utility function used to replace the underscore character used to represent the empty string when we use the replacing function
-	 * @param text text we would like to replace
-	 * @return the replaced text
+	 * Utility function used to traverse the tree with the visitors of an exporter,
+	 * in parallel if more than one export thread is set
+	 * @param tree the export form of the tree
+	 * @param dag the identical subtrees to write once, null to export the whole tree
+	 * @param out the writer of the export
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param factory the factory of the visitors writing the nodes
+	 * @throws Exception if a visitor fails
 	 */
-	private String replace_underscore(String text, boolean json) {
-		String result = text;
-		
-		if(result.equals("= _") ) {
-			if(json)
-				result = "empty value";
-			else
-				result = "=";
+	private void export(ExportTree tree, SubtreeDag dag, Writer out, boolean pruning, TreeVisitorFactory factory)
+			throws Exception {
+
+		if (dag != null) { // the graph is always visited sequentially
+			TreeVisitor visitor = factory.create(out, 0, true);
+			TreeTraversal.traverse(tree.getRoot(), pruning, dag, visitor);
+			visitor.flush();
+		} else if (exportThreads > 1) { // render sibling subtrees on a fork-join pool
+			ForkJoinPool pool = new ForkJoinPool(exportThreads);
+			try {
+				// the sizes of the subtrees are computed once for all the parallel exports
+				TreeTraversal.traverse(tree.getRoot(), pruning, tree.subtreeSizes(pruning), factory, out, pool);
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			TreeVisitor visitor = factory.create(out, 0, true);
+			TreeTraversal.traverse(tree.getRoot(), pruning, visitor);
+			visitor.flush();
 		}
-		
-		return result;
+	}
+
+	/**
+	 * Utility function used to summarize the training instances reaching a node,
+	 * with the number of instances of every class found at the node
+	 * @param node the node
+	 * @return the classes with their number of instances, separated by commas
+	 */
+	private static String classCounts(CompactNode node) {
+
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < node.numClasses(); i++) {
+
+			if (node.getClassCount(i) > 0) { // only the classes found at the node
+				if (text.length() > 0)
+					text.append(", ");
+				text.append(node.getClassValue(i)).append(": ").append(Utils.roundDouble(node.getClassCount(i), 2));
+			}
+		}
+
+		return text.toString();
 	}
 
 }
@@ -0,0 +1,130 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Reader used to pre-process a data set while it is being parsed. Every line
+ * is read from the underlying stream, the spaces around the commas are removed
+ * and, if requested, the empty strings are replaced with the underscore
+ * character. Only the current line is kept in memory, so the data set is
+ * never materialized as a whole before reaching the Weka loader.
+ *
+ * Since a Reader can only throw IOExceptions, a pre-existing underscore is
+ * reported by throwing an IOException, while the original ParseException is
+ * kept and can be obtained through {@link #getParseException()}.
+ */
+public class DataSetReader extends Reader {
+
+	// Patterns are compiled once and shared by all the readers
+	private static final Pattern SPACES_AROUND_COMMA = Pattern.compile("\\s*,\\s*");
+	private static final Pattern EMPTY_STRING = Pattern.compile(",,");
+	private static final Pattern UNDERSCORE = Pattern.compile("\\b_\\b");
+
+	private final BufferedReader in;
+	private final boolean replaceEmptyStrings;
+
+	// Matchers are reset on every line, so we do not create new objects for each of them
+	private final Matcher spacesMatcher = SPACES_AROUND_COMMA.matcher("");
+	private final Matcher emptyMatcher = EMPTY_STRING.matcher("");
+	private final Matcher underscoreMatcher = UNDERSCORE.matcher("");
+
+	private String line = ""; // the current pre-processed line, new line included
+	private int position = 0; // the next character of the line to be returned
+	private int lineNumber = 0;
+	private ParseException parseException;
+
+	/**
+	 * Creates a reader pre-processing the given UTF-8 encoded stream
+	 *
+	 * @param in                  the input stream of the data set
+	 * @param replaceEmptyStrings are we replacing empty strings with underscores
+	 */
+	public DataSetReader(InputStream in, boolean replaceEmptyStrings) {
+		this(new InputStreamReader(in, StandardCharsets.UTF_8), replaceEmptyStrings);
+	}
+
+	/**
+	 * Creates a reader pre-processing the given character stream
+	 *
+	 * @param in                  the reader of the data set
+	 * @param replaceEmptyStrings are we replacing empty strings with underscores
+	 */
+	public DataSetReader(Reader in, boolean replaceEmptyStrings) {
+		this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		this.replaceEmptyStrings = replaceEmptyStrings;
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException {
+
+		if (length == 0)
+			return 0;
+
+		if (position == line.length() && !nextLine()) // nothing left in the current line and no other line
+			return -1;
+
+		int count = Math.min(length, line.length() - position);
+		line.getChars(position, position + count, buffer, offset);
+		position += count;
+
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Returns the exception raised if an underscore was already found in the data
+	 * set while replacing the empty strings
+	 *
+	 * @return the exception or null if everything went smooth
+	 */
+	public ParseException getParseException() {
+		return parseException;
+	}
+
+	/**
+	 * Reads and pre-processes the next line of the underlying stream
+	 *
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException if the stream cannot be read or a single underscore is
+	 *                     found while replacing
+	 */
+	private boolean nextLine() throws IOException {
+
+		String fileLine = in.readLine();
+
+		if (fileLine == null) // end of the stream
+			return false;
+
+		lineNumber++;
+		fileLine = spacesMatcher.reset(fileLine).replaceAll(",").trim(); // remove trailing and leading spaces
+
+		if (replaceEmptyStrings) { // if we are replacing
+
+			if (underscoreMatcher.reset(fileLine).find()) { // if it already contains an underscore stop reading
+				parseException = new ParseException(
+						"Underscore character already found during replacement at line " + lineNumber);
+				throw new IOException(parseException.getMessage(), parseException);
+			}
+
+			fileLine = emptyMatcher.reset(fileLine).replaceAll(",_,"); // otherwise replace empty strings with underscore
+		}
+
+		line = fileLine + "\n";
+		position = 0;
+
+		return true;
+	}
+}
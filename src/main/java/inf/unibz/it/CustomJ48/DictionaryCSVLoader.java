@@ -0,0 +1,949 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Loader of CSV data sets building the nominal attributes directly, instead of
+ * the string attributes of the Weka CSV loader, which are then converted by the
+ * StringToNominal filter copying the whole data set again. The data set is read
+ * in a single pass and every column has a dictionary of its distinct values, so
+ * a String is created, and parsed as a number, only the first time a value is
+ * found, while the rows keep only the codes of their values.
+ *
+ * The values are tokenized and typed exactly as {@link weka.core.converters.CSVLoader}
+ * does, so the loaded data set is the one the CSV loader and the filter give:
+ * the first line contains the names of the attributes, the values can be quoted
+ * with double or single quotes, ? and the blank values are missing, a column
+ * is numeric if all its values are numbers and nominal otherwise, with the
+ * values in order of appearance. A column with only missing values is nominal
+ * without values.
+ *
+ * The data set can also be read from its UTF-8 bytes, which are then tokenized
+ * and looked up in the dictionaries without being decoded: only the distinct
+ * values and the names of the attributes are decoded, the first time they are
+ * found. The tokens are the same, since the separators, the quotes and the
+ * control characters are ASCII and no byte of a multi-byte character is.
+ */
+public class DictionaryCSVLoader {
+
+	// The types of a column, as the ones of the Weka CSV loader
+	private static final int UNDETERMINED = 0; // only missing values so far
+	private static final int NUMERIC = 1;
+	private static final int NOMINAL = 2; // the first value was not a number
+	private static final int STRING = 3; // the first values were numbers, then a value was not
+
+	private static final int MISSING = -1; // the code of a missing value
+
+	private final Tokenizer tokenizer;
+	private String relationName = "stream"; // as the CSV loader names the data sets read from a stream
+
+	private int numAttributes;
+	private List<String> names;
+	private Dictionary[] dictionaries;
+	private int[] types;
+	private int[] stringFrom; // the row from which a column became a string one
+
+	private int[] codes = new int[1024]; // the codes of the values, row by row
+	private int numRows = 0;
+
+	/**
+	 * Creates a loader reading the data set from the given reader
+	 *
+	 * @param in the reader returning the CSV data set
+	 */
+	public DictionaryCSVLoader(Reader in) {
+		this.tokenizer = new Tokenizer(in);
+	}
+
+	/**
+	 * Creates a loader reading the data set from the given UTF-8 bytes, decoding
+	 * only the distinct values
+	 *
+	 * @param in the stream returning the CSV data set in UTF-8
+	 */
+	public DictionaryCSVLoader(InputStream in) {
+		this.tokenizer = new Tokenizer(in);
+	}
+
+	/**
+	 * Sets the name of the relation of the loaded data set
+	 *
+	 * @param relationName the name of the relation
+	 */
+	public void setRelationName(String relationName) {
+		this.relationName = relationName;
+	}
+
+	/**
+	 * Reads the whole data set
+	 *
+	 * @return the data set, with numeric and nominal attributes only
+	 * @throws IOException if the data set cannot be read or a row has not the
+	 *                     values of all the attributes
+	 */
+	public Instances getDataSet() throws IOException {
+
+		readHeader();
+
+		while (readRow())
+			numRows++;
+
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(numAttributes);
+
+		for (int column = 0; column < numAttributes; column++) {
+
+			if (types[column] == NUMERIC)
+				attributes.add(new Attribute(names.get(column)));
+			else if (types[column] == STRING)
+				attributes.add(new Attribute(names.get(column), encodeStrings(column)));
+			else // the values of the dictionary are already in order of appearance
+				attributes.add(new Attribute(names.get(column), dictionaries[column].getValues()));
+		}
+
+		return createDataSet(relationName, attributes, new int[numAttributes][]);
+	}
+
+	/**
+	 * Reads rows without the names of the attributes, as the ones appended to a
+	 * data set already read with the given header. The values are typed as if
+	 * the rows were read together with the data set: the numeric attributes
+	 * must get numbers and the nominal ones get the new values after the known
+	 * ones, while a nominal attribute without values becomes numeric if its first
+	 * value is a number.
+	 *
+	 * @param header the header of the data set, with numeric and nominal
+	 *               attributes only
+	 * @return the rows, with the attributes of the header and the new nominal
+	 *         values
+	 * @throws IOException if the rows cannot be read or would change the type of
+	 *                     an attribute
+	 */
+	public Instances getRows(Instances header) throws IOException {
+
+		numAttributes = header.numAttributes();
+		names = new ArrayList<String>(numAttributes);
+		dictionaries = new Dictionary[numAttributes];
+		types = new int[numAttributes];
+		stringFrom = new int[numAttributes];
+
+		for (int column = 0; column < numAttributes; column++) {
+
+			Attribute attribute = header.attribute(column);
+
+			if (!attribute.isNumeric() && !attribute.isNominal())
+				throw new IOException("Attribute " + attribute.name() + " is neither numeric nor nominal");
+
+			names.add(attribute.name());
+			dictionaries[column] = new Dictionary(tokenizer.isUTF8());
+			types[column] = attribute.isNumeric() ? NUMERIC : attribute.numValues() > 0 ? NOMINAL : UNDETERMINED;
+		}
+
+		while (readRow())
+			numRows++;
+
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(numAttributes);
+		int[][] indexes = new int[numAttributes][];
+
+		for (int column = 0; column < numAttributes; column++) {
+
+			Attribute attribute = header.attribute(column);
+
+			if (attribute.isNumeric() != (types[column] == NUMERIC)) // a string column or a number in a column without values
+				throw new IOException("The new values of attribute " + attribute.name() + " change its type");
+
+			if (attribute.isNumeric()) {
+				attributes.add((Attribute) attribute.copy());
+				continue;
+			}
+
+			// the known values keep their indexes, the new ones follow in order of appearance
+			Dictionary dictionary = dictionaries[column];
+			List<String> values = new ArrayList<String>(attribute.numValues() + dictionary.size());
+			for (int i = 0; i < attribute.numValues(); i++)
+				values.add(attribute.value(i));
+
+			indexes[column] = new int[dictionary.size()];
+
+			for (int code = 0; code < dictionary.size(); code++) {
+				int index = attribute.indexOfValue(dictionary.getValue(code));
+				if (index < 0) {
+					index = values.size();
+					values.add(dictionary.getValue(code));
+				}
+				indexes[column][code] = index;
+			}
+
+			if (values.size() == attribute.numValues())
+				attributes.add((Attribute) attribute.copy());
+			else
+				attributes.add(new Attribute(attribute.name(), values));
+		}
+
+		Instances rows = createDataSet(header.relationName(), attributes, indexes);
+		rows.setClassIndex(header.classIndex());
+
+		return rows;
+	}
+
+	/**
+	 * Creates the data set from the codes of the rows
+	 *
+	 * @param indexes the indexes of the values of every code for the nominal
+	 *                columns, null where they are the codes themselves
+	 */
+	private Instances createDataSet(String relation, ArrayList<Attribute> attributes, int[][] indexes) {
+
+		Instances data = new Instances(relation, attributes, numRows);
+
+		for (int row = 0; row < numRows; row++) {
+
+			double[] values = new double[numAttributes];
+
+			for (int column = 0; column < numAttributes; column++) {
+
+				int code = codes[row * numAttributes + column];
+
+				if (code == MISSING)
+					values[column] = Utils.missingValue();
+				else if (types[column] == NUMERIC)
+					values[column] = dictionaries[column].getNumber(code);
+				else
+					values[column] = indexes[column] != null ? indexes[column][code] : code;
+			}
+
+			data.add(new DenseInstance(1.0, values)); // the values are not copied
+		}
+
+		return data;
+	}
+
+	/**
+	 * Reads the names of the attributes from the first line and prepares the
+	 * dictionaries of the columns
+	 */
+	private void readHeader() throws IOException {
+
+		String firstRow = tokenizer.readLine();
+
+		if (firstRow == null)
+			throw new IOException("No data in the file!");
+
+		names = parseNames(firstRow);
+		numAttributes = names.size();
+		dictionaries = new Dictionary[numAttributes];
+		types = new int[numAttributes];
+		stringFrom = new int[numAttributes];
+
+		for (int column = 0; column < numAttributes; column++)
+			dictionaries[column] = new Dictionary(tokenizer.isUTF8());
+	}
+
+	/**
+	 * Parses the names of the attributes in the first line, skipping the empty
+	 * ones as the CSV loader does
+	 */
+	private static List<String> parseNames(String firstRow) throws IOException {
+
+		Tokenizer header = new Tokenizer(new StringReader(firstRow + "\n"));
+		List<String> names = new ArrayList<String>();
+
+		int type = header.firstToken();
+
+		if (type == Tokenizer.EOF)
+			throw new IOException("Premature end of file in the names of the attributes");
+
+		boolean first = true;
+
+		while (type != Tokenizer.EOL && type != Tokenizer.EOF) {
+
+			if (!first)
+				type = header.nextToken();
+
+			boolean separator = type == Tokenizer.SEPARATOR || type == Tokenizer.EOL;
+
+			if (type == Tokenizer.EOF) // an escaped line end in an unclosed quote
+				throw new IOException("Premature end of file in the names of the attributes");
+
+			if (!separator) {
+				names.add(header.getToken());
+				type = header.nextToken();
+			}
+
+			first = false;
+		}
+
+		Set<String> unique = new HashSet<String>(names);
+		if (unique.size() != names.size())
+			throw new IOException("Attribute names are not unique in the first line");
+
+		return names;
+	}
+
+	/**
+	 * Reads the names of the attributes, to then read the rows one at a time
+	 * with {@link #readValues()} instead of the whole data set
+	 *
+	 * @return the names of the attributes, null if the data set is empty
+	 * @throws IOException if the first line cannot be read
+	 */
+	List<String> readNames() throws IOException {
+
+		String firstRow = tokenizer.readLine();
+
+		if (firstRow == null)
+			return null;
+
+		names = parseNames(firstRow);
+
+		return names;
+	}
+
+	/**
+	 * Reads the values of the next row as they are given to the dictionaries,
+	 * skipping the empty lines. The values are tokenized as the ones of the
+	 * whole data set, but the number of values is not checked.
+	 *
+	 * @return the values, null for the missing ones, or null at the end of the
+	 *         data set
+	 * @throws IOException if the row cannot be read
+	 */
+	List<String> readValues() throws IOException {
+
+		int type = tokenizer.firstToken();
+
+		if (type == Tokenizer.EOF)
+			return null;
+
+		List<String> values = new ArrayList<String>(names == null ? 16 : names.size());
+		boolean first = true;
+
+		while (type != Tokenizer.EOL && type != Tokenizer.EOF) {
+
+			if (!first)
+				type = tokenizer.nextToken();
+
+			boolean separator = type == Tokenizer.SEPARATOR || type == Tokenizer.EOL;
+
+			if (separator || type == Tokenizer.EOF || tokenizer.isMissing())
+				values.add(null);
+			else if (tokenizer.isUTF8())
+				values.add(Dictionary.decode(tokenizer.token, tokenizer.length));
+			else
+				values.add(tokenizer.getToken());
+
+			if (!separator)
+				type = tokenizer.nextToken();
+
+			first = false;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Reads the next row, skipping the empty lines. As in the CSV loader, a
+	 * separator followed by another one or by the end of the line gives a
+	 * missing value.
+	 *
+	 * @return false if the end of the data set has been reached
+	 */
+	private boolean readRow() throws IOException {
+
+		int type = tokenizer.firstToken();
+
+		if (type == Tokenizer.EOF)
+			return false;
+
+		int line = tokenizer.getLine(); // the line end has not been read yet
+
+		if (codes.length < (numRows + 1) * numAttributes)
+			codes = Arrays.copyOf(codes, Math.max(codes.length * 2, (numRows + 1) * numAttributes));
+
+		int column = 0;
+		boolean first = true;
+
+		while (type != Tokenizer.EOL && type != Tokenizer.EOF) {
+
+			if (!first)
+				type = tokenizer.nextToken();
+
+			boolean separator = type == Tokenizer.SEPARATOR || type == Tokenizer.EOL;
+
+			if (column == numAttributes)
+				throw wrongNumberOfValues(line, column + 1);
+
+			if (separator)
+				codes[numRows * numAttributes + column] = MISSING;
+			else if (type == Tokenizer.EOF) // a separator at the end of the file, which the CSV loader rejects
+				throw new IOException("Premature end of file at line " + line);
+			else
+				codes[numRows * numAttributes + column] = encode(column);
+
+			if (!separator)
+				type = tokenizer.nextToken();
+
+			first = false;
+			column++;
+		}
+
+		if (column != numAttributes)
+			throw wrongNumberOfValues(line, column);
+
+		return true;
+	}
+
+	/**
+	 * Encodes the current token in the dictionary of its column, updating the
+	 * type of the column as the CSV loader does
+	 *
+	 * @return the code of the value
+	 */
+	private int encode(int column) {
+
+		if (tokenizer.isMissing())
+			return MISSING;
+
+		Dictionary dictionary = dictionaries[column];
+		int code = dictionary.encode(tokenizer.token, tokenizer.length);
+
+		// only the numeric columns and the ones without values check if the value is a number
+		if (types[column] == UNDETERMINED) {
+			types[column] = dictionary.isNumber(code) ? NUMERIC : NOMINAL;
+		} else if (types[column] == NUMERIC && !dictionary.isNumber(code)) {
+			types[column] = STRING;
+			stringFrom[column] = numRows;
+		}
+
+		return code;
+	}
+
+	/**
+	 * Gives the values of a column which started with numbers to then find
+	 * another value, so it was a string column of the CSV loader, updating the
+	 * codes of its rows. The numbers found before the column became a string one
+	 * were read again by the loader without the spaces around them, so these
+	 * values are trimmed.
+	 *
+	 * @return the values in order of appearance
+	 */
+	private List<String> encodeStrings(int column) {
+
+		Dictionary dictionary = dictionaries[column];
+		List<String> values = new ArrayList<String>();
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+		// the indexes of the codes, before and after the column became a string one
+		int[] numbers = new int[dictionary.size()];
+		int[] strings = new int[dictionary.size()];
+		Arrays.fill(numbers, MISSING);
+		Arrays.fill(strings, MISSING);
+
+		for (int row = 0; row < numRows; row++) {
+
+			int position = row * numAttributes + column;
+			int code = codes[position];
+
+			if (code == MISSING)
+				continue;
+
+			boolean number = row < stringFrom[column];
+			int[] encoded = number ? numbers : strings;
+
+			if (encoded[code] == MISSING) {
+
+				String value = number ? dictionary.getValue(code).trim() : dictionary.getValue(code);
+				Integer index = indexes.get(value);
+
+				if (index == null) {
+					index = values.size();
+					indexes.put(value, index);
+					values.add(value);
+				}
+
+				encoded[code] = index;
+			}
+
+			codes[position] = encoded[code];
+		}
+
+		return values;
+	}
+
+	private IOException wrongNumberOfValues(int line, int read) {
+		return new IOException("Wrong number of values at line " + line + ": read " + read
+				+ ", expected " + numAttributes);
+	}
+
+	/**
+	 * Dictionary of the distinct values of a column, which are given codes in
+	 * order of appearance. The values are looked up in an open addressing table
+	 * directly from the characters of the token, so only the new ones become
+	 * Strings. When the tokens are UTF-8 bytes, the bytes of every value are kept
+	 * to look it up and only the new values are decoded.
+	 */
+	private static class Dictionary {
+
+		private final boolean utf8;
+		private char[][] keys; // the bytes of the values, only for the UTF-8 tokens
+		private Map<String, Integer> replaced; // the values with replacement characters, only for the UTF-8 tokens
+		private String[] values = new String[16];
+		private int[] hashes = new int[16];
+		private byte[] numbers = new byte[16]; // 0 if not parsed yet, 1 if a number, 2 otherwise
+		private double[] parsed = new double[16];
+		private int size = 0;
+
+		private int[] table = newTable(32); // the codes of the values, -1 for the empty slots
+
+		private Dictionary(boolean utf8) {
+			this.utf8 = utf8;
+			this.keys = utf8 ? new char[16][] : null;
+			this.replaced = utf8 ? new HashMap<String, Integer>() : null;
+		}
+
+		/**
+		 * Gets the code of a value, adding it if it is new
+		 */
+		private int encode(char[] chars, int length) {
+
+			int hash = 0;
+			for (int i = 0; i < length; i++)
+				hash = 31 * hash + chars[i];
+			hash ^= hash >>> 16;
+
+			int mask = table.length - 1;
+			int slot = hash & mask;
+
+			for (int code = table[slot]; code != MISSING; code = table[slot]) {
+				if (hashes[code] == hash && (utf8 ? matches(keys[code], chars, length) : matches(values[code], chars, length)))
+					return code;
+				slot = (slot + 1) & mask;
+			}
+
+			String value = utf8 ? decode(chars, length) : null; // the only time the bytes are decoded
+
+			if (utf8 && value.indexOf('\uFFFD') >= 0) { // malformed bytes, decoded as other bytes already found
+				Integer known = replaced.get(value);
+				if (known != null)
+					return known;
+				replaced.put(value, size);
+			}
+
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+				hashes = Arrays.copyOf(hashes, size * 2);
+				numbers = Arrays.copyOf(numbers, size * 2);
+				parsed = Arrays.copyOf(parsed, size * 2);
+				if (utf8)
+					keys = Arrays.copyOf(keys, size * 2);
+			}
+
+			if (utf8) {
+				keys[size] = Arrays.copyOf(chars, length);
+				values[size] = value;
+			} else {
+				values[size] = new String(chars, 0, length);
+			}
+
+			hashes[size] = hash;
+			table[slot] = size;
+
+			if (++size * 2 > table.length) // at most half full
+				rehash();
+
+			return size - 1;
+		}
+
+		/**
+		 * Checks whether a value is a number, parsing it only once
+		 */
+		private boolean isNumber(int code) {
+
+			if (numbers[code] == 0) {
+				try {
+					parsed[code] = Double.parseDouble(values[code]);
+					numbers[code] = 1;
+				} catch (NumberFormatException e) {
+					numbers[code] = 2;
+				}
+			}
+
+			return numbers[code] == 1;
+		}
+
+		private double getNumber(int code) {
+			return parsed[code];
+		}
+
+		private String getValue(int code) {
+			return values[code];
+		}
+
+		private List<String> getValues() {
+			return new ArrayList<String>(Arrays.asList(values).subList(0, size));
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private void rehash() {
+
+			table = newTable(table.length * 2);
+			int mask = table.length - 1;
+
+			for (int code = 0; code < size; code++) {
+				int slot = hashes[code] & mask;
+				while (table[slot] != MISSING)
+					slot = (slot + 1) & mask;
+				table[slot] = code;
+			}
+		}
+
+		/**
+		 * Decodes a value whose characters are UTF-8 bytes
+		 */
+		private static String decode(char[] chars, int length) {
+
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++)
+				bytes[i] = (byte) chars[i];
+
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private static int[] newTable(int length) {
+			int[] table = new int[length];
+			Arrays.fill(table, MISSING);
+			return table;
+		}
+
+		private static boolean matches(char[] key, char[] chars, int length) {
+
+			if (key.length != length)
+				return false;
+
+			for (int i = 0; i < length; i++)
+				if (key[i] != chars[i])
+					return false;
+
+			return true;
+		}
+
+		private static boolean matches(String value, char[] chars, int length) {
+
+			if (value.length() != length)
+				return false;
+
+			for (int i = 0; i < length; i++)
+				if (value.charAt(i) != chars[i])
+					return false;
+
+			return true;
+		}
+	}
+
+	/**
+	 * Tokenizer of the CSV lines returning the same tokens of the StreamTokenizer
+	 * set up by the CSV loader: the control characters are spaces, except for the
+	 * line ends, a value ends at a comma, at a quote or at a control character and
+	 * the quoted values end at the closing quote or at the end of the line, with
+	 * the escape sequences of Java. The characters of the current value are kept
+	 * in a buffer, without creating a String. When reading UTF-8 bytes, every
+	 * character of the buffer is a byte, and the characters of the escape
+	 * sequences are encoded back in UTF-8.
+	 */
+	private static class Tokenizer {
+
+		private static final int EOF = -1;
+		private static final int EOL = '\n';
+		private static final int SEPARATOR = ',';
+		private static final int VALUE = -3; // a quoted or unquoted value
+
+		// The next character to read, as in StreamTokenizer
+		private static final int NEED_CHAR = Integer.MAX_VALUE;
+		private static final int SKIP_LF = Integer.MAX_VALUE - 1;
+
+		private final Reader in; // the characters, null when reading bytes
+		private final InputStream bytesIn; // the UTF-8 bytes, null when reading characters
+		private final char[] buffer;
+		private final byte[] bytes;
+		private int position = 0;
+		private int limit = 0;
+		private int peek = NEED_CHAR;
+		private int line = 1;
+
+		private char[] token = new char[64];
+		private int length = 0;
+
+		private Tokenizer(Reader in) {
+			this.in = in;
+			this.bytesIn = null;
+			this.buffer = new char[1 << 16];
+			this.bytes = null;
+		}
+
+		private Tokenizer(InputStream in) {
+			this.in = null;
+			this.bytesIn = in;
+			this.buffer = null;
+			this.bytes = new byte[1 << 16];
+		}
+
+		/**
+		 * Whether the tokens are made of UTF-8 bytes
+		 */
+		private boolean isUTF8() {
+			return bytes != null;
+		}
+
+		/**
+		 * Reads a whole line, as BufferedReader does
+		 *
+		 * @return the line or null at the end of the stream
+		 */
+		private String readLine() throws IOException {
+
+			StringBuilder builder = new StringBuilder();
+			int c = read();
+
+			if (c < 0)
+				return null;
+
+			while (c >= 0 && c != '\n' && c != '\r') {
+				builder.append((char) c);
+				c = read();
+			}
+
+			if (c == '\r') // a following \n belongs to the same line end
+				peek = SKIP_LF;
+
+			line++;
+
+			if (isUTF8()) // every character is a byte
+				return new String(builder.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+
+			return builder.toString();
+		}
+
+		/**
+		 * Gets the first token of a row, skipping the empty lines
+		 */
+		private int firstToken() throws IOException {
+
+			int type = nextToken();
+
+			while (type == EOL)
+				type = nextToken();
+
+			return type;
+		}
+
+		private int nextToken() throws IOException {
+
+			int c = peek;
+			peek = NEED_CHAR;
+
+			if (c == SKIP_LF) {
+				c = read();
+				if (c < 0)
+					return EOF;
+				if (c == '\n')
+					c = NEED_CHAR;
+			}
+
+			if (c == NEED_CHAR || c < 0) {
+				c = read();
+				if (c < 0)
+					return EOF;
+			}
+
+			while (c < ' ') { // control characters, line ends included
+
+				if (c == '\r') {
+					line++;
+					peek = SKIP_LF;
+					return EOL;
+				}
+
+				if (c == '\n') {
+					line++;
+					return EOL;
+				}
+
+				c = read();
+				if (c < 0)
+					return EOF;
+			}
+
+			if (c == ',')
+				return SEPARATOR;
+
+			length = 0;
+
+			if (c == '"' || c == '\'') {
+				readQuoted(c);
+				return VALUE;
+			}
+
+			do {
+				append(c);
+				c = read();
+			} while (c >= ' ' && c != ',' && c != '"' && c != '\'');
+
+			peek = c;
+
+			return VALUE;
+		}
+
+		/**
+		 * Reads a quoted value, replacing the escape sequences as StreamTokenizer
+		 * does
+		 */
+		private void readQuoted(int quote) throws IOException {
+
+			int d = read();
+
+			while (d >= 0 && d != quote && d != '\n' && d != '\r') {
+
+				int c;
+				boolean escaped = false; // a character given by an escape sequence and not read as it is
+
+				if (d == '\\') {
+
+					c = read();
+					int first = c;
+
+					if (c >= '0' && c <= '7') { // octal escape, at most \377
+						escaped = true;
+						c = c - '0';
+						int c2 = read();
+						if ('0' <= c2 && c2 <= '7') {
+							c = (c << 3) + (c2 - '0');
+							c2 = read();
+							if ('0' <= c2 && c2 <= '7' && first <= '3') {
+								c = (c << 3) + (c2 - '0');
+								d = read();
+							} else
+								d = c2;
+						} else
+							d = c2;
+					} else {
+						escaped = c < 0; // the end of the stream, kept as StreamTokenizer does
+						switch (c) {
+						case 'a':
+							c = 0x7;
+							break;
+						case 'b':
+							c = '\b';
+							break;
+						case 'f':
+							c = 0xC;
+							break;
+						case 'n':
+							c = '\n';
+							break;
+						case 'r':
+							c = '\r';
+							break;
+						case 't':
+							c = '\t';
+							break;
+						case 'v':
+							c = 0xB;
+							break;
+						}
+						d = read();
+					}
+				} else {
+					c = d;
+					d = read();
+				}
+
+				if (escaped && isUTF8())
+					appendUTF8((char) c);
+				else
+					append(c);
+			}
+
+			peek = d == quote ? NEED_CHAR : d; // the line end is returned as the next token
+		}
+
+		/**
+		 * Whether the current value is missing, so ? or blank
+		 */
+		private boolean isMissing() {
+
+			if (length == 1 && token[0] == '?')
+				return true;
+
+			for (int i = 0; i < length; i++)
+				if (token[i] > ' ')
+					return false;
+
+			return true;
+		}
+
+		private String getToken() {
+			return new String(token, 0, length);
+		}
+
+		private int getLine() {
+			return line;
+		}
+
+		private void append(int c) {
+			if (length == token.length)
+				token = Arrays.copyOf(token, length * 2);
+			token[length++] = (char) c;
+		}
+
+		/**
+		 * Appends a character as its UTF-8 bytes
+		 */
+		private void appendUTF8(char c) {
+
+			if (c < 0x80) {
+				append(c);
+			} else if (c < 0x800) {
+				append(0xC0 | (c >> 6));
+				append(0x80 | (c & 0x3F));
+			} else {
+				append(0xE0 | (c >> 12));
+				append(0x80 | ((c >> 6) & 0x3F));
+				append(0x80 | (c & 0x3F));
+			}
+		}
+
+		private int read() throws IOException {
+
+			if (position == limit) {
+
+				limit = bytes != null ? bytesIn.read(bytes, 0, bytes.length) : in.read(buffer, 0, buffer.length);
+				position = 0;
+
+				if (limit <= 0) {
+					limit = 0;
+					return EOF;
+				}
+			}
+
+			return bytes != null ? bytes[position++] & 0xff : buffer[position++];
+		}
+	}
+}
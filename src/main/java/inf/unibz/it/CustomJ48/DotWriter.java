@@ -0,0 +1,161 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Writer used to stream a tree in the dot format. Every node and edge is
+ * written to the output as soon as it is visited, through an unsynchronized
+ * buffer, so the graph is never kept in memory as a whole.
+ *
+ * Labels are written as they are given, so they should already be escaped by
+ * the caller.
+ */
+public class DotWriter implements Closeable {
+
+	private final Writer out;
+
+	/**
+	 * Creates a dot writer encoding the graph in UTF-8 on the given stream
+	 *
+	 * @param out the output stream
+	 */
+	public DotWriter(OutputStream out) {
+		this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a dot writer on the given character stream
+	 *
+	 * @param out the writer used for the output
+	 */
+	public DotWriter(Writer out) {
+		this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+	}
+
+	/**
+	 * Writes the opening of the graph
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public void startGraph() throws IOException {
+		out.write("digraph J48Tree {\n");
+	}
+
+	/**
+	 * Writes a node of the graph
+	 *
+	 * @param id           the id of the node
+	 * @param label        the escaped label of the node
+	 * @param leaf         whether the node is a leaf, drawn as a filled box
+	 * @param distribution the escaped class distribution shown as tooltip of the
+	 *                     node, null if it should not be written
+	 * @param data         the training data to attach to the node, null if no
+	 *                     data should be written
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeNode(int id, String label, boolean leaf, String distribution, Instances data)
+			throws IOException {
+
+		out.write('N');
+		out.write(Integer.toString(id));
+		out.write(" [label=\"");
+		out.write(label);
+		out.write("\" ");
+
+		if (leaf)
+			out.write("shape=box style=filled ");
+
+		if (distribution != null) {
+			out.write("tooltip=\"");
+			out.write(distribution);
+			out.write("\" ");
+		}
+
+		if (data != null) { // with its information
+			out.write("data =\n");
+			writeData(data);
+			out.write("\n,\n");
+		}
+
+		out.write("]\n");
+	}
+
+	/**
+	 * Writes an edge of the graph
+	 *
+	 * @param parentId the id of the source node
+	 * @param childId  the id of the target node
+	 * @param label    the escaped label of the edge
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeEdge(int parentId, int childId, String label) throws IOException {
+
+		out.write('N');
+		out.write(Integer.toString(parentId));
+		out.write("->N");
+		out.write(Integer.toString(childId));
+		out.write(" [label=\"");
+		out.write(label);
+		out.write("\"]\n");
+	}
+
+	/**
+	 * Writes the closing of the graph and flushes the buffer
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public void endGraph() throws IOException {
+		out.write("}\n");
+		out.flush();
+	}
+
+	/**
+	 * Flushes the buffered output
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Writes the data set in the ARFF format, one instance at a time, producing
+	 * the same text as {@link Instances#toString()}
+	 *
+	 * @param data the data set to write
+	 * @throws IOException if the output cannot be written
+	 */
+	private void writeData(Instances data) throws IOException {
+
+		out.write("@relation ");
+		out.write(Utils.quote(data.relationName()));
+		out.write("\n\n");
+
+		for (int i = 0; i < data.numAttributes(); i++) {
+			out.write(data.attribute(i).toString());
+			out.write('\n');
+		}
+
+		out.write("\n@data\n");
+
+		for (int i = 0; i < data.numInstances(); i++) {
+			out.write(data.instance(i).toString());
+			if (i < data.numInstances() - 1)
+				out.write('\n');
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package inf.unibz.it.CustomJ48;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import weka.core.Utils;
+
+/**
+ * Form of a built tree shared by all the exporters, built once from its
+ * {@link CompactNode} root. The labels of the compact tree are interned, so
+ * every distinct label is a single string, and the form of a label written by
+ * every format (escaped for dot, with the underscores replaced back, without
+ * the equal sign in JSON) is computed the first time it is needed and then
+ * reused by all the nodes and all the following exports, also concurrent ones.
+ *
+ * The size of every subtree visited with and without pruning is computed once
+ * as well, the first time the tree is exported in parallel, and so are the
+ * identical subtrees ({@link SubtreeDag}), the first time the tree is exported
+ * as a graph.
+ */
+public class ExportTree {
+
+	/**
+	 * Target format of the labels
+	 */
+	public enum Format {
+		DOT, GRAPHML, JSON, JAVA;
+	}
+
+	private final CompactNode root;
+
+	// forms of the labels of the nodes and of the edges by format, the latter also replacing back underscores
+	private final Map<Format, Map<String, String>> nodeLabels = new EnumMap<Format, Map<String, String>>(Format.class);
+	private final Map<Format, Map<String, String>> edgeLabels = new EnumMap<Format, Map<String, String>>(Format.class);
+	private final Map<Format, Map<String, String>> replacedEdgeLabels = new EnumMap<Format, Map<String, String>>(Format.class);
+
+	// size of every subtree visited without and with pruning, computed when first needed
+	private volatile Map<CompactNode, Integer> sizes;
+	private volatile Map<CompactNode, Integer> prunedSizes;
+
+	// identical subtrees by pruning and comparison of the class counts, computed when first needed
+	private final AtomicReferenceArray<SubtreeDag> dags = new AtomicReferenceArray<SubtreeDag>(4);
+
+	/**
+	 * Creates the export form of the tree rooted in the given compact node
+	 *
+	 * @param root the root of the compact tree
+	 */
+	public ExportTree(CompactNode root) {
+		this.root = root;
+
+		// filled here and only read afterwards, so shared by the concurrent exports
+		for (Format format : Format.values()) {
+			nodeLabels.put(format, new ConcurrentHashMap<String, String>());
+			edgeLabels.put(format, new ConcurrentHashMap<String, String>());
+			replacedEdgeLabels.put(format, new ConcurrentHashMap<String, String>());
+		}
+	}
+
+	/**
+	 * Gets the root of the tree
+	 *
+	 * @return the root of the compact tree
+	 */
+	public CompactNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * Gets the label of a node as written in the given format
+	 *
+	 * @param format the target format
+	 * @param node   the node
+	 * @return the label, escaped according to the HTML specification for dot
+	 */
+	public String nodeLabel(Format format, CompactNode node) {
+
+		Map<String, String> labels = nodeLabels.get(format);
+		String label = labels.get(node.getLabel());
+
+		if (label == null) { // first time the label is written in this format
+			label = format == Format.DOT ? escape(node.getLabel()) : node.getLabel();
+			labels.put(node.getLabel(), label);
+		}
+
+		return label;
+	}
+
+	/**
+	 * Gets the label of the edge from a node to one of its sons as written in the
+	 * given format
+	 *
+	 * @param format  the target format
+	 * @param parent  the node
+	 * @param index   the index of the son
+	 * @param replace whether we are replacing back underscores or not
+	 * @return the label of the edge
+	 */
+	public String edgeLabel(Format format, CompactNode parent, int index, boolean replace) {
+
+		String branchLabel = parent.getBranchLabel(index);
+		Map<String, String> labels = (replace ? replacedEdgeLabels : edgeLabels).get(format);
+		String label = labels.get(branchLabel);
+
+		if (label == null) { // first time the label is written in this format
+			label = formatEdge(format, branchLabel, replace);
+			labels.put(branchLabel, label);
+		}
+
+		return label;
+	}
+
+	/**
+	 * Gets the number of nodes visited in every subtree
+	 *
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @return the size of the subtree rooted in every visited node
+	 * @throws Exception never, the counting visitor does not fail
+	 */
+	public Map<CompactNode, Integer> subtreeSizes(boolean pruning) throws Exception {
+
+		Map<CompactNode, Integer> result = pruning ? prunedSizes : sizes;
+
+		if (result == null) { // computed at most a few times by concurrent exports, always equal
+			result = TreeTraversal.subtreeSizes(root, pruning);
+			if (pruning)
+				prunedSizes = result;
+			else
+				sizes = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the identical subtrees of the tree
+	 *
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param counts  whether the identical subtrees must also have the same class
+	 *                counts at every node
+	 * @return the identical subtrees
+	 * @throws Exception never, the numbering visitor does not fail
+	 */
+	public SubtreeDag subtreeDag(boolean pruning, boolean counts) throws Exception {
+
+		int index = (pruning ? 2 : 0) + (counts ? 1 : 0);
+		SubtreeDag dag = dags.get(index);
+
+		if (dag == null) { // computed at most a few times by concurrent exports, always equal
+			dag = SubtreeDag.build(root, pruning, counts);
+			dags.set(index, dag);
+		}
+
+		return dag;
+	}
+
+	/**
+	 * Computes the label of an edge as written in the given format
+	 */
+	private static String formatEdge(Format format, String branchLabel, boolean replace) {
+
+		switch (format) {
+		case DOT:
+			String escaped = escape(branchLabel);
+			return replace ? replace_underscore(escaped, false) : escaped;
+		case JSON:
+			String label = replace ? replace_underscore(branchLabel, true) : branchLabel;
+			return label.startsWith("= ") ? label.substring(2) : label;
+		default:
+			return replace ? replace_underscore(branchLabel, false) : branchLabel;
+		}
+	}
+
+	/**
+	 * Escapes a label for the dot format, according to the HTML specification
+	 *
+	 * @param text the label
+	 * @return the escaped label
+	 */
+	static String escape(String text) {
+		return StringEscapeUtils.escapeHtml4(Utils.backQuoteChars(text));
+	}
+
+	/**
+	 * Utility function used to replace the underscore character used to represent the empty string when we use the replacing function
+	 * @param text text we would like to replace
+	 * @param json whether the text is written in JSON
+	 * @return the replaced text
+	 */
+	private static String replace_underscore(String text, boolean json) {
+		String result = text;
+
+		if(result.equals("= _") ) {
+			if(json)
+				result = "empty value";
+			else
+				result = "=";
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,408 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import weka.classifiers.trees.j48.BinC45Split;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Predictor compiled from a built tree into flat arrays of primitives. Nodes
+ * are numbered in breadth first order, so the sons of a node are contiguous,
+ * and every node is described by the attribute it tests, the threshold of a
+ * numeric split or the offset of the jump table mapping every nominal value to
+ * a son, and the class probabilities used when an instance stops at it.
+ *
+ * Instances are classified without allocating any object and give exactly the
+ * same result of {@link ClassifierTree#classifyInstance(Instance)}, missing
+ * values included: when a missing value is found the probabilities are summed
+ * over the sons with the same weights and in the same order. The predictor is
+ * immutable, so it can be shared by several threads.
+ *
+ * The static helpers are shared with the other compiled forms of the tree, so
+ * all of them read the split models in the same way.
+ */
+public class FlatTreePredictor implements Scorer, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// The flag of the empty sons is not exposed by J48, but it is needed to reproduce its classification
+	private static final Field IS_EMPTY;
+
+	static {
+		try {
+			IS_EMPTY = ClassifierTree.class.getDeclaredField("m_isEmpty");
+			IS_EMPTY.setAccessible(true);
+		} catch (NoSuchFieldException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final int numClasses;
+
+	private final int[] attribute; // the attribute tested by every node, -1 for a leaf
+	private final double[] threshold; // the split point of numeric splits
+	private final int[] tableOffset; // the offset of the jump table of nominal splits, -1 for numeric splits
+	private final int[] jumpTable; // the index of the son for every nominal value
+	private final int[] firstSon; // the index of the first son
+	private final int[] numSons;
+	private final double[] missingWeight; // the weight of every node among its siblings when the tested value is missing
+	private final boolean[] empty; // whether the node has been built from no instance
+	private final double[] probs; // numClasses probabilities for every node where an instance can stop
+
+	private FlatTreePredictor(int numClasses, int numNodes, int tableSize) {
+		this.numClasses = numClasses;
+		this.attribute = new int[numNodes];
+		this.threshold = new double[numNodes];
+		this.tableOffset = new int[numNodes];
+		this.jumpTable = new int[tableSize];
+		this.firstSon = new int[numNodes];
+		this.numSons = new int[numNodes];
+		this.missingWeight = new double[numNodes];
+		this.empty = new boolean[numNodes];
+		this.probs = new double[numNodes * numClasses];
+	}
+
+	/**
+	 * Compiles the tree rooted in the given node
+	 *
+	 * @param root   the root of the built tree
+	 * @param header the header of the training data
+	 * @return the predictor
+	 * @throws Exception if the tree uses a split model that cannot be compiled
+	 */
+	public static FlatTreePredictor compile(ClassifierTree root, Instances header) throws Exception {
+
+		// count the nodes and the entries of the jump tables first, so the arrays are allocated once
+		int numNodes = 0;
+		int tableSize = 0;
+		Deque<ClassifierTree> stack = new ArrayDeque<ClassifierTree>();
+		stack.push(root);
+
+		while (!stack.isEmpty()) {
+			ClassifierTree node = stack.pop();
+			numNodes++;
+			if (!node.isLeaf()) {
+				int att = splitAttribute(node.getLocalModel());
+				if (header.attribute(att).isNominal())
+					tableSize += header.attribute(att).numValues();
+				for (ClassifierTree son : node.getSons())
+					stack.push(son);
+			}
+		}
+
+		FlatTreePredictor predictor = new FlatTreePredictor(header.numClasses(), numNodes, tableSize);
+		predictor.fill(root, header);
+
+		return predictor;
+	}
+
+	/**
+	 * Writes the arrays of the predictor in the format of a {@link TreeSnapshot}
+	 *
+	 * @param out the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+
+		out.writeInt(numClasses);
+		out.writeInt(attribute.length);
+		out.writeInt(jumpTable.length);
+
+		TreeSnapshot.writeInts(out, attribute);
+		TreeSnapshot.writeDoubles(out, threshold);
+		TreeSnapshot.writeInts(out, tableOffset);
+		TreeSnapshot.writeInts(out, jumpTable);
+		TreeSnapshot.writeInts(out, firstSon);
+		TreeSnapshot.writeInts(out, numSons);
+		TreeSnapshot.writeDoubles(out, missingWeight);
+		for (boolean flag : empty)
+			out.writeBoolean(flag);
+		TreeSnapshot.writeDoubles(out, probs);
+	}
+
+	/**
+	 * Reads a predictor written by {@link #write(DataOutputStream)}
+	 *
+	 * @param in the buffer
+	 * @return the predictor
+	 * @throws IOException if the sizes of the arrays are not valid
+	 */
+	static FlatTreePredictor read(ByteBuffer in) throws IOException {
+
+		int numClasses = in.getInt();
+		int numNodes = TreeSnapshot.readSize(in, 1);
+		int tableSize = TreeSnapshot.readSize(in, 4);
+
+		if (numClasses < 1 || (long) numNodes * numClasses > Integer.MAX_VALUE)
+			throw new IOException("The snapshot is truncated or corrupted");
+
+		FlatTreePredictor predictor = new FlatTreePredictor(numClasses, numNodes, tableSize);
+
+		TreeSnapshot.readInts(in, predictor.attribute);
+		TreeSnapshot.readDoubles(in, predictor.threshold);
+		TreeSnapshot.readInts(in, predictor.tableOffset);
+		TreeSnapshot.readInts(in, predictor.jumpTable);
+		TreeSnapshot.readInts(in, predictor.firstSon);
+		TreeSnapshot.readInts(in, predictor.numSons);
+		TreeSnapshot.readDoubles(in, predictor.missingWeight);
+		for (int i = 0; i < numNodes; i++)
+			predictor.empty[i] = in.get() != 0;
+		TreeSnapshot.readDoubles(in, predictor.probs);
+
+		return predictor;
+	}
+
+	/**
+	 * Fills the arrays visiting the tree in breadth first order
+	 */
+	private void fill(ClassifierTree root, Instances header) throws Exception {
+
+		Deque<ClassifierTree> queue = new ArrayDeque<ClassifierTree>();
+		queue.add(root);
+
+		int index = 0; // the index of the node being filled
+		int nextIndex = 1; // the index of the next node added to the queue
+		int nextOffset = 0; // the offset of the next jump table
+
+		while (!queue.isEmpty()) {
+
+			ClassifierTree node = queue.poll();
+			ClassifierSplitModel model = node.getLocalModel();
+
+			if (node.isLeaf()) {
+				attribute[index] = -1;
+				tableOffset[index] = -1;
+				if (!empty[index]) // the probabilities of an empty son come from its parent
+					System.arraycopy(stopProbs(node, null, 0), 0, probs, index * numClasses, numClasses);
+				index++;
+				continue;
+			}
+
+			int att = splitAttribute(model);
+			Attribute splitAttribute = header.attribute(att);
+			ClassifierTree[] sons = node.getSons();
+
+			attribute[index] = att;
+			firstSon[index] = nextIndex;
+			numSons[index] = sons.length;
+
+			if (splitAttribute.isNominal()) { // every value jumps to its son
+				tableOffset[index] = nextOffset;
+				for (int v = 0; v < splitAttribute.numValues(); v++) {
+					if (isBinary(model)) // the value of the split against all the others
+						jumpTable[nextOffset + v] = (int) splitPoint(model) == v ? 0 : 1;
+					else
+						jumpTable[nextOffset + v] = v;
+				}
+				nextOffset += splitAttribute.numValues();
+			} else {
+				tableOffset[index] = -1;
+				threshold[index] = splitPoint(model);
+			}
+
+			for (int i = 0; i < sons.length; i++) {
+
+				int son = nextIndex + i;
+
+				// the same weights used by the split model for missing values
+				missingWeight[son] = model.distribution().perBag(i) / model.distribution().total();
+				empty[son] = isEmpty(sons[i]);
+
+				if (empty[son]) // an instance stopping at an empty son gets the probabilities of the subset
+					System.arraycopy(stopProbs(sons[i], node, i), 0, probs, son * numClasses, numClasses);
+
+				queue.add(sons[i]);
+			}
+
+			nextIndex += sons.length;
+			index++;
+		}
+	}
+
+	/**
+	 * Gets the attribute tested by a split model
+	 *
+	 * @param model the split model of an inner node
+	 * @return the index of the attribute
+	 */
+	static int splitAttribute(ClassifierSplitModel model) {
+		if (model instanceof C45Split)
+			return ((C45Split) model).attIndex();
+		if (model instanceof BinC45Split)
+			return ((BinC45Split) model).attIndex();
+		throw new IllegalArgumentException("Split model not supported: " + model.getClass().getName());
+	}
+
+	/**
+	 * Gets the split point of a split model: the threshold of a numeric split or
+	 * the value separated from the others by a binary nominal split
+	 *
+	 * @param model the split model of an inner node
+	 * @return the split point
+	 */
+	static double splitPoint(ClassifierSplitModel model) {
+		if (model instanceof BinC45Split)
+			return ((BinC45Split) model).splitPoint();
+		return ((C45Split) model).splitPoint();
+	}
+
+	/**
+	 * Checks if a split model separates a single nominal value from all the others
+	 *
+	 * @param model the split model of an inner node
+	 * @return true for binary splits
+	 */
+	static boolean isBinary(ClassifierSplitModel model) {
+		return model instanceof BinC45Split;
+	}
+
+	/**
+	 * Checks if a node has been built from no instance of the training data
+	 *
+	 * @param node the node
+	 * @return the empty flag of J48
+	 * @throws IllegalAccessException if the flag cannot be read
+	 */
+	static boolean isEmpty(ClassifierTree node) throws IllegalAccessException {
+		return IS_EMPTY.getBoolean(node);
+	}
+
+	/**
+	 * Computes the class probabilities of an instance stopping at a node without
+	 * missing values: the ones of the leaf itself or, for an empty son, the ones
+	 * of its subset at the parent
+	 *
+	 * @param node   the node where the instance stops
+	 * @param parent the parent of the node, null for the root
+	 * @param index  the index of the node among the sons of its parent
+	 * @return the probability of every class
+	 * @throws Exception if the probabilities cannot be computed
+	 */
+	static double[] stopProbs(ClassifierTree node, ClassifierTree parent, int index) throws Exception {
+
+		boolean fromParent = parent != null && isEmpty(node);
+		ClassifierSplitModel model = fromParent ? parent.getLocalModel() : node.getLocalModel();
+		double[] probs = new double[model.distribution().numClasses()];
+
+		for (int j = 0; j < probs.length; j++)
+			probs[j] = model.classProb(j, null, fromParent ? index : -1);
+
+		return probs;
+	}
+
+	/**
+	 * Gets the most probable class, the first one in case of ties, as J48 does
+	 *
+	 * @param probs      the array containing the probabilities
+	 * @param offset     the offset of the probability of the first class
+	 * @param numClasses the number of classes
+	 * @return the index of the most probable class
+	 */
+	static int maxClass(double[] probs, int offset, int numClasses) {
+
+		double maxProb = -1;
+		int maxIndex = 0;
+
+		for (int j = 0; j < numClasses; j++) {
+			if (Utils.gr(probs[offset + j], maxProb)) {
+				maxIndex = j;
+				maxProb = probs[offset + j];
+			}
+		}
+
+		return maxIndex;
+	}
+
+	@Override
+	public double classifyInstance(Instance instance) {
+
+		int node = 0;
+
+		while (attribute[node] >= 0) { // follow the path of the instance down to a leaf
+
+			int att = attribute[node];
+
+			if (instance.isMissing(att)) // the instance is split among all the sons
+				return classifyMissing(instance);
+
+			node = son(node, instance.value(att));
+		}
+
+		return maxClass(probs, node * numClasses, numClasses);
+	}
+
+	/**
+	 * Gets the number of nodes of the compiled tree
+	 *
+	 * @return the number of nodes
+	 */
+	public int numNodes() {
+		return attribute.length;
+	}
+
+	/**
+	 * Gets the son of an inner node reached by the given value
+	 */
+	private int son(int node, double value) {
+		if (tableOffset[node] >= 0)
+			return firstSon[node] + jumpTable[tableOffset[node] + (int) value];
+		return firstSon[node] + (value <= threshold[node] ? 0 : 1);
+	}
+
+	/**
+	 * Classifies an instance with some missing values, computing the probability
+	 * of every class separately as J48 does
+	 */
+	private double classifyMissing(Instance instance) {
+
+		double maxProb = -1;
+		int maxIndex = 0;
+
+		for (int j = 0; j < numClasses; j++) {
+			double prob = getProbs(0, j, instance, 1);
+			if (Utils.gr(prob, maxProb)) {
+				maxIndex = j;
+				maxProb = prob;
+			}
+		}
+
+		return maxIndex;
+	}
+
+	/**
+	 * Computes the probability of a class for the instance reaching a node with
+	 * the given weight
+	 */
+	private double getProbs(int node, int classIndex, Instance instance, double weight) {
+
+		if (attribute[node] < 0)
+			return weight * probs[node * numClasses + classIndex];
+
+		if (instance.isMissing(attribute[node])) { // sum over the sons built from some instances
+			double prob = 0;
+			for (int son = firstSon[node]; son < firstSon[node] + numSons[node]; son++)
+				if (!empty[son])
+					prob += getProbs(son, classIndex, instance, missingWeight[son] * weight);
+			return prob;
+		}
+
+		int son = son(node, instance.value(attribute[node]));
+
+		if (empty[son])
+			return weight * probs[son * numClasses + classIndex];
+
+		return getProbs(son, classIndex, instance, weight);
+	}
+}
@@ -0,0 +1,250 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writer used to stream a tree in the GraphML format, with the graphical
+ * specification of the yED editor. Nodes and edges are written through a StAX
+ * writer as soon as they are visited, so no DOM document is built.
+ *
+ * When pretty printing is enabled the output is indented with two spaces, as
+ * the XML Transformer previously used did.
+ */
+public class GraphMLWriter implements Closeable {
+
+	private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+
+	private final Writer out;
+	private final XMLStreamWriter xml;
+	private final boolean pretty;
+
+	private int depth; // the depth of the current element, used for the indentation
+
+	/**
+	 * Creates a GraphML writer encoding the graph in UTF-8 on the given stream
+	 *
+	 * @param out    the output stream
+	 * @param pretty whether we are indenting the output or not
+	 * @throws XMLStreamException if the StAX writer cannot be created
+	 */
+	public GraphMLWriter(OutputStream out, boolean pretty) throws XMLStreamException {
+		this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), pretty, 0);
+	}
+
+	/**
+	 * Creates a GraphML writer on the given character stream, starting at the
+	 * given depth. A writer starting inside the graph element can be used to write
+	 * a fragment of nodes and edges that will be concatenated to the other ones.
+	 *
+	 * @param out    the writer used for the output
+	 * @param pretty whether we are indenting the output or not
+	 * @param depth  the number of elements enclosing the first one written
+	 * @throws XMLStreamException if the StAX writer cannot be created
+	 */
+	public GraphMLWriter(Writer out, boolean pretty, int depth) throws XMLStreamException {
+		this.out = out;
+		this.xml = FACTORY.createXMLStreamWriter(out);
+		this.pretty = pretty;
+		this.depth = depth;
+	}
+
+	/**
+	 * Writes the root element with all the references to the schemas, the keys
+	 * used to store labels and descriptions and opens the graph element
+	 *
+	 * @throws XMLStreamException if the output cannot be written
+	 */
+	public void startGraph() throws XMLStreamException {
+
+		// The declaration is written by hand to keep the standalone attribute
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+
+		startElement("graphml");
+		xml.writeAttribute("xmlns", "http://graphml.graphdrawing.org/xmlns");
+		xml.writeAttribute("xmlns:bpmn", "http://www.yworks.com/xml/yfiles-for-html/bpmn/2.0");
+		xml.writeAttribute("xmlns:java", "http://www.yworks.com/xml/yfiles-common/1.0/java");
+		xml.writeAttribute("xmlns:sys", "http://www.yworks.com/xml/yfiles-common/markup/primitives/2.0");
+		xml.writeAttribute("xmlns:x", "http://www.yworks.com/xml/yfiles-common/markup/2.0");
+		xml.writeAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
+		xml.writeAttribute("xmlns:y", "http://www.yworks.com/xml/graphml");
+		xml.writeAttribute("xmlns:yed", "http://www.yworks.com/xml/yed/3");
+		xml.writeAttribute("xsi:schemaLocation",
+				"http://graphml.graphdrawing.org/xmlns http://www.yworks.com/xml/schema/graphml/1.1/ygraphml.xsd");
+
+		emptyElement("key"); // the label key for yEd
+		xml.writeAttribute("for", "graphml");
+		xml.writeAttribute("id", "d7");
+		xml.writeAttribute("yfiles.type", "resources");
+
+		emptyElement("key"); // the description key, standard graphml
+		xml.writeAttribute("attr.name", "description");
+		xml.writeAttribute("for", "all");
+		xml.writeAttribute("id", "desc");
+
+		emptyElement("key"); // the node key
+		xml.writeAttribute("for", "node");
+		xml.writeAttribute("id", "d6");
+		xml.writeAttribute("yfiles.type", "nodegraphics");
+
+		emptyElement("key"); // the edge key
+		xml.writeAttribute("for", "edge");
+		xml.writeAttribute("id", "d10");
+		xml.writeAttribute("yfiles.type", "edgegraphics");
+
+		startElement("graph");
+		xml.writeAttribute("edgedefault", "directed");
+	}
+
+	/**
+	 * Writes a node with its yED label and the standard description
+	 *
+	 * @param id    the id of the node
+	 * @param label the label of the node
+	 * @throws XMLStreamException if the output cannot be written
+	 */
+	public void writeNode(int id, String label) throws XMLStreamException {
+
+		startElement("node");
+		xml.writeAttribute("id", Integer.toString(id));
+
+		startElement("data");
+		xml.writeAttribute("key", "d6");
+		startElement("y:ShapeNode");
+		textElement("y:NodeLabel", label);
+		endElement();
+		endElement();
+
+		textElement("data", "desc", label); // description for cross compatibility
+
+		endElement();
+	}
+
+	/**
+	 * Writes an edge with its yED label and the standard description
+	 *
+	 * @param parentId the id of the source node
+	 * @param childId  the id of the target node, used also to identify the edge
+	 * @param label    the label of the edge
+	 * @throws XMLStreamException if the output cannot be written
+	 */
+	public void writeEdge(int parentId, int childId, String label) throws XMLStreamException {
+
+		startElement("edge");
+		xml.writeAttribute("id", "e" + childId);
+		xml.writeAttribute("source", Integer.toString(parentId));
+		xml.writeAttribute("target", Integer.toString(childId));
+
+		startElement("data");
+		xml.writeAttribute("key", "d10");
+		startElement("y:PolyLineEdge");
+		textElement("y:EdgeLabel", label);
+		endElement();
+		endElement();
+
+		textElement("data", "desc", label); // description for cross compatibility
+
+		endElement();
+	}
+
+	/**
+	 * Closes the graph and the root elements and flushes the output
+	 *
+	 * @throws XMLStreamException if the output cannot be written
+	 */
+	public void endGraph() throws XMLStreamException {
+		endElement(); // graph
+		endElement(); // graphml
+		xml.writeEndDocument();
+		newLine();
+		xml.flush();
+	}
+
+	/**
+	 * Completes the start tag still open, if any, and flushes the output, so other
+	 * content can be written on the underlying writer
+	 *
+	 * @throws XMLStreamException if the output cannot be written
+	 */
+	public void flush() throws XMLStreamException {
+		xml.writeCharacters("");
+		xml.flush();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		out.close();
+	}
+
+	/*
+	 * Helper methods handling the indentation
+	 */
+
+	private void startElement(String name) throws XMLStreamException {
+		indent();
+		xml.writeStartElement(name);
+		depth++;
+	}
+
+	private void emptyElement(String name) throws XMLStreamException {
+		indent();
+		xml.writeEmptyElement(name);
+	}
+
+	private void endElement() throws XMLStreamException {
+		depth--;
+		indent();
+		xml.writeEndElement();
+	}
+
+	private void textElement(String name, String text) throws XMLStreamException {
+		indent();
+		xml.writeStartElement(name);
+		xml.writeCharacters(text);
+		xml.writeEndElement();
+	}
+
+	private void textElement(String name, String key, String text) throws XMLStreamException {
+		indent();
+		xml.writeStartElement(name);
+		xml.writeAttribute("key", key);
+		xml.writeCharacters(text);
+		xml.writeEndElement();
+	}
+
+	private void indent() throws XMLStreamException {
+		if (pretty) {
+			newLine();
+			for (int i = 0; i < depth; i++)
+				xml.writeCharacters("  ");
+		}
+	}
+
+	private void newLine() throws XMLStreamException {
+		if (pretty)
+			xml.writeCharacters("\n");
+	}
+}
@@ -0,0 +1,291 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON generator used to export the tree. Objects, arrays,
+ * names, string and number values are written to the output as soon as they are
+ * generated, escaping strings according to RFC 8259.
+ *
+ * The output can be compact or pretty printed, with two spaces of indentation
+ * for every level. Every top level value is terminated by a new line.
+ */
+public class JSONWriter implements Closeable {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+	private final boolean pretty;
+
+	// For every open object or array, whether something has already been written in it
+	private boolean[] hasElements = new boolean[32];
+	private int depth = 0;
+	private boolean afterName = false; // a name has been written and we are waiting for its value
+
+	/**
+	 * Creates a JSON writer encoding the output in UTF-8 on the given stream
+	 *
+	 * @param out    the output stream
+	 * @param pretty whether we are indenting the output or not
+	 */
+	public JSONWriter(OutputStream out, boolean pretty) {
+		this(new OutputStreamWriter(out, StandardCharsets.UTF_8), pretty);
+	}
+
+	/**
+	 * Creates a JSON writer on the given character stream
+	 *
+	 * @param out    the writer used for the output
+	 * @param pretty whether we are indenting the output or not
+	 */
+	public JSONWriter(Writer out, boolean pretty) {
+		this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+		this.pretty = pretty;
+	}
+
+	/**
+	 * Creates a JSON writer starting in the middle of a document, used to write
+	 * a fragment that will be concatenated to the previous ones. All the enclosing
+	 * objects and arrays are considered not empty, except the innermost one if
+	 * nothing has been written in it yet.
+	 *
+	 * @param out    the writer used for the output
+	 * @param pretty whether we are indenting the output or not
+	 * @param depth  the number of objects and arrays enclosing the fragment
+	 * @param first  whether the first value of the fragment is the first one of
+	 *               the innermost object or array
+	 * @return the writer
+	 */
+	public static JSONWriter fragment(Writer out, boolean pretty, int depth, boolean first) {
+
+		JSONWriter json = new JSONWriter(out, pretty);
+
+		json.depth = depth;
+		json.hasElements = new boolean[Math.max(32, depth * 2)];
+		for (int i = 1; i < depth; i++)
+			json.hasElements[i] = true;
+		if (depth > 0)
+			json.hasElements[depth] = !first;
+
+		return json;
+	}
+
+	/**
+	 * Opens a new object
+	 *
+	 * @return this writer
+	 * @throws IOException if the output cannot be written
+	 */
+	public JSONWriter beginObject() throws IOException {
+		beforeValue();
+		out.write('{');
+		push();
+		return this;
+	}
+
+	/**
+	 * Closes the current object
+	 *
+	 * @return this writer
+	 * @throws IOException if the output cannot be written
+	 */
+	public JSONWriter endObject() throws IOException {
+		pop('}');
+		return this;
+	}
+
+	/**
+	 * Opens a new array
+	 *
+	 * @return this writer
+	 * @throws IOException if the output cannot be written
+	 */
+	public JSONWriter beginArray() throws IOException {
+		beforeValue();
+		out.write('[');
+		push();
+		return this;
+	}
+
+	/**
+	 * Closes the current array
+	 *
+	 * @return this writer
+	 * @throws IOException if the output cannot be written
+	 */
+	public JSONWriter endArray() throws IOException {
+		pop(']');
+		return this;
+	}
+
+	/**
+	 * Writes the name of the next member of the current object
+	 *
+	 * @param name the name of the member
+	 * @return this writer
+	 * @throws IOException if the output cannot be written
+	 */
+	public JSONWriter name(String name) throws IOException {
+		if (afterName)
+			throw new IllegalStateException("A value is expected after the name");
+		beforeValue();
+		writeString(name);
+		out.write(pretty ? ": " : ":");
+		afterName = true;
+		return this;
+	}
+
+	/**
+	 * Writes a string value
+	 *
+	 * @param value the value, written as null if it is null
+	 * @return this writer
+	 * @throws IOException if the output cannot be written
+	 */
+	public JSONWriter value(String value) throws IOException {
+		beforeValue();
+		if (value == null)
+			out.write("null");
+		else
+			writeString(value);
+		return this;
+	}
+
+	/**
+	 * Writes a number value
+	 *
+	 * @param value the value
+	 * @return this writer
+	 * @throws IOException if the output cannot be written
+	 */
+	public JSONWriter value(long value) throws IOException {
+		beforeValue();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	/**
+	 * Flushes the buffered output
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Writes the separator needed before a value: nothing after a name, a comma
+	 * between two elements and the indentation in pretty mode
+	 */
+	private void beforeValue() throws IOException {
+
+		if (afterName) { // the value of a member goes right after its name
+			afterName = false;
+			return;
+		}
+
+		if (depth > 0) {
+			if (hasElements[depth])
+				out.write(',');
+			hasElements[depth] = true;
+			newLine();
+		}
+	}
+
+	private void push() {
+		depth++;
+		if (depth == hasElements.length)
+			hasElements = Arrays.copyOf(hasElements, depth * 2);
+		hasElements[depth] = false;
+	}
+
+	private void pop(char closing) throws IOException {
+
+		if (depth == 0 || afterName)
+			throw new IllegalStateException("Nothing to close");
+
+		boolean empty = !hasElements[depth];
+		depth--;
+
+		if (!empty)
+			newLine();
+		out.write(closing);
+
+		if (depth == 0) // the document is terminated
+			out.write('\n');
+	}
+
+	private void newLine() throws IOException {
+		if (pretty) {
+			out.write('\n');
+			for (int i = 0; i < depth; i++)
+				out.write("  ");
+		}
+	}
+
+	/**
+	 * Writes a quoted string, escaping quotes, backslashes and control characters
+	 *
+	 * @param text the string to write
+	 */
+	private void writeString(String text) throws IOException {
+
+		out.write('"');
+
+		int start = 0; // start of the characters not written yet
+		for (int i = 0; i < text.length(); i++) {
+
+			char c = text.charAt(i);
+
+			if (c != '"' && c != '\\' && c >= 0x20) // nothing to escape
+				continue;
+
+			out.write(text, start, i - start);
+			start = i + 1;
+
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\b':
+				out.write("\\b");
+				break;
+			case '\f':
+				out.write("\\f");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default: // other control characters
+				out.write("\\u00");
+				out.write(HEX[c >> 4]);
+				out.write(HEX[c & 0xF]);
+				break;
+			}
+		}
+
+		out.write(text, start, text.length() - start);
+		out.write('"');
+	}
+}
@@ -0,0 +1,174 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writer used to generate the Java source of a {@link Scorer} class. The body
+ * of the class is made of methods written one inside the other while the tree
+ * is visited: every method is kept in its own buffer and written to the output
+ * as soon as it is completed, so a method can be started while another one is
+ * still open.
+ *
+ * Comments are written as line comments, with the backslashes doubled and the
+ * new lines removed, so no label can change the code around them.
+ */
+public class JavaWriter implements Closeable {
+
+	private final Writer out;
+
+	private final Deque<Method> methods = new ArrayDeque<Method>(); // the open methods, the innermost first
+
+	/**
+	 * Creates a Java writer on the given character stream
+	 *
+	 * @param out the writer used for the output
+	 */
+	public JavaWriter(Writer out) {
+		this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+	}
+
+	/**
+	 * Writes the imports, the declaration of the class and its constructor,
+	 * taking the scorer used for the instances the class cannot classify
+	 *
+	 * @param className the simple name of the class
+	 * @throws IOException if the output cannot be written
+	 */
+	public void startClass(String className) throws IOException {
+		out.write("import inf.unibz.it.CustomJ48.Scorer;\n");
+		out.write("import weka.core.Instance;\n\n");
+		out.write("/**\n");
+		out.write(" * Scorer generated from a J48 tree. Instances with a missing value on their\n");
+		out.write(" * path, or reaching a branch not exported, are classified by the fallback.\n");
+		out.write(" */\n");
+		out.write("public class " + className + " implements Scorer {\n\n");
+		out.write("\tprivate final Scorer fallback;\n\n");
+		out.write("\tpublic " + className + "(Scorer fallback) {\n");
+		out.write("\t\tthis.fallback = fallback;\n");
+		out.write("\t}\n");
+	}
+
+	/**
+	 * Starts a new method, which becomes the one where lines are written
+	 *
+	 * @param declaration the declaration of the method
+	 * @param override    whether the method implements the interface
+	 */
+	public void startMethod(String declaration, boolean override) {
+
+		Method method = new Method();
+
+		method.code.append('\n');
+		if (override)
+			method.code.append("\t@Override\n");
+		method.code.append('\t').append(declaration).append(" {\n");
+
+		methods.push(method);
+	}
+
+	/**
+	 * Writes a statement in the current method
+	 *
+	 * @param statement the statement
+	 * @param comment   the comment following the statement, null if none
+	 */
+	public void line(String statement, String comment) {
+		Method method = methods.peek();
+		indent(method);
+		method.code.append(statement);
+		comment(method, comment);
+		method.lines++;
+	}
+
+	/**
+	 * Opens a block in the current method
+	 *
+	 * @param header  the statement preceding the block
+	 * @param comment the comment following the opening, null if none
+	 */
+	public void openBlock(String header, String comment) {
+		line(header + " {", comment);
+		methods.peek().depth++;
+	}
+
+	/**
+	 * Closes the innermost block of the current method
+	 */
+	public void closeBlock() {
+		Method method = methods.peek();
+		method.depth--;
+		indent(method);
+		method.code.append("}\n");
+	}
+
+	/**
+	 * Gets the number of lines written in the current method, used to keep
+	 * methods small enough to be compiled and inlined by the JIT
+	 *
+	 * @return the number of lines
+	 */
+	public int methodLines() {
+		return methods.peek().lines;
+	}
+
+	/**
+	 * Closes the current method and writes it
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public void endMethod() throws IOException {
+		Method method = methods.pop();
+		method.code.append("\t}\n");
+		out.append(method.code);
+	}
+
+	/**
+	 * Closes the class and flushes the output
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public void endClass() throws IOException {
+		out.write("}\n");
+		out.flush();
+	}
+
+	/**
+	 * Flushes the buffered output
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void indent(Method method) {
+		for (int i = 0; i < method.depth; i++)
+			method.code.append('\t');
+	}
+
+	private void comment(Method method, String comment) {
+		if (comment != null) // unicode escapes are processed also in comments, so backslashes are doubled
+			method.code.append(" // ").append(comment.replace("\\", "\\\\").replaceAll("[\\r\\n]+", " "));
+		method.code.append('\n');
+	}
+
+	/**
+	 * Method being written
+	 */
+	private static class Method {
+
+		private final StringBuilder code = new StringBuilder();
+		private int depth = 2; // the indentation of the next line
+		private int lines = 0;
+	}
+}
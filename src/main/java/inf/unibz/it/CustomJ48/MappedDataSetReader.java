@@ -0,0 +1,371 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Reader of a UTF-8 data set file mapped in memory, so the file is read by the
+ * operating system without being copied in a buffer of the stream first. The
+ * file is mapped in windows of at most 256 MB, so files larger than the address
+ * space of a single mapping can be read.
+ *
+ * When the empty strings are replaced, every line is pre-processed as the
+ * {@link DataSetReader} does, but directly on the mapped bytes: the boundaries
+ * of the lines and of the fields, the spaces around the commas, the pre-existing
+ * underscores and the empty strings are found without decoding the line in a
+ * String and without regular expressions. Only the pre-processed line is
+ * decoded. Otherwise the file is decoded as it is, as {@link weka.core.converters.ConverterUtils.DataSource}
+ * reads it.
+ *
+ * The same content can also be read without decoding it, as UTF-8 bytes, from
+ * {@link #getBytes()}, so that {@link DictionaryCSVLoader} decodes only the
+ * distinct values of the data set. A reader is used either for its characters
+ * or for its bytes.
+ */
+public class MappedDataSetReader extends Reader {
+
+	// Maximum number of bytes mapped at once
+	private static final int WINDOW = 1 << 28;
+
+	// Used only when an underscore is next to a character which is not ASCII
+	private static final Pattern UNDERSCORE = Pattern.compile("\\b_\\b");
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+	private final boolean replaceEmptyStrings;
+
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private MappedByteBuffer window; // the mapped part of the file
+	private long windowStart; // the position of the window in the file
+
+	private byte[] line = new byte[0]; // the current line without the spaces around the commas
+	private byte[] processed = new byte[0]; // the current pre-processed line, new line included
+	private ByteBuffer pending = ByteBuffer.allocate(0); // the bytes of the line still to be decoded
+	private boolean ended = false; // whether the decoder has been flushed at the end of the file
+	private int lineNumber = 0;
+	private ParseException parseException;
+
+	/**
+	 * Creates a reader of the given file
+	 *
+	 * @param file                the data set file, in UTF-8
+	 * @param replaceEmptyStrings are we replacing empty strings with underscores
+	 * @throws IOException if the file cannot be opened
+	 */
+	public MappedDataSetReader(File file, boolean replaceEmptyStrings) throws IOException {
+		this(file, replaceEmptyStrings, WINDOW);
+	}
+
+	/**
+	 * Creates a reader of the given file, mapping it in windows of the given size
+	 */
+	MappedDataSetReader(File file, boolean replaceEmptyStrings, int windowSize) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		this.replaceEmptyStrings = replaceEmptyStrings;
+		map(0, windowSize);
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException {
+
+		if (length == 0)
+			return 0;
+
+		CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+
+		while (out.position() == offset) {
+
+			if (ended)
+				return -1;
+
+			if (!replaceEmptyStrings) { // the bytes are decoded as they are
+
+				boolean last = windowStart + window.limit() == size;
+				decoder.decode(window, out, last);
+
+				if (!last && out.hasRemaining()) // the window is over, or a character is split by its end
+					map(windowStart + window.position(), window.position() == 0 ? 2L * window.capacity() : windowSize);
+				else if (last && !window.hasRemaining())
+					ended = decoder.flush(out).isUnderflow();
+
+			} else if (pending.hasRemaining()) { // the rest of the current line
+				decoder.decode(pending, out, false);
+			} else if (!nextLine()) { // every line ends with a new line, so no character is left in the decoder
+				ended = true;
+			}
+		}
+
+		return out.position() - offset;
+	}
+
+	/**
+	 * Gets the stream of the bytes of the data set, pre-processed as the
+	 * characters returned by the reader, but not decoded
+	 *
+	 * @return the stream of the UTF-8 bytes, closing the reader when closed
+	 */
+	public InputStream getBytes() {
+
+		return new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				return readBytes(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				return readBytes(buffer, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				MappedDataSetReader.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Reads the next bytes of the data set, the whole windows when they are not
+	 * pre-processed, otherwise the pre-processed lines
+	 */
+	private int readBytes(byte[] buffer, int offset, int length) throws IOException {
+
+		if (length == 0)
+			return 0;
+
+		while (true) {
+
+			if (!replaceEmptyStrings) { // the bytes are returned as they are
+
+				if (window.hasRemaining()) {
+					int count = Math.min(length, window.remaining());
+					window.get(buffer, offset, count);
+					return count;
+				}
+
+				if (windowStart + window.limit() == size)
+					return -1;
+
+				map(windowStart + window.limit(), windowSize);
+
+			} else if (pending.hasRemaining()) { // the rest of the current line
+				int count = Math.min(length, pending.remaining());
+				pending.get(buffer, offset, count);
+				return count;
+			} else if (!nextLine()) {
+				return -1;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	/**
+	 * Returns the exception raised if an underscore was already found in the data
+	 * set while replacing the empty strings
+	 *
+	 * @return the exception or null if everything went smooth
+	 */
+	public ParseException getParseException() {
+		return parseException;
+	}
+
+	/**
+	 * Maps the file from the given position
+	 */
+	private void map(long start, long length) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, size - start));
+	}
+
+	/**
+	 * Finds and pre-processes the next line of the file, mapping the next window
+	 * if the line is not complete in the current one
+	 *
+	 * @return false if the end of the file has been reached
+	 * @throws IOException if the file cannot be read or a single underscore is
+	 *                     found
+	 */
+	private boolean nextLine() throws IOException {
+
+		int start = window.position();
+
+		if (windowStart + start == size) // end of the file
+			return false;
+
+		// the end of the line, excluded, and the start of the next one
+		int end = start;
+		int limit = window.limit();
+
+		while (end < limit && window.get(end) != '\n' && window.get(end) != '\r')
+			end++;
+
+		int next = end + 1;
+
+		if (end < limit && window.get(end) == '\r') { // \r\n is a single line end, as for BufferedReader
+			if (end + 1 == limit && windowStart + limit < size)
+				end = limit; // the next byte is in the next window
+			else if (end + 1 < limit && window.get(end + 1) == '\n')
+				next = end + 2;
+		}
+
+		if (end == limit && windowStart + limit < size) { // the line continues in the next window
+
+			long length = limit - start == window.capacity() ? (long) window.capacity() * 2 : windowSize;
+
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Line too long at line " + (lineNumber + 1));
+
+			map(windowStart + start, length);
+
+			return nextLine();
+		}
+
+		lineNumber++;
+		window.position(Math.min(next, limit));
+
+		process(start, end);
+
+		return true;
+	}
+
+	/**
+	 * Pre-processes a line as {@link DataSetReader} does: the spaces around the
+	 * commas and at the ends of the line are removed, a single underscore raises
+	 * an exception and two consecutive commas get an underscore between them
+	 */
+	private void process(int start, int end) throws IOException {
+
+		if (line.length < end - start)
+			line = new byte[end - start];
+		if (processed.length < (end - start) * 3 / 2 + 2) // at most an underscore every two bytes
+			processed = new byte[(end - start) * 3 / 2 + 2];
+
+		// remove the whitespaces, as \s, next to a comma
+		int length = 0;
+
+		for (int i = start; i < end;) {
+
+			byte b = window.get(i);
+
+			if (!isSpace(b)) {
+				line[length++] = b;
+				i++;
+				continue;
+			}
+
+			int run = i;
+			while (run < end && isSpace(window.get(run)))
+				run++;
+
+			boolean nextToComma = (i > start && window.get(i - 1) == ',') || (run < end && window.get(run) == ',');
+
+			if (!nextToComma)
+				for (int j = i; j < run; j++)
+					line[length++] = window.get(j);
+
+			i = run;
+		}
+
+		// trim the line, as String.trim does
+		int first = 0;
+		while (first < length && (line[first] & 0xff) <= ' ')
+			first++;
+		while (length > first && (line[length - 1] & 0xff) <= ' ')
+			length--;
+
+		checkUnderscores(first, length);
+
+		// replace the empty strings, without overlapping as String.replaceAll does
+		int position = 0;
+
+		for (int i = first; i < length; i++) {
+			processed[position++] = line[i];
+			if (line[i] == ',' && i + 1 < length && line[i + 1] == ',') {
+				processed[position++] = '_';
+				processed[position++] = ',';
+				i++;
+			}
+		}
+
+		processed[position++] = '\n';
+		pending = ByteBuffer.wrap(processed, 0, position);
+	}
+
+	/**
+	 * Raises an exception if the line contains an underscore which is a word by
+	 * itself, as \b_\b. The neighbours of an underscore are checked on the bytes
+	 * when they are ASCII, otherwise the line is decoded and checked with the
+	 * regular expression, to have the same Unicode word characters of Java.
+	 */
+	private void checkUnderscores(int start, int end) throws IOException {
+
+		for (int i = start; i < end; i++) {
+
+			if (line[i] != '_')
+				continue;
+
+			boolean asciiBefore = i == start || line[i - 1] >= 0;
+			boolean asciiAfter = i + 1 == end || line[i + 1] >= 0;
+
+			if (!asciiBefore || !asciiAfter) {
+				String decoded = new String(Arrays.copyOfRange(line, start, end), StandardCharsets.UTF_8);
+				if (UNDERSCORE.matcher(decoded).find())
+					throwUnderscore();
+				return;
+			}
+
+			boolean wordBefore = i > start && isWord(line[i - 1]);
+			boolean wordAfter = i + 1 < end && isWord(line[i + 1]);
+
+			if (!wordBefore && !wordAfter)
+				throwUnderscore();
+		}
+	}
+
+	private void throwUnderscore() throws IOException {
+		parseException = new ParseException("Underscore character already found during replacement at line " + lineNumber);
+		throw new IOException(parseException.getMessage(), parseException);
+	}
+
+	/**
+	 * Whether an ASCII character is a whitespace for the regular expressions
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+
+	/**
+	 * Whether an ASCII character is a word character for the regular expressions
+	 */
+	private static boolean isWord(byte b) {
+		return b == '_' || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+	}
+}
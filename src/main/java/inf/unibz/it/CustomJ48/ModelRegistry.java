@@ -0,0 +1,103 @@
+package inf.unibz.it.CustomJ48;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the models kept in memory by the server, identified by their
+ * name. The registry holds at most a fixed number of models: when a new one is
+ * added to a full registry, the least recently used one is removed, so the
+ * memory used by the server stays bounded.
+ *
+ * All the methods are synchronized, so the registry can be shared by the
+ * threads serving the requests. The registry does not guard the models, which
+ * can be modified once registered: the server applies the appends to a model
+ * one at a time, and its tree is changed only under the tree's own lock, by
+ * {@link CustomJ48Tree#update(weka.core.Instances)} or by building it again.
+ * An export or a prediction running during an append sees the tree either
+ * before or after it, never in between: an export reads the compact form of
+ * the tree once, which is replaced and never changed by an update, and a
+ * prediction reads the predictor and the header together under the tree's
+ * lock.
+ *
+ * @param <T> the type of the models
+ */
+public class ModelRegistry<T> {
+
+	private final int capacity;
+
+	private final LinkedHashMap<String, T> models; // in access order, the least recently used first
+
+	/**
+	 * Creates an empty registry
+	 *
+	 * @param capacity the maximum number of models kept
+	 */
+	public ModelRegistry(int capacity) {
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity of the registry must be positive");
+
+		this.capacity = capacity;
+		this.models = new LinkedHashMap<String, T>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+				return size() > ModelRegistry.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets a model, marking it as the most recently used
+	 *
+	 * @param name the name of the model
+	 * @return the model, null if no model has the given name
+	 */
+	public synchronized T get(String name) {
+		return models.get(name);
+	}
+
+	/**
+	 * Adds a model, replacing the one with the same name and removing the least
+	 * recently used one if the registry is full
+	 *
+	 * @param name  the name of the model
+	 * @param model the model
+	 */
+	public synchronized void put(String name, T model) {
+		models.put(name, model);
+	}
+
+	/**
+	 * Removes a model
+	 *
+	 * @param name the name of the model
+	 * @return the removed model, null if no model has the given name
+	 */
+	public synchronized T remove(String name) {
+		return models.remove(name);
+	}
+
+	/**
+	 * Gets the names of the registered models, the least recently used first
+	 *
+	 * @return the names of the models
+	 */
+	public synchronized List<String> names() {
+		return new ArrayList<String>(models.keySet());
+	}
+
+	/**
+	 * Gets the maximum number of models kept
+	 *
+	 * @return the capacity of the registry
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
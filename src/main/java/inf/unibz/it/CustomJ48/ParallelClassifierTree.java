@@ -0,0 +1,125 @@
+package inf.unibz.it.CustomJ48;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.classifiers.trees.j48.C45PruneableClassifierTree;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.ModelSelection;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Tree of J48 building the subtrees of its sons in parallel, on the fork-join
+ * pool the tree is built in. The sons are built from their own copies of the
+ * data, so they are independent and the tree is identical to the one built
+ * sequentially. Pruning, collapsing and cleaning up are done after the building,
+ * as in {@link C45PruneableClassifierTree}.
+ */
+public class ParallelClassifierTree extends C45PruneableClassifierTree {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a tree with the options of {@link C45PruneableClassifierTree}
+	 *
+	 * @param toSelectLocModel the model selection, a
+	 *                         {@link ParallelModelSelection} to evaluate also the
+	 *                         splits in parallel
+	 * @param pruneTree        whether the tree is pruned
+	 * @param cf               the confidence factor of the pruning
+	 * @param raiseTree        whether subtree raising is done
+	 * @param cleanup          whether the training data is removed from the nodes
+	 * @param collapseTree     whether the tree is collapsed
+	 * @throws Exception if the tree cannot be created
+	 */
+	public ParallelClassifierTree(ModelSelection toSelectLocModel, boolean pruneTree, float cf, boolean raiseTree,
+			boolean cleanup, boolean collapseTree) throws Exception {
+		super(toSelectLocModel, pruneTree, cf, raiseTree, cleanup, collapseTree);
+	}
+
+	/**
+	 * Builds the tree as {@link ClassifierTree#buildTree(Instances, boolean)}
+	 * does, forking the sons reached by enough instances
+	 *
+	 * @param data     the data reaching the node
+	 * @param keepData whether the data is kept in the node
+	 * @throws Exception if the tree cannot be built
+	 */
+	@Override
+	public void buildTree(Instances data, boolean keepData) throws Exception {
+
+		if (keepData)
+			m_train = data;
+
+		m_test = null;
+		m_isLeaf = false;
+		m_isEmpty = false;
+		m_sons = null;
+		m_localModel = m_toSelectModel.selectModel(data);
+
+		if (m_localModel.numSubsets() > 1) {
+
+			Instances[] localInstances = m_localModel.split(data);
+			m_sons = new ClassifierTree[m_localModel.numSubsets()];
+
+			// the sons reached by enough instances are forked, null for the others
+			List<ForkJoinTask<ClassifierTree>> tasks = new ArrayList<ForkJoinTask<ClassifierTree>>();
+			boolean parallel = ForkJoinTask.inForkJoinPool();
+
+			for (int i = 0; i < m_sons.length; i++) {
+				if (parallel && localInstances[i].numInstances() >= ParallelModelSelection.MIN_PARALLEL_INSTANCES)
+					tasks.add(newTree(localInstances[i]).fork());
+				else
+					tasks.add(null);
+			}
+
+			// the small sons are built while the large ones are built by the other threads
+			for (int i = 0; i < m_sons.length; i++) {
+				if (tasks.get(i) == null)
+					m_sons[i] = getNewTree(localInstances[i]);
+				localInstances[i] = null;
+			}
+
+			for (int i = 0; i < m_sons.length; i++)
+				if (tasks.get(i) != null)
+					m_sons[i] = tasks.get(i).join();
+
+		} else {
+			m_isLeaf = true;
+			if (Utils.eq(data.sumOfWeights(), 0))
+				m_isEmpty = true;
+		}
+	}
+
+	/**
+	 * Creates the tree of a son, with the same options
+	 *
+	 * @param data the data reaching the son
+	 * @return the built tree of the son
+	 * @throws Exception if the tree cannot be built
+	 */
+	@Override
+	protected ClassifierTree getNewTree(Instances data) throws Exception {
+
+		ParallelClassifierTree newTree = new ParallelClassifierTree(m_toSelectModel, m_pruneTheTree, m_CF,
+				m_subtreeRaising, m_cleanup, m_collapseTheTree);
+		newTree.buildTree(data, m_subtreeRaising || !m_cleanup);
+
+		return newTree;
+	}
+
+	/**
+	 * Builds the tree of a son on the pool
+	 */
+	private ForkJoinTask<ClassifierTree> newTree(final Instances data) {
+		return ForkJoinTask.adapt(new Callable<ClassifierTree>() {
+			@Override
+			public ClassifierTree call() throws Exception {
+				return getNewTree(data);
+			}
+		});
+	}
+}
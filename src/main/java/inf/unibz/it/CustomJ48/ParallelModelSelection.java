@@ -0,0 +1,280 @@
+package inf.unibz.it.CustomJ48;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.classifiers.trees.j48.BinC45Split;
+import weka.classifiers.trees.j48.C45ModelSelection;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.Distribution;
+import weka.classifiers.trees.j48.ModelSelection;
+import weka.classifiers.trees.j48.NoSplit;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Model selection of J48 evaluating the candidate splits of a node in parallel,
+ * on the fork-join pool the tree is built in. The split is chosen as
+ * {@link C45ModelSelection} does, or as BinC45ModelSelection with binary
+ * splits, so the tree built is identical to the sequential one.
+ *
+ * The candidates are not independent in J48: every numeric candidate sorts the
+ * data of the node in place, and the following candidates see the data in that
+ * order. Since the sums of the weights depend on their order when the weights
+ * are fractional, every candidate is evaluated on a view of the data in the
+ * same order it would have in the sequential evaluation: the calling thread
+ * sorts the data as the numeric candidates would, taking a view before every
+ * sort, while the candidates are evaluated by the other threads. In the end the
+ * data is left in the order given by the sequential evaluation, which is the
+ * order of the instances passed to the sons.
+ */
+public class ParallelModelSelection extends ModelSelection {
+
+	private static final long serialVersionUID = 1L;
+
+	// Minimum number of instances of a node to evaluate its candidates in parallel
+	static final int MIN_PARALLEL_INSTANCES = 256;
+
+	private final int minNoObj;
+	private final boolean binarySplits;
+	private final boolean useMDLcorrection;
+	private final boolean doNotMakeSplitPointActualValue;
+
+	// All the training data, used to choose the actual split points
+	private Instances allData;
+
+	/**
+	 * Creates the model selection with the options of J48
+	 *
+	 * @param minNoObj                       the minimum number of instances in a
+	 *                                       son
+	 * @param allData                        all the training data
+	 * @param binarySplits                   whether the nominal attributes are
+	 *                                       split in two
+	 * @param useMDLcorrection               whether the MDL correction is used
+	 *                                       for the numeric splits
+	 * @param doNotMakeSplitPointActualValue whether the split points are left
+	 *                                       between two values
+	 */
+	public ParallelModelSelection(int minNoObj, Instances allData, boolean binarySplits, boolean useMDLcorrection,
+			boolean doNotMakeSplitPointActualValue) {
+		this.minNoObj = minNoObj;
+		this.allData = allData;
+		this.binarySplits = binarySplits;
+		this.useMDLcorrection = useMDLcorrection;
+		this.doNotMakeSplitPointActualValue = doNotMakeSplitPointActualValue;
+	}
+
+	/**
+	 * Releases the training data once the tree has been built
+	 */
+	public void cleanup() {
+		allData = null;
+	}
+
+	/**
+	 * Chooses the split of a node
+	 *
+	 * @param data the data reaching the node, sorted as in the sequential
+	 *             evaluation at the end
+	 * @return the chosen split, a {@link NoSplit} for a leaf
+	 * @throws Exception if a candidate cannot be evaluated
+	 */
+	@Override
+	public ClassifierSplitModel selectModel(Instances data) throws Exception {
+
+		Distribution checkDistribution = new Distribution(data);
+		NoSplit noSplitModel = new NoSplit(checkDistribution);
+
+		// too few instances or a single class, it is a leaf
+		if (Utils.sm(checkDistribution.total(), 2 * minNoObj)
+				|| Utils.eq(checkDistribution.total(), checkDistribution.perClass(checkDistribution.maxClass())))
+			return noSplitModel;
+
+		// whether all the nominal attributes have many values, so they all count for the average gain
+		boolean multiVal = true;
+
+		if (allData != null) {
+			Enumeration<Attribute> attributes = data.enumerateAttributes();
+			while (attributes.hasMoreElements()) {
+				Attribute attribute = attributes.nextElement();
+				if (attribute.isNumeric() || Utils.sm(attribute.numValues(), 0.3 * allData.numInstances())) {
+					multiVal = false;
+					break;
+				}
+			}
+		}
+
+		ClassifierSplitModel[] models = evaluate(data);
+
+		// the average gain of the valid candidates, summed in the same order of J48
+		double averageInfoGain = 0;
+		int validModels = 0;
+
+		for (int i = 0; i < models.length; i++) {
+
+			if (models[i] == null || !models[i].checkModel())
+				continue;
+
+			Attribute attribute = data.attribute(i);
+
+			if (allData == null || attribute.isNumeric() || multiVal
+					|| Utils.sm(attribute.numValues(), 0.3 * allData.numInstances())) {
+				averageInfoGain += infoGain(models[i]);
+				validModels++;
+			}
+		}
+
+		if (validModels == 0)
+			return noSplitModel;
+
+		averageInfoGain /= validModels;
+
+		// the best gain ratio among the candidates with at least the average gain
+		ClassifierSplitModel bestModel = null;
+		double minResult = 0;
+
+		for (int i = 0; i < models.length; i++) {
+			if (models[i] != null && models[i].checkModel() && infoGain(models[i]) >= averageInfoGain - 1E-3
+					&& Utils.gr(gainRatio(models[i]), minResult)) {
+				bestModel = models[i];
+				minResult = gainRatio(models[i]);
+			}
+		}
+
+		if (Utils.eq(minResult, 0))
+			return noSplitModel;
+
+		// the instances with a missing value are added to the distribution of the chosen split
+		bestModel.distribution().addInstWithUnknown(data, attIndex(bestModel));
+
+		if (allData != null && !doNotMakeSplitPointActualValue)
+			setSplitPoint(bestModel, allData);
+
+		return bestModel;
+	}
+
+	/**
+	 * Evaluates a candidate split for every attribute but the class, in parallel
+	 * if the node is large enough and the tree is built in a fork-join pool
+	 */
+	private ClassifierSplitModel[] evaluate(Instances data) throws Exception {
+
+		ClassifierSplitModel[] models = new ClassifierSplitModel[data.numAttributes()];
+		double sumOfWeights = data.sumOfWeights();
+		int lastNumeric = -1;
+
+		for (int i = 0; i < models.length; i++) {
+			if (i == data.classIndex())
+				continue;
+			if (binarySplits)
+				models[i] = new BinC45Split(i, minNoObj, sumOfWeights, useMDLcorrection);
+			else
+				models[i] = new C45Split(i, minNoObj, sumOfWeights, useMDLcorrection);
+			if (data.attribute(i).isNumeric())
+				lastNumeric = i;
+		}
+
+		if (data.numInstances() < MIN_PARALLEL_INSTANCES || !ForkJoinTask.inForkJoinPool()) {
+			for (ClassifierSplitModel model : models)
+				if (model != null)
+					model.buildClassifier(data);
+			return models;
+		}
+
+		List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+		Instances view = null; // the order seen by the nominal candidates up to the next numeric one
+
+		for (int i = 0; i < models.length; i++) {
+
+			if (models[i] == null)
+				continue;
+
+			if (data.attribute(i).isNumeric()) {
+
+				// the candidate sorts its own view, while the data is sorted for the next candidates
+				tasks.add(evaluate(models[i], new InstancesView(data)));
+				data.sort(data.attribute(i));
+				view = null;
+
+			} else if (i > lastNumeric) { // the data is not sorted anymore
+				tasks.add(evaluate(models[i], data));
+			} else {
+				if (view == null)
+					view = new InstancesView(data);
+				tasks.add(evaluate(models[i], view));
+			}
+		}
+
+		for (ForkJoinTask<Void> task : tasks)
+			task.join();
+
+		return models;
+	}
+
+	/**
+	 * Starts the evaluation of a candidate on the pool
+	 */
+	private static ForkJoinTask<Void> evaluate(final ClassifierSplitModel model, final Instances data) {
+		return ForkJoinTask.adapt(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				model.buildClassifier(data);
+				return null;
+			}
+		}).fork();
+	}
+
+	/**
+	 * Gets the revision required by Weka
+	 *
+	 * @return the revision
+	 */
+	@Override
+	public String getRevision() {
+		return "1";
+	}
+
+	/*
+	 * The two kinds of split have the same methods, but not in a common class
+	 */
+
+	private static double infoGain(ClassifierSplitModel model) {
+		return model instanceof BinC45Split ? ((BinC45Split) model).infoGain() : ((C45Split) model).infoGain();
+	}
+
+	private static double gainRatio(ClassifierSplitModel model) {
+		return model instanceof BinC45Split ? ((BinC45Split) model).gainRatio() : ((C45Split) model).gainRatio();
+	}
+
+	private static int attIndex(ClassifierSplitModel model) {
+		return model instanceof BinC45Split ? ((BinC45Split) model).attIndex() : ((C45Split) model).attIndex();
+	}
+
+	private static void setSplitPoint(ClassifierSplitModel model, Instances allData) {
+		if (model instanceof BinC45Split)
+			((BinC45Split) model).setSplitPoint(allData);
+		else
+			((C45Split) model).setSplitPoint(allData);
+	}
+
+	/**
+	 * Copy of a data set sharing its instances, so it can be sorted without
+	 * changing the order of the original one and without copying the instances
+	 */
+	private static class InstancesView extends Instances {
+
+		private static final long serialVersionUID = 1L;
+
+		private InstancesView(Instances data) {
+			super(data, data.numInstances());
+			for (int i = 0; i < data.numInstances(); i++)
+				m_Instances.add(data.instance(i));
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package inf.unibz.it.CustomJ48;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of a phase measured by {@link RunStats}, recorded
+ * together with the events of the JVM when the application is started with
+ * -XX:StartFlightRecording. The counts not measured by a phase are -1. The
+ * event is used only through {@link RunStats}, which does not load it on the
+ * JVMs without the Flight Recorder.
+ */
+@Name("inf.unibz.it.CustomJ48.Phase")
+@Label("CustomJ48 Phase")
+@Category("CustomJ48")
+@Description("A phase of the reading, building, export or classification of CustomJ48")
+@StackTrace(false)
+public class PhaseEvent extends Event {
+
+	@Label("Phase")
+	private String phase;
+
+	@Label("Allocated")
+	@Description("Bytes allocated by the thread running the phase")
+	@DataAmount
+	private long allocatedBytes;
+
+	@Label("Rows")
+	private long rows;
+
+	@Label("Attributes")
+	private long attributes;
+
+	@Label("Nodes")
+	private long nodes;
+
+	@Label("Leaves")
+	private long leaves;
+
+	@Label("Output")
+	@DataAmount
+	private long outputBytes;
+
+	/**
+	 * Starts the event of a phase
+	 *
+	 * @return the started event
+	 */
+	static Object start() {
+
+		PhaseEvent event = new PhaseEvent();
+		event.begin();
+
+		return event;
+	}
+
+	/**
+	 * Commits the event of a completed phase, if it is recorded
+	 *
+	 * @param started the event returned by {@link #start()}
+	 * @param phase   the completed phase
+	 */
+	static void commit(Object started, RunStats.Phase phase) {
+
+		PhaseEvent event = (PhaseEvent) started;
+		event.end();
+
+		if (!event.shouldCommit())
+			return;
+
+		event.phase = phase.getName();
+		event.allocatedBytes = phase.getAllocatedBytes();
+		event.rows = phase.getRows();
+		event.attributes = phase.getAttributes();
+		event.nodes = phase.getNodes();
+		event.leaves = phase.getLeaves();
+		event.outputBytes = phase.getOutputBytes();
+		event.commit();
+	}
+}
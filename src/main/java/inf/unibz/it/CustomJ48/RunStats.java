@@ -0,0 +1,332 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import weka.core.Instances;
+
+/**
+ * Measures the phases of a run (reading, filtering, building, exports and
+ * classification) with their wall time, the bytes allocated by the thread
+ * running them and what they have processed: rows and attributes of the data,
+ * nodes and leaves of the tree and bytes written.
+ *
+ * Every completed phase is emitted as a {@link PhaseEvent} to the Flight
+ * Recorder, which discards it unless a recording is running. Once
+ * {@link #collect()} is called, the completed phases are also kept and can be
+ * printed as a JSON summary. The allocations of other threads, as the ones
+ * building or exporting with more than one thread, are not counted.
+ */
+public class RunStats {
+
+	// Whether the JVM has the Flight Recorder, so the events can be loaded
+	private static final boolean FLIGHT_RECORDER = isAvailable("jdk.jfr.Event");
+
+	private static final com.sun.management.ThreadMXBean THREADS = getThreads();
+
+	// The completed phases, null if they are not collected
+	private static volatile List<Phase> collected;
+	private static long collectedSince;
+
+	/**
+	 * Keeps all the phases completed from now on, to print them at the end
+	 */
+	public static void collect() {
+		collectedSince = System.nanoTime();
+		collected = Collections.synchronizedList(new ArrayList<Phase>());
+	}
+
+	/**
+	 * Starts measuring a phase in the current thread
+	 *
+	 * @param name the name of the phase
+	 * @return the started phase, to end in the same thread
+	 */
+	public static Phase start(String name) {
+		return new Phase(name);
+	}
+
+	/**
+	 * Prints the collected phases as a single line of JSON, with the total wall
+	 * time since {@link #collect()}. The values not measured by a phase are
+	 * omitted.
+	 *
+	 * @param out the stream of the summary
+	 * @throws IOException if the summary cannot be written
+	 */
+	public static void printSummary(PrintStream out) throws IOException {
+
+		List<Phase> phases = collected;
+
+		if (phases == null)
+			return;
+
+		JSONWriter json = new JSONWriter(out, false);
+
+		json.beginObject();
+		json.name("totalMicros").value((System.nanoTime() - collectedSince) / 1000);
+		json.name("phases").beginArray();
+
+		synchronized (phases) {
+			for (Phase phase : phases) {
+
+				json.beginObject();
+				json.name("phase").value(phase.name);
+				json.name("thread").value(phase.thread);
+				json.name("wallMicros").value(phase.wallNanos / 1000);
+
+				writeMeasure(json, "allocatedBytes", phase.allocatedBytes);
+				writeMeasure(json, "rows", phase.rows);
+				writeMeasure(json, "attributes", phase.attributes);
+				writeMeasure(json, "nodes", phase.nodes);
+				writeMeasure(json, "leaves", phase.leaves);
+				writeMeasure(json, "outputBytes", phase.outputBytes);
+
+				json.endObject();
+			}
+		}
+
+		json.endArray();
+		json.endObject();
+		json.flush(); // the stream is not closed
+	}
+
+	private static void writeMeasure(JSONWriter json, String name, long value) throws IOException {
+		if (value >= 0)
+			json.name(name).value(value);
+	}
+
+	private static boolean isAvailable(String className) {
+		try {
+			Class.forName(className, false, RunStats.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the bean measuring the allocations of the threads, null if the JVM
+	 * does not measure them
+	 */
+	private static com.sun.management.ThreadMXBean getThreads() {
+		try {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+				if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled())
+					return allocations;
+			}
+		} catch (LinkageError e) { // not a HotSpot JVM
+		}
+
+		return null;
+	}
+
+	private static long allocatedBytes(long thread) {
+		return THREADS != null ? THREADS.getThreadAllocatedBytes(thread) : -1;
+	}
+
+	/**
+	 * A phase being measured. The counts are set while the phase is running, and
+	 * are -1 if they have not been measured.
+	 */
+	public static class Phase {
+
+		private final String name;
+		private final long threadId;
+		private final String thread;
+		private final long startNanos;
+		private final long startAllocated;
+		private final Object event; // the started Flight Recorder event, null without it
+
+		private long wallNanos = -1;
+		private long allocatedBytes = -1;
+		private long rows = -1;
+		private long attributes = -1;
+		private long nodes = -1;
+		private long leaves = -1;
+		private long outputBytes = -1;
+
+		private CompactNode root; // the tree whose nodes and leaves have not been counted yet
+
+		private Phase(String name) {
+			this.name = name;
+			this.threadId = Thread.currentThread().getId();
+			this.thread = Thread.currentThread().getName();
+			this.event = FLIGHT_RECORDER ? PhaseEvent.start() : null;
+			this.startAllocated = allocatedBytes(threadId);
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Sets the rows and the attributes of the data processed by the phase
+		 *
+		 * @param data the data
+		 * @return this phase
+		 */
+		public Phase data(Instances data) {
+			rows = data.numInstances();
+			attributes = data.numAttributes();
+			return this;
+		}
+
+		/**
+		 * Sets the rows processed by the phase
+		 *
+		 * @param rows the number of rows
+		 * @return this phase
+		 */
+		public Phase rows(long rows) {
+			this.rows = rows;
+			return this;
+		}
+
+		/**
+		 * Sets the tree processed by the phase, whose nodes and leaves are counted
+		 * when the phase ends, only if it is collected or recorded
+		 *
+		 * @param tree the built or restored tree
+		 * @return this phase
+		 */
+		public Phase tree(CustomJ48Tree tree) {
+			root = tree.getCompactRoot();
+			return this;
+		}
+
+		/**
+		 * Sets the bytes written by the phase
+		 *
+		 * @param bytes the number of bytes
+		 * @return this phase
+		 */
+		public Phase output(long bytes) {
+			outputBytes = bytes;
+			return this;
+		}
+
+		/**
+		 * Ends the phase, emitting its event and keeping it if the phases are
+		 * collected
+		 */
+		public void end() {
+
+			wallNanos = System.nanoTime() - startNanos;
+
+			if (startAllocated >= 0 && Thread.currentThread().getId() == threadId)
+				allocatedBytes = allocatedBytes(threadId) - startAllocated;
+
+			List<Phase> phases = collected;
+
+			if (phases != null)
+				countTree();
+
+			if (event != null) // the tree is counted only if the event is recorded
+				PhaseEvent.commit(event, this);
+
+			if (phases != null)
+				phases.add(this);
+		}
+
+		/**
+		 * Counts the nodes and the leaves of the tree set for the phase, if not
+		 * counted yet
+		 */
+		private void countTree() {
+
+			if (root == null)
+				return;
+
+			nodes = 0;
+			leaves = 0;
+
+			Deque<CompactNode> stack = new ArrayDeque<CompactNode>();
+			stack.push(root);
+
+			while (!stack.isEmpty()) {
+
+				CompactNode node = stack.pop();
+				nodes++;
+
+				if (node.isLeaf())
+					leaves++;
+				else
+					for (CompactNode son : node.getSons())
+						stack.push(son);
+			}
+
+			root = null;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getWallNanos() {
+			return wallNanos;
+		}
+
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getAttributes() {
+			return attributes;
+		}
+
+		public long getNodes() {
+			countTree();
+			return nodes;
+		}
+
+		public long getLeaves() {
+			countTree();
+			return leaves;
+		}
+
+		public long getOutputBytes() {
+			return outputBytes;
+		}
+	}
+
+	/**
+	 * Stream counting the bytes written to the underlying one
+	 */
+	public static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len); // not byte by byte as FilterOutputStream does
+			count += len;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package inf.unibz.it.CustomJ48;
+
+import weka.core.Instance;
+
+/**
+ * Compiled form of a built tree used to classify instances on the hot path,
+ * implemented by the {@link FlatTreePredictor} and by the classes generated
+ * from the tree in Java source.
+ */
+public interface Scorer {
+
+	/**
+	 * Classifies the given instance
+	 *
+	 * @param instance the instance to classify
+	 * @return the index of the predicted class
+	 */
+	double classifyInstance(Instance instance);
+}
@@ -0,0 +1,104 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiler of the generated scorers. The source is compiled in memory with the
+ * system Java compiler and the class is loaded by its own class loader, so no
+ * file is written and the class can be collected together with the scorer.
+ */
+public class ScorerCompiler {
+
+	private ScorerCompiler() {
+	}
+
+	/**
+	 * Compiles the source of a scorer class and creates a new instance of it
+	 *
+	 * @param className the simple name of the class, in the default package
+	 * @param source    the source of the class
+	 * @param fallback  the scorer used for the instances the class cannot classify
+	 * @return the compiled scorer
+	 * @throws Exception if no compiler is available or the source cannot be
+	 *                   compiled
+	 */
+	public static Scorer compile(String className, String source, Scorer fallback) throws Exception {
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+		if (compiler == null)
+			throw new IllegalStateException("No Java compiler available, a JDK is needed to compile the scorer");
+
+		final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+
+		// the class files are kept in memory
+		JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+				compiler.getStandardFileManager(diagnostics, null, null)) {
+
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind,
+					FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						classes.put(name, bytes);
+						return bytes;
+					}
+				};
+			}
+		};
+
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		boolean compiled = compiler.getTask(null, fileManager, diagnostics,
+				Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none"), null,
+				Arrays.asList(file)).call();
+
+		fileManager.close();
+
+		if (!compiled) { // report the first error
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+				if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+					throw new Exception("The scorer cannot be compiled: " + diagnostic.getMessage(null) + " (line "
+							+ diagnostic.getLineNumber() + ")");
+			throw new Exception("The scorer cannot be compiled");
+		}
+
+		// load the classes from memory, delegating everything else to the loader of the scorers
+		ClassLoader loader = new ClassLoader(Scorer.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				ByteArrayOutputStream bytes = classes.get(name);
+				if (bytes == null)
+					throw new ClassNotFoundException(name);
+				byte[] code = bytes.toByteArray();
+				return defineClass(name, code, 0, code.length);
+			}
+		};
+
+		return (Scorer) loader.loadClass(className).getConstructor(Scorer.class).newInstance(fallback);
+	}
+}
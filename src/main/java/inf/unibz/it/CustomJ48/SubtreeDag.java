@@ -0,0 +1,187 @@
+package inf.unibz.it.CustomJ48;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Identical subtrees of a built tree, found by hash-consing: the subtrees are
+ * numbered bottom-up, and two subtrees get the same number when their roots
+ * have the same label and the same branches, with the same labels, towards
+ * sons with the same numbers. Every subtree is then hashed and compared in
+ * time proportional to the number of its sons, not of its nodes.
+ *
+ * The tree exported as a directed acyclic graph has a node for every distinct
+ * subtree, with an edge for every branch of it, so a subtree repeated under
+ * many branches is written once and referenced by all of them.
+ */
+public class SubtreeDag {
+
+	private final Map<CompactNode, Integer> subtrees; // the number of the subtree rooted in every visited node
+	private final int[] references; // the number of edges reaching every distinct subtree in the graph
+
+	private SubtreeDag(Map<CompactNode, Integer> subtrees, int[] references) {
+		this.subtrees = subtrees;
+		this.references = references;
+	}
+
+	/**
+	 * Finds the identical subtrees of the tree rooted in the given node
+	 *
+	 * @param root    the root of the tree
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param counts  whether the subtrees must also have the same number of
+	 *                instances of every class at every node to be identical
+	 * @return the identical subtrees
+	 * @throws Exception never, the numbering visitor does not fail
+	 */
+	public static SubtreeDag build(CompactNode root, final boolean pruning, final boolean counts) throws Exception {
+
+		final Map<CompactNode, Integer> subtrees = new IdentityHashMap<CompactNode, Integer>();
+		final Map<Subtree, Integer> numbers = new HashMap<Subtree, Integer>();
+		final List<CompactNode> distinct = new ArrayList<CompactNode>(); // the first root of every distinct subtree
+
+		// the sons are left before their parent, so their numbers are known when it is numbered
+		TreeTraversal.traverse(root, pruning, new TreeVisitor() {
+
+			@Override
+			public void enterNode(CompactNode node, CompactNode parent, int index, int id, int parentId) {
+			}
+
+			@Override
+			public void leaveNode(CompactNode node, int id) {
+
+				Subtree subtree = new Subtree(node, visitedSons(node, pruning, subtrees), counts);
+				Integer number = numbers.get(subtree);
+
+				if (number == null) { // first time the subtree is found
+					number = distinct.size();
+					numbers.put(subtree, number);
+					distinct.add(node);
+				}
+
+				subtrees.put(node, number);
+			}
+
+			@Override
+			public void referNode(CompactNode node, CompactNode parent, int index, int id, int parentId) {
+				// never called, the graph is being built from the tree
+			}
+		});
+
+		// every distinct subtree is written once, with an edge towards each of its visited sons
+		int[] references = new int[distinct.size()];
+
+		for (CompactNode node : distinct) {
+			CompactNode[] sons = node.getSons();
+			for (int i = 0; i < sons.length; i++)
+				if (!pruning || TreeTraversal.isReached(sons[i]))
+					references[subtrees.get(sons[i])]++;
+		}
+
+		return new SubtreeDag(subtrees, references);
+	}
+
+	/**
+	 * Gets the number of the subtree rooted in a node, equal for the identical
+	 * subtrees
+	 *
+	 * @param node a visited node
+	 * @return the number of its subtree, starting from 0
+	 */
+	public int getSubtree(CompactNode node) {
+		return subtrees.get(node);
+	}
+
+	/**
+	 * Checks if the subtree rooted in a node is reached by more than one edge in
+	 * the graph, so it is referenced after being written
+	 *
+	 * @param node a visited node
+	 * @return true if the subtree is shared
+	 */
+	public boolean isShared(CompactNode node) {
+		return references[subtrees.get(node)] > 1;
+	}
+
+	/**
+	 * Gets the number of distinct subtrees, which is the number of nodes of the
+	 * graph
+	 *
+	 * @return the number of distinct subtrees
+	 */
+	public int size() {
+		return references.length;
+	}
+
+	/**
+	 * Gets the numbers of the visited sons of a node, -1 for the pruned ones
+	 */
+	private static int[] visitedSons(CompactNode node, boolean pruning, Map<CompactNode, Integer> subtrees) {
+
+		CompactNode[] sons = node.getSons();
+		int[] numbers = new int[sons.length];
+
+		for (int i = 0; i < sons.length; i++)
+			numbers[i] = pruning && !TreeTraversal.isReached(sons[i]) ? -1 : subtrees.get(sons[i]);
+
+		return numbers;
+	}
+
+	/**
+	 * Key of a subtree: the label of its root, the labels of its branches and the
+	 * numbers of its sons, already assigned
+	 */
+	private static class Subtree {
+
+		private final CompactNode node;
+		private final int[] sons;
+		private final boolean counts;
+		private final int hash;
+
+		private Subtree(CompactNode node, int[] sons, boolean counts) {
+			this.node = node;
+			this.sons = sons;
+			this.counts = counts;
+
+			int hash = node.getLabel().hashCode() * 31 + Arrays.hashCode(sons);
+			for (int i = 0; i < sons.length; i++)
+				if (sons[i] >= 0) // the labels of the pruned branches are not written
+					hash = hash * 31 + node.getBranchLabel(i).hashCode();
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+
+			if (!(other instanceof Subtree))
+				return false;
+
+			Subtree subtree = (Subtree) other;
+			CompactNode otherNode = subtree.node;
+
+			if (hash != subtree.hash || node.isLeaf() != otherNode.isLeaf() || !node.getLabel().equals(otherNode.getLabel())
+					|| !Arrays.equals(sons, subtree.sons))
+				return false;
+
+			for (int i = 0; i < sons.length; i++)
+				if (sons[i] >= 0 && !node.getBranchLabel(i).equals(otherNode.getBranchLabel(i)))
+					return false;
+
+			if (counts) // also the class distribution is written
+				for (int i = 0; i < node.numClasses(); i++)
+					if (Double.compare(node.getClassCount(i), otherNode.getClassCount(i)) != 0)
+						return false;
+
+			return true;
+		}
+	}
+}
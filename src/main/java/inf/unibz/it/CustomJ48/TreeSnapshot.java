@@ -0,0 +1,349 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Binary snapshot of a built tree, used to export it or to classify instances
+ * in another process without reading the data set and building the tree again.
+ * Unlike the Java serialization of the whole J48, the snapshot contains only
+ * what is needed after the training: the header of the training data, with the
+ * values of the nominal attributes, the compact form of the tree, with the
+ * labels and the class distribution of every node, and the arrays of its flat
+ * predictor. The training data of the nodes is never saved.
+ *
+ * The file starts with a magic number and the version of the format, followed
+ * by the flags, the options of the tree, the header, the nodes of the compact
+ * tree in depth first order and the arrays of the predictor. All the numbers
+ * are big endian and the strings are written as their length followed by their
+ * UTF-8 bytes. The file is memory mapped when loaded, so it is read without
+ * copying it through a stream.
+ *
+ * A restored tree can be exported and can classify instances as the original
+ * one, but the J48 tree itself is not available anymore.
+ */
+public class TreeSnapshot {
+
+	private static final int MAGIC = 0x434A3438; // "CJ48"
+
+	// The version written, incremented every time the format changes
+	private static final int VERSION = 1;
+
+	private static final int FLAG_REPLACE = 1; // empty strings replaced with underscores
+
+	private final CustomJ48Tree tree;
+	private final boolean replace;
+
+	/**
+	 * Creates the snapshot of a built tree
+	 *
+	 * @param tree    the built tree
+	 * @param replace whether the empty strings of the training data have been
+	 *                replaced with underscores
+	 */
+	public TreeSnapshot(CustomJ48Tree tree, boolean replace) {
+
+		if (tree.getCompactRoot() == null)
+			throw new IllegalArgumentException("The tree has not been built");
+
+		this.tree = tree;
+		this.replace = replace;
+	}
+
+	/**
+	 * Gets the tree of the snapshot
+	 *
+	 * @return the tree
+	 */
+	public CustomJ48Tree getTree() {
+		return tree;
+	}
+
+	/**
+	 * Checks if the empty strings of the training data have been replaced with
+	 * underscores, so they have to be replaced back when exporting
+	 *
+	 * @return true if the empty strings have been replaced
+	 */
+	public boolean isReplace() {
+		return replace;
+	}
+
+	/**
+	 * Saves the snapshot to a file
+	 *
+	 * @param file the file, overwritten if it already exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(replace ? FLAG_REPLACE : 0);
+			writeString(out, Utils.joinOptions(tree.getOptions()));
+
+			writeHeader(out, tree.getHeader());
+			CompactNode.write(out, tree.getCompactRoot());
+			tree.getPredictor().write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads a snapshot from a file, mapping it in memory
+	 *
+	 * @param file the file
+	 * @return the snapshot
+	 * @throws IOException if the file cannot be read or is not a valid snapshot
+	 */
+	public static TreeSnapshot load(File file) throws IOException {
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("The snapshot is too large: " + file);
+
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close(); // the mapping stays valid
+		}
+	}
+
+	/**
+	 * Reads a snapshot from a buffer, starting from its position
+	 *
+	 * @param in the buffer
+	 * @return the snapshot
+	 * @throws IOException if the buffer does not contain a valid snapshot
+	 */
+	public static TreeSnapshot read(ByteBuffer in) throws IOException {
+
+		try {
+			if (in.remaining() < 8 || in.getInt() != MAGIC)
+				throw new IOException("Not a tree snapshot");
+
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported snapshot version: " + version);
+
+			int flags = in.get();
+			String options = readString(in);
+
+			Instances header = readHeader(in);
+			String[] classValues = new String[header.numClasses()];
+			for (int i = 0; i < classValues.length; i++)
+				classValues[i] = header.classAttribute().value(i);
+
+			CompactNode root = CompactNode.read(in, classValues);
+			FlatTreePredictor predictor = FlatTreePredictor.read(in);
+
+			CustomJ48Tree tree = new CustomJ48Tree();
+			tree.setOptions(Utils.splitOptions(options));
+			tree.restore(root, predictor, header);
+
+			return new TreeSnapshot(tree, (flags & FLAG_REPLACE) != 0);
+
+		} catch (BufferUnderflowException e) {
+			throw new IOException("The snapshot is truncated");
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) { // the options or the header are not valid
+			throw new IOException("The snapshot is corrupted: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes the name, the type and the values of every attribute
+	 */
+	private static void writeHeader(DataOutputStream out, Instances header) throws IOException {
+
+		writeString(out, header.relationName());
+		out.writeInt(header.numAttributes());
+		out.writeInt(header.classIndex());
+
+		for (int i = 0; i < header.numAttributes(); i++) {
+
+			Attribute attribute = header.attribute(i);
+
+			writeString(out, attribute.name());
+			out.writeByte(attribute.type());
+
+			switch (attribute.type()) {
+			case Attribute.NOMINAL:
+			case Attribute.STRING:
+				out.writeInt(attribute.numValues());
+				for (int v = 0; v < attribute.numValues(); v++)
+					writeString(out, attribute.value(v));
+				break;
+			case Attribute.DATE:
+				writeString(out, attribute.getDateFormat());
+				break;
+			case Attribute.NUMERIC:
+				break;
+			default:
+				throw new IOException("Attribute not supported by the snapshot: " + attribute.name());
+			}
+		}
+	}
+
+	/**
+	 * Reads the header written by {@link #writeHeader(DataOutputStream, Instances)}
+	 */
+	private static Instances readHeader(ByteBuffer in) throws IOException {
+
+		String relation = readString(in);
+		int numAttributes = readSize(in, 5);
+		int classIndex = in.getInt();
+
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(numAttributes);
+
+		for (int i = 0; i < numAttributes; i++) {
+
+			String name = readString(in);
+			int type = in.get();
+
+			switch (type) {
+			case Attribute.NOMINAL:
+				attributes.add(new Attribute(name, readValues(in)));
+				break;
+			case Attribute.STRING:
+				Attribute string = new Attribute(name, (List<String>) null);
+				for (String value : readValues(in))
+					string.addStringValue(value);
+				attributes.add(string);
+				break;
+			case Attribute.DATE:
+				attributes.add(new Attribute(name, readString(in)));
+				break;
+			case Attribute.NUMERIC:
+				attributes.add(new Attribute(name));
+				break;
+			default:
+				throw new IOException("Unknown attribute type: " + type);
+			}
+		}
+
+		if (classIndex < 0 || classIndex >= numAttributes)
+			throw new IOException("Invalid class index: " + classIndex);
+
+		Instances header = new Instances(relation, attributes, 0);
+		header.setClassIndex(classIndex);
+
+		return header;
+	}
+
+	private static List<String> readValues(ByteBuffer in) throws IOException {
+		int numValues = readSize(in, 4);
+		List<String> values = new ArrayList<String>(numValues);
+		for (int v = 0; v < numValues; v++)
+			values.add(readString(in));
+		return values;
+	}
+
+	/**
+	 * Writes a string as its length followed by its UTF-8 bytes
+	 *
+	 * @param out    the stream
+	 * @param string the string
+	 * @throws IOException if the stream cannot be written
+	 */
+	static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}
+	 *
+	 * @param in the buffer
+	 * @return the string
+	 * @throws IOException if the length is not valid
+	 */
+	static String readString(ByteBuffer in) throws IOException {
+		byte[] bytes = new byte[readSize(in, 1)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the number of elements that follow, checking that the buffer can
+	 * contain them, so a corrupted size cannot allocate huge arrays
+	 *
+	 * @param in          the buffer
+	 * @param elementSize the minimum size of every element, in bytes
+	 * @return the number of elements
+	 * @throws IOException if the buffer is too small for the elements
+	 */
+	static int readSize(ByteBuffer in, int elementSize) throws IOException {
+		int size = in.getInt();
+		if (size < 0 || (long) size * elementSize > in.remaining())
+			throw new IOException("The snapshot is truncated or corrupted");
+		return size;
+	}
+
+	/**
+	 * Writes an array of integers, without its length
+	 *
+	 * @param out   the stream
+	 * @param array the array
+	 * @throws IOException if the stream cannot be written
+	 */
+	static void writeInts(DataOutputStream out, int[] array) throws IOException {
+		for (int value : array)
+			out.writeInt(value);
+	}
+
+	/**
+	 * Writes an array of doubles, without its length
+	 *
+	 * @param out   the stream
+	 * @param array the array
+	 * @throws IOException if the stream cannot be written
+	 */
+	static void writeDoubles(DataOutputStream out, double[] array) throws IOException {
+		for (double value : array)
+			out.writeDouble(value);
+	}
+
+	/**
+	 * Fills an array of integers from the buffer, in a single copy
+	 *
+	 * @param in    the buffer
+	 * @param array the array
+	 */
+	static void readInts(ByteBuffer in, int[] array) {
+		in.asIntBuffer().get(array);
+		in.position(in.position() + array.length * 4);
+	}
+
+	/**
+	 * Fills an array of doubles from the buffer, in a single copy
+	 *
+	 * @param in    the buffer
+	 * @param array the array
+	 */
+	static void readDoubles(ByteBuffer in, double[] array) {
+		in.asDoubleBuffer().get(array);
+		in.position(in.position() + array.length * 8);
+	}
+}
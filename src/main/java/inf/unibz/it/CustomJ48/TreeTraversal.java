@@ -0,0 +1,378 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Depth first traversal of the compact form of a built tree, shared by all the
+ * exporters. The traversal uses an explicit stack instead of recursion, so deep
+ * trees cannot overflow the call stack, and keeps the ids of the nodes in local
+ * state, so the same tree can be exported several times, also concurrently.
+ *
+ * Ids are assigned in pre-order, starting from 0 for the root. When pruning,
+ * the sons reached by no instance of the training data are skipped together
+ * with their subtree and do not consume any id.
+ *
+ * The tree can also be traversed in parallel on a fork-join pool: the sizes of
+ * all the subtrees are computed first, so the id of every node is known in
+ * advance, then large subtrees are split among their sons and every piece is
+ * written in its own buffer. The buffers are finally written in order, giving
+ * the same output of the sequential traversal.
+ *
+ * Finally, the tree can be visited as a graph of its distinct subtrees
+ * ({@link SubtreeDag}): a subtree identical to one already visited is only
+ * referenced, with the id of the first one, and the ids are assigned to the
+ * visited nodes only. This traversal is always sequential, since the nodes
+ * visited by a subtree depend on all the ones visited before it.
+ */
+public class TreeTraversal {
+
+	// Subtrees with fewer nodes are written by a single task
+	private static final int SEQUENTIAL_THRESHOLD = 512;
+
+	private TreeTraversal() {
+	}
+
+	/**
+	 * Visits the tree rooted in the given node
+	 *
+	 * @param root    the root of the tree
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param visitor the visitor notified for every node
+	 * @throws Exception if the visitor fails
+	 */
+	public static void traverse(CompactNode root, boolean pruning, TreeVisitor visitor) throws Exception {
+		traverse(root, null, 0, 0, -1, pruning, visitor);
+	}
+
+	/**
+	 * Visits the tree as a graph, entering only the first of the identical subtrees
+	 * and referring to it from the branches reaching the others
+	 *
+	 * @param root    the root of the tree
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param dag     the identical subtrees, found with the same pruning
+	 * @param visitor the visitor notified for every node
+	 * @throws Exception if the visitor fails
+	 */
+	public static void traverse(CompactNode root, boolean pruning, SubtreeDag dag, TreeVisitor visitor)
+			throws Exception {
+
+		int[] visited = new int[dag.size()]; // the id of every distinct subtree already visited, -1 if none
+		Arrays.fill(visited, -1);
+
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		int nextId = 0;
+
+		visitor.enterNode(root, null, 0, nextId, -1);
+		visited[dag.getSubtree(root)] = nextId;
+		open(stack, root, nextId++, visitor);
+
+		while (!stack.isEmpty()) {
+
+			Frame frame = stack.peek();
+			CompactNode[] sons = frame.node.getSons();
+
+			if (frame.next == sons.length) { // all the sons have been visited
+				stack.pop();
+				visitor.leaveNode(frame.node, frame.id);
+				continue;
+			}
+
+			int i = frame.next++;
+
+			if (pruning && !isReached(sons[i])) // skip the whole subtree
+				continue;
+
+			int subtree = dag.getSubtree(sons[i]);
+
+			if (visited[subtree] >= 0) { // refer to the identical subtree, without visiting it again
+				visitor.referNode(sons[i], frame.node, i, visited[subtree], frame.id);
+				continue;
+			}
+
+			visitor.enterNode(sons[i], frame.node, i, nextId, frame.id);
+			visited[subtree] = nextId;
+			open(stack, sons[i], nextId++, visitor);
+		}
+	}
+
+	/**
+	 * Visits the tree in parallel, writing the result on the given writer
+	 *
+	 * @param root    the root of the tree
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param factory the factory of the visitors writing the fragments
+	 * @param out     the writer where the fragments are written in order
+	 * @param pool    the pool running the tasks
+	 * @throws Exception if a visitor fails
+	 */
+	public static void traverse(CompactNode root, boolean pruning, TreeVisitorFactory factory, Writer out,
+			ForkJoinPool pool) throws Exception {
+		traverse(root, pruning, subtreeSizes(root, pruning), factory, out, pool);
+	}
+
+	/**
+	 * Visits the tree in parallel with the sizes of its subtrees already computed,
+	 * writing the result on the given writer
+	 *
+	 * @param root    the root of the tree
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @param sizes   the size of every visited subtree, as computed by
+	 *                {@link #subtreeSizes(CompactNode, boolean)} with the same pruning
+	 * @param factory the factory of the visitors writing the fragments
+	 * @param out     the writer where the fragments are written in order
+	 * @param pool    the pool running the tasks
+	 * @throws Exception if a visitor fails
+	 */
+	public static void traverse(CompactNode root, boolean pruning, Map<CompactNode, Integer> sizes,
+			TreeVisitorFactory factory, Writer out, ForkJoinPool pool) throws Exception {
+
+		List<StringWriter> fragments;
+		try {
+			fragments = pool.invoke(new FragmentTask(root, null, 0, 0, -1, 0, true, pruning, factory, sizes));
+		} catch (TraversalException e) {
+			throw e.getCause();
+		}
+
+		for (StringWriter fragment : fragments) // write everything in order
+			out.append(fragment.getBuffer());
+	}
+
+	/**
+	 * Checks if the given node is reached by some instances of the training data
+	 *
+	 * @param node the node to check
+	 * @return true if the number of instances at the node is greater than 0
+	 */
+	public static boolean isReached(CompactNode node) {
+		return node.getTotal() > 0;
+	}
+
+	/**
+	 * Visits the subtree rooted in the given node
+	 *
+	 * @param node     the root of the subtree
+	 * @param parent   the parent of the node, null for the root of the tree
+	 * @param index    the index of the node among the sons of its parent
+	 * @param id       the id of the node
+	 * @param parentId the id of the parent
+	 * @param pruning  whether we are pruning branches reached by no instances
+	 * @param visitor  the visitor notified for every node
+	 * @return the id following the last one assigned in the subtree
+	 * @throws Exception if the visitor fails
+	 */
+	private static int traverse(CompactNode node, CompactNode parent, int index, int id, int parentId,
+			boolean pruning, TreeVisitor visitor) throws Exception {
+
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		int nextId = id;
+
+		visitor.enterNode(node, parent, index, nextId, parentId);
+		open(stack, node, nextId++, visitor);
+
+		while (!stack.isEmpty()) {
+
+			Frame frame = stack.peek();
+			CompactNode[] sons = frame.node.getSons();
+
+			if (frame.next == sons.length) { // all the sons have been visited
+				stack.pop();
+				visitor.leaveNode(frame.node, frame.id);
+				continue;
+			}
+
+			int i = frame.next++;
+
+			if (pruning && !isReached(sons[i])) // skip the whole subtree
+				continue;
+
+			visitor.enterNode(sons[i], frame.node, i, nextId, frame.id);
+			open(stack, sons[i], nextId++, visitor);
+		}
+
+		return nextId;
+	}
+
+	/**
+	 * Pushes an inner node on the stack, so its sons will be visited, or leaves a
+	 * leaf immediately
+	 */
+	private static void open(Deque<Frame> stack, CompactNode node, int id, TreeVisitor visitor)
+			throws Exception {
+		if (node.isLeaf())
+			visitor.leaveNode(node, id);
+		else
+			stack.push(new Frame(node, id));
+	}
+
+	/**
+	 * Computes the number of nodes visited in every subtree, in post-order so
+	 * that the size of the sons is known when their parent is left
+	 *
+	 * @param root    the root of the tree
+	 * @param pruning whether we are pruning branches reached by no instances
+	 * @return the size of the subtree rooted in every visited node
+	 * @throws Exception never, the counting visitor does not fail
+	 */
+	public static Map<CompactNode, Integer> subtreeSizes(CompactNode root, boolean pruning) throws Exception {
+
+		final Map<CompactNode, Integer> sizes = new IdentityHashMap<CompactNode, Integer>();
+
+		traverse(root, pruning, new TreeVisitor() {
+
+			private int lastId = -1; // the last id assigned
+
+			@Override
+			public void enterNode(CompactNode node, CompactNode parent, int index, int id, int parentId) {
+				lastId = id;
+			}
+
+			@Override
+			public void leaveNode(CompactNode node, int id) {
+				// ids are assigned in pre-order, so the size is the number of ids assigned meanwhile
+				sizes.put(node, lastId - id + 1);
+			}
+
+			@Override
+			public void referNode(CompactNode node, CompactNode parent, int index, int id, int parentId) {
+				// never called, the tree is visited without its graph of subtrees
+			}
+		});
+
+		return sizes;
+	}
+
+	/**
+	 * Inner node whose sons are being visited
+	 */
+	private static class Frame {
+
+		private final CompactNode node;
+		private final int id;
+		private int next = 0; // index of the next son to visit
+
+		private Frame(CompactNode node, int id) {
+			this.node = node;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Task writing a subtree. Small subtrees are written directly in a single
+	 * fragment, larger ones are split in the fragment of the node itself, the
+	 * fragments of its sons, written by other tasks, and the fragment closing the
+	 * node.
+	 */
+	private static class FragmentTask extends RecursiveTask<List<StringWriter>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CompactNode node;
+		private final CompactNode parent;
+		private final int index;
+		private final int id;
+		private final int parentId;
+		private final int level;
+		private final boolean first;
+		private final boolean pruning;
+		private final TreeVisitorFactory factory;
+		private final Map<CompactNode, Integer> sizes;
+
+		private FragmentTask(CompactNode node, CompactNode parent, int index, int id, int parentId, int level,
+				boolean first, boolean pruning, TreeVisitorFactory factory, Map<CompactNode, Integer> sizes) {
+			this.node = node;
+			this.parent = parent;
+			this.index = index;
+			this.id = id;
+			this.parentId = parentId;
+			this.level = level;
+			this.first = first;
+			this.pruning = pruning;
+			this.factory = factory;
+			this.sizes = sizes;
+		}
+
+		@Override
+		protected List<StringWriter> compute() {
+			try {
+				List<StringWriter> fragments = new ArrayList<StringWriter>();
+
+				if (node.isLeaf() || sizes.get(node) <= SEQUENTIAL_THRESHOLD) { // write the whole subtree
+					StringWriter fragment = new StringWriter();
+					TreeVisitor visitor = factory.create(fragment, level, first);
+					traverse(node, parent, index, id, parentId, pruning, visitor);
+					visitor.flush();
+					fragments.add(fragment);
+					return fragments;
+				}
+
+				// write the node itself
+				StringWriter opening = new StringWriter();
+				TreeVisitor visitor = factory.create(opening, level, first);
+				visitor.enterNode(node, parent, index, id, parentId);
+				visitor.flush();
+				fragments.add(opening);
+
+				// create a task for every son, with its id computed from the size of the previous ones
+				List<FragmentTask> tasks = new ArrayList<FragmentTask>();
+				CompactNode[] sons = node.getSons();
+				int nextId = id + 1;
+
+				for (int i = 0; i < sons.length; i++) {
+
+					if (pruning && !isReached(sons[i]))
+						continue;
+
+					tasks.add(new FragmentTask(sons[i], node, i, nextId, id, level + 1, tasks.isEmpty(), pruning,
+							factory, sizes));
+					nextId += sizes.get(sons[i]);
+				}
+
+				for (FragmentTask task : ForkJoinTask.invokeAll(tasks))
+					fragments.addAll(task.join());
+
+				// and close the node after its sons
+				StringWriter closing = new StringWriter();
+				visitor = factory.create(closing, level + 1, tasks.isEmpty());
+				visitor.leaveNode(node, id);
+				visitor.flush();
+				fragments.add(closing);
+
+				return fragments;
+
+			} catch (TraversalException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new TraversalException(e);
+			}
+		}
+	}
+
+	/**
+	 * Unchecked wrapper of the exceptions thrown by the visitors inside a task
+	 */
+	private static class TraversalException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private TraversalException(Exception cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized Exception getCause() {
+			return (Exception) super.getCause();
+		}
+	}
+}
@@ -0,0 +1,459 @@
+package inf.unibz.it.CustomJ48;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.BinC45ModelSelection;
+import weka.classifiers.trees.j48.C45ModelSelection;
+import weka.classifiers.trees.j48.C45PruneableClassifierTree;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.ModelSelection;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Incremental update of an unpruned J48 tree when new instances are appended to
+ * its training data. The new instances are routed down the existing tree
+ * together with the old ones and the split is chosen again only at the nodes
+ * whose data changes: if the same split is chosen, the node is kept with the
+ * new distribution and its sons are updated in the same way, otherwise the
+ * whole subtree is built again from the data reaching it. The sons are built
+ * again also when their old instances change, because the split point has
+ * moved or because the instances with a missing value, split among all the
+ * sons with weights depending on the data, are there. The subtrees reached by
+ * no new instance are kept as they are, without even routing the data through
+ * them.
+ *
+ * The split chosen by J48 at a node depends only on the data reaching it, with
+ * two exceptions depending on the whole data set: the check on the nominal
+ * attributes with many values, based on the number of instances, and the split
+ * point of numeric attributes, which is moved to the largest value of the
+ * attribute not greater than the threshold. When the first one changes the tree
+ * cannot be updated, while the numeric splits that a new value could move are
+ * chosen again even if no new instance reaches them. In this way the updated
+ * tree is identical to the one built from scratch on all the instances.
+ *
+ * The changes of the nodes are recorded while the tree is visited and applied
+ * only once all the splits have been chosen and all the new subtrees built, so
+ * the tree is left as it is if the update fails.
+ */
+public class TreeUpdater {
+
+	// The fields of the nodes are not exposed by J48, but they are needed to update the nodes in place
+	private static final Field LOCAL_MODEL;
+	private static final Field IS_EMPTY;
+	private static final Field TRAIN;
+
+	static {
+		try {
+			LOCAL_MODEL = ClassifierTree.class.getDeclaredField("m_localModel");
+			IS_EMPTY = ClassifierTree.class.getDeclaredField("m_isEmpty");
+			TRAIN = ClassifierTree.class.getDeclaredField("m_train");
+			LOCAL_MODEL.setAccessible(true);
+			IS_EMPTY.setAccessible(true);
+			TRAIN.setAccessible(true);
+		} catch (NoSuchFieldException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final J48 options;
+	private final Instances oldData;
+	private final Instances added;
+	private final ModelSelection selection;
+
+	// The sorted values of the numeric attributes, computed only for the attributes used by some split
+	private final Map<Integer, double[]> oldValues = new HashMap<Integer, double[]>();
+	private final Map<Integer, double[]> addedValues = new HashMap<Integer, double[]>();
+
+	// The changes of the nodes, applied at the end of the update
+	private final List<KeptNode> keptNodes = new ArrayList<KeptNode>();
+	private final List<NewSubtree> newSubtrees = new ArrayList<NewSubtree>();
+
+	private TreeUpdater(J48 options, Instances oldData, Instances added, ModelSelection selection) {
+		this.options = options;
+		this.oldData = oldData;
+		this.added = added;
+		this.selection = selection;
+	}
+
+	/**
+	 * Checks if a tree can be updated instead of being built again: the tree must
+	 * be neither pruned nor collapsed and the new instances must not change the
+	 * attributes J48 considers to have too many values
+	 *
+	 * @param options the tree, with its options
+	 * @param oldData the instances the tree has been built from
+	 * @param allData all the instances, the old ones followed by the new ones
+	 * @return true if the tree can be updated
+	 */
+	public static boolean canUpdate(J48 options, Instances oldData, Instances allData) {
+
+		if (!options.getUnpruned() || options.getCollapseTree() || options.getReducedErrorPruning())
+			return false;
+
+		// the same comparison done by the model selection for every nominal attribute
+		Enumeration<Attribute> attributes = allData.enumerateAttributes();
+
+		while (attributes.hasMoreElements()) {
+			Attribute attribute = attributes.nextElement();
+			if (attribute.isNominal() && Utils.sm(attribute.numValues(), 0.3 * oldData.numInstances()) != Utils
+					.sm(attribute.numValues(), 0.3 * allData.numInstances()))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Updates a tree with the new instances. The nodes are changed in place and
+	 * the subtrees whose split changes are replaced, only if the whole update
+	 * succeeds.
+	 *
+	 * @param options the tree, with its options
+	 * @param root    the root of the built tree
+	 * @param oldData the instances the tree has been built from
+	 * @param added   the new instances
+	 * @param allData all the instances, the old ones followed by the new ones
+	 * @return the root of the updated tree, a new one if the split of the root
+	 *         changes
+	 * @throws Exception if the tree cannot be updated, see
+	 *                   {@link #canUpdate(J48, Instances, Instances)}, in which
+	 *                   case it is not changed
+	 */
+	public static ClassifierTree update(J48 options, ClassifierTree root, Instances oldData, Instances added,
+			Instances allData) throws Exception {
+
+		if (!canUpdate(options, oldData, allData))
+			throw new IllegalArgumentException("The tree must be built again");
+
+		ModelSelection selection;
+
+		// the same model selection used by J48, on all the instances
+		if (options.getBinarySplits())
+			selection = new BinC45ModelSelection(options.getMinNumObj(), allData, options.getUseMDLcorrection(),
+					options.getDoNotMakeSplitPointActualValue());
+		else
+			selection = new C45ModelSelection(options.getMinNumObj(), allData, options.getUseMDLcorrection(),
+					options.getDoNotMakeSplitPointActualValue());
+
+		try {
+			return new TreeUpdater(options, oldData, added, selection).update(root, allData);
+		} finally {
+			if (selection instanceof BinC45ModelSelection)
+				((BinC45ModelSelection) selection).cleanup();
+			else
+				((C45ModelSelection) selection).cleanup();
+		}
+	}
+
+	/**
+	 * Visits the tree from the root, routing the data only towards the nodes
+	 * that can change, and then applies the changes. Every node is read before
+	 * it, or its parent, is changed, so the changes can wait for the end of the
+	 * visit.
+	 */
+	private ClassifierTree update(ClassifierTree root, Instances allData) throws Exception {
+
+		Set<ClassifierTree> moved = newNodeSet(); // the splits that a new value can move
+		Set<ClassifierTree> routed = newNodeSet(); // the nodes on the path towards them
+		findMovedSplits(root, moved, routed);
+
+		// the data as seen by J48
+		Instances data = new Instances(allData);
+		data.deleteWithMissingClass();
+		Instances newData = new Instances(added);
+		newData.deleteWithMissingClass();
+
+		boolean keepData = options.getSubtreeRaising() || options.getSaveInstanceData();
+
+		ClassifierTree newRoot = root;
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(root, null, 0, data, newData, newData.numInstances() > 0, false));
+
+		while (!stack.isEmpty()) {
+
+			Frame frame = stack.pop();
+			ClassifierTree node = frame.node;
+			ClassifierSplitModel model = node.getLocalModel();
+			boolean dirty = false; // whether the old instances reaching the sons change
+
+			if (frame.changed || moved.contains(node)) { // choose the split again
+
+				ClassifierSplitModel oldModel = model;
+
+				// every node of a subtree whose old instances change has to be checked, so it is built again
+				if (!frame.dirty)
+					model = selection.selectModel(frame.data);
+
+				if (frame.dirty || !sameAttribute(model, oldModel)) { // build the subtree again
+
+					C45PruneableClassifierTree tree = new C45PruneableClassifierTree(selection, !options.getUnpruned(),
+							options.getConfidenceFactor(), options.getSubtreeRaising(), !options.getSaveInstanceData(),
+							options.getCollapseTree());
+					tree.buildTree(frame.data, keepData);
+
+					if (frame.parent == null)
+						newRoot = tree;
+					else
+						newSubtrees.add(new NewSubtree(frame.parent, frame.index, tree));
+
+					continue;
+				}
+
+				// keep the node with the distribution of the new data
+				keptNodes.add(new KeptNode(node, model, keepData ? frame.data : null,
+						Utils.eq(frame.data.sumOfWeights(), 0)));
+
+				if (node.isLeaf())
+					continue;
+
+				// a moved split point can move also old instances from a son to the other
+				if (Double.compare(FlatTreePredictor.splitPoint(model), FlatTreePredictor.splitPoint(oldModel)) != 0)
+					dirty = true;
+
+				// the instances with a missing value are split among all the sons, with weights depending on the data
+				if (frame.changed && hasMissing(frame.data, FlatTreePredictor.splitAttribute(model)))
+					dirty = true;
+
+			} else if (!routed.contains(node)) { // nothing changes in the subtree
+				continue;
+			}
+
+			Instances[] subsets = model.split(frame.data);
+			Instances[] newSubsets = frame.added.numInstances() > 0 ? model.split(frame.added) : null;
+
+			for (int i = node.getSons().length - 1; i >= 0; i--) {
+				Instances newSubset = newSubsets != null ? newSubsets[i] : new Instances(frame.added, 0);
+				stack.push(new Frame(node.getSons()[i], node, i, subsets[i], newSubset,
+						dirty || newSubset.numInstances() > 0, dirty));
+			}
+		}
+
+		applyChanges();
+
+		return newRoot;
+	}
+
+	/**
+	 * Applies the recorded changes of the nodes
+	 */
+	private void applyChanges() throws IllegalAccessException {
+
+		for (KeptNode kept : keptNodes) {
+
+			LOCAL_MODEL.set(kept.node, kept.model);
+			if (kept.data != null)
+				TRAIN.set(kept.node, kept.data);
+
+			if (kept.node.isLeaf())
+				IS_EMPTY.setBoolean(kept.node, kept.empty);
+		}
+
+		for (NewSubtree subtree : newSubtrees)
+			subtree.parent.getSons()[subtree.index] = subtree.tree;
+	}
+
+	/**
+	 * Finds the numeric splits whose split point can be moved by a new value, and
+	 * the nodes on the path from the root to them
+	 */
+	private void findMovedSplits(ClassifierTree root, Set<ClassifierTree> moved, Set<ClassifierTree> routed) {
+
+		if (options.getDoNotMakeSplitPointActualValue()) // the split points depend only on the data of the node
+			return;
+
+		// the nodes in depth first order, so every node comes after its ancestors
+		List<ClassifierTree> nodes = new ArrayList<ClassifierTree>();
+		Map<ClassifierTree, ClassifierTree> parents = new IdentityHashMap<ClassifierTree, ClassifierTree>();
+		Deque<ClassifierTree> stack = new ArrayDeque<ClassifierTree>();
+		stack.push(root);
+
+		while (!stack.isEmpty()) {
+			ClassifierTree node = stack.pop();
+			nodes.add(node);
+			if (!node.isLeaf()) {
+				for (ClassifierTree son : node.getSons()) {
+					parents.put(son, node);
+					stack.push(son);
+				}
+			}
+		}
+
+		for (ClassifierTree node : nodes) {
+
+			if (node.isLeaf() || !canMove(node.getLocalModel()))
+				continue;
+
+			moved.add(node);
+
+			// mark the path from the root, stopping at the first node already marked
+			for (ClassifierTree ancestor = node; ancestor != null && routed.add(ancestor); ancestor = parents.get(ancestor))
+				;
+		}
+	}
+
+	/**
+	 * Checks if the split point of a numeric split can be moved by a new value: it
+	 * is the largest value of the old data not greater than the threshold chosen
+	 * by J48, which is smaller than the next value of the old data, so only a new
+	 * value between the two can move it
+	 */
+	private boolean canMove(ClassifierSplitModel model) {
+
+		int attribute = FlatTreePredictor.splitAttribute(model);
+
+		if (!oldData.attribute(attribute).isNumeric())
+			return false;
+
+		double splitPoint = FlatTreePredictor.splitPoint(model);
+
+		double[] old = sortedValues(oldValues, oldData, attribute);
+		double next = Double.POSITIVE_INFINITY;
+		int index = upperBound(old, splitPoint);
+		if (index < old.length)
+			next = old[index];
+
+		double[] values = sortedValues(addedValues, added, attribute);
+		index = upperBound(values, splitPoint);
+
+		return index < values.length && values[index] < next;
+	}
+
+	/**
+	 * Checks if two split models test the same attribute in the same way, maybe
+	 * with a different split point
+	 */
+	private static boolean sameAttribute(ClassifierSplitModel a, ClassifierSplitModel b) {
+
+		if (a.getClass() != b.getClass() || a.numSubsets() != b.numSubsets())
+			return false;
+
+		return a.numSubsets() == 1 // both are leaves
+				|| FlatTreePredictor.splitAttribute(a) == FlatTreePredictor.splitAttribute(b);
+	}
+
+	private static Set<ClassifierTree> newNodeSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<ClassifierTree, Boolean>());
+	}
+
+	private static boolean hasMissing(Instances data, int attribute) {
+		for (int i = 0; i < data.numInstances(); i++)
+			if (data.instance(i).isMissing(attribute))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Gets the sorted values of a numeric attribute, without the missing ones
+	 */
+	private static double[] sortedValues(Map<Integer, double[]> cache, Instances data, int attribute) {
+
+		double[] values = cache.get(attribute);
+
+		if (values == null) {
+			values = new double[data.numInstances()];
+			int count = 0;
+			for (Instance instance : data)
+				if (!instance.isMissing(attribute))
+					values[count++] = instance.value(attribute);
+			values = Arrays.copyOf(values, count);
+			Arrays.sort(values);
+			cache.put(attribute, values);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Gets the index of the first value greater than the given one
+	 */
+	private static int upperBound(double[] values, double value) {
+
+		int low = 0;
+		int high = values.length;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] <= value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Node kept with the split model chosen again on its new data
+	 */
+	private static class KeptNode {
+
+		private final ClassifierTree node;
+		private final ClassifierSplitModel model;
+		private final Instances data; // null if the nodes do not keep their data
+		private final boolean empty; // whether no data reaches the node
+
+		private KeptNode(ClassifierTree node, ClassifierSplitModel model, Instances data, boolean empty) {
+			this.node = node;
+			this.model = model;
+			this.data = data;
+			this.empty = empty;
+		}
+	}
+
+	/**
+	 * Subtree built again, replacing a son of a kept node
+	 */
+	private static class NewSubtree {
+
+		private final ClassifierTree parent;
+		private final int index;
+		private final ClassifierTree tree;
+
+		private NewSubtree(ClassifierTree parent, int index, ClassifierTree tree) {
+			this.parent = parent;
+			this.index = index;
+			this.tree = tree;
+		}
+	}
+
+	/**
+	 * Node to update, with the data reaching it
+	 */
+	private static class Frame {
+
+		private final ClassifierTree node;
+		private final ClassifierTree parent;
+		private final int index;
+		private final Instances data; // all the instances reaching the node
+		private final Instances added; // the new instances reaching the node
+		private final boolean changed; // whether the data reaching the node has changed
+		private final boolean dirty; // whether also the old instances reaching the node have changed
+
+		private Frame(ClassifierTree node, ClassifierTree parent, int index, Instances data, Instances added,
+				boolean changed, boolean dirty) {
+			this.node = node;
+			this.parent = parent;
+			this.index = index;
+			this.data = data;
+			this.added = added;
+			this.changed = changed;
+			this.dirty = dirty;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.IOException;
+
+/**
+ * Visitor notified by the {@link TreeTraversal} while the tree is visited in
+ * depth first order. Every node is entered before its sons and left after all
+ * of them, leaves included.
+ */
+public interface TreeVisitor {
+
+	/**
+	 * Called when a node is reached, before its sons are visited
+	 *
+	 * @param node     the node reached
+	 * @param parent   the parent of the node, null for the root
+	 * @param index    the index of the node among the sons of its parent
+	 * @param id       the id assigned to the node, in pre-order starting from 0
+	 * @param parentId the id of the parent node, -1 for the root
+	 * @throws Exception if the node cannot be exported
+	 */
+	void enterNode(CompactNode node, CompactNode parent, int index, int id, int parentId) throws Exception;
+
+	/**
+	 * Called when all the sons of a node have been visited
+	 *
+	 * @param node the node left
+	 * @param id   the id assigned to the node
+	 * @throws Exception if the node cannot be exported
+	 */
+	void leaveNode(CompactNode node, int id) throws Exception;
+
+	/**
+	 * Called instead of {@link #enterNode(CompactNode, CompactNode, int, int, int)}
+	 * when the tree is visited as a graph of its distinct subtrees and the node
+	 * roots a subtree identical to one already visited, which is referenced
+	 * instead of being visited again
+	 *
+	 * @param node     the node reached
+	 * @param parent   the parent of the node
+	 * @param index    the index of the node among the sons of its parent
+	 * @param id       the id of the root of the identical subtree already visited
+	 * @param parentId the id of the parent node
+	 * @throws Exception if the reference cannot be exported
+	 */
+	void referNode(CompactNode node, CompactNode parent, int index, int id, int parentId) throws Exception;
+
+	/**
+	 * Called when the visitor has written everything it had to, so buffered output
+	 * can be flushed
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	default void flush() throws IOException {
+	}
+}
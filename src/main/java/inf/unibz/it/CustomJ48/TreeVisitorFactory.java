@@ -0,0 +1,25 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.Writer;
+
+/**
+ * Factory of the visitors used by the parallel {@link TreeTraversal}. Every
+ * visitor writes a fragment of the export on its own writer and the fragments
+ * are then concatenated in order, so a visitor must be able to start writing
+ * at any level of the tree.
+ */
+public interface TreeVisitorFactory {
+
+	/**
+	 * Creates a visitor writing a fragment of the export
+	 *
+	 * @param out   the writer of the fragment
+	 * @param level the depth of the first node written by the visitor, 0 for the
+	 *              root
+	 * @param first whether no other son of the same parent has been written
+	 *              before the first node of the fragment
+	 * @return the visitor
+	 * @throws Exception if the visitor cannot be created
+	 */
+	TreeVisitor create(Writer out, int level, boolean first) throws Exception;
+}
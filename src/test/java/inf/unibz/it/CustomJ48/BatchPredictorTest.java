@@ -0,0 +1,71 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import weka.core.Instances;
+
+/**
+ * Checks that a CSV test set is classified as the tree classifies the same
+ * instances read as training data, also when its values are quoted and
+ * escaped
+ */
+public class BatchPredictorTest {
+
+	// Values as written in the file, quoted and escaped as the CSV loader reads them
+	private static final String[] VALUES = { "plain", "\"p\\\"q\"", "'a\\'b'", "\"x,y\"", "\"\\101\\102\"",
+			"\"tab\\tx\"", "'it is'", "\"città\"", " spaced", "\"line\\\nend\"" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void quotedAndEscapedValuesAreTheOnesOfTheTrainingData() throws Exception {
+
+		Random random = new Random(7);
+		StringBuilder csv = new StringBuilder("value,number,class\n");
+
+		for (int i = 0; i < 200; i++) {
+			int value = random.nextInt(VALUES.length);
+			csv.append(VALUES[value]).append(',').append(random.nextInt(10)).append(',')
+					.append(value % 3 == 0 ? "yes" : "no").append('\n');
+		}
+
+		File file = folder.newFile("quoted.csv");
+		Files.write(file.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+		for (boolean replace : new boolean[] { false, true }) {
+
+			Instances data = CustomJ48.prepareDataSet(CustomJ48.readDataSet(file, replace));
+			assertEquals(VALUES.length, data.attribute(0).numValues());
+
+			CustomJ48Tree tree = TestDataSets.build(data, CustomJ48.TREE_OPTIONS, 1);
+
+			for (int threads : new int[] { 1, 3 }) {
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				long count = CustomJ48.predict(tree, new FileInputStream(file), CustomJ48.InputFormat.CSV, out, threads,
+						replace);
+
+				String[] predictions = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+
+				assertEquals(data.numInstances(), count);
+				assertEquals(data.numInstances(), predictions.length);
+
+				for (int i = 0; i < data.numInstances(); i++)
+					assertEquals("row " + i + (replace ? " replacing" : ""),
+							data.classAttribute().value((int) tree.classifyInstance(data.instance(i))), predictions[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the trees loaded from the cache are exported as the built ones,
+ * and that the keys and the eviction of the cache work as documented
+ */
+public class BuildCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void cachedTreesAreExportedAsTheBuiltOnes() throws Exception {
+
+		BuildCache cache = new BuildCache(folder.newFolder(), Long.MAX_VALUE);
+
+		for (String name : TestDataSets.NAMES) {
+
+			CustomJ48Tree built = TestDataSets.build(TestDataSets.load(name), CustomJ48.TREE_OPTIONS, 1);
+			String key = BuildCache.key(CompressedFiles.open(TestDataSets.file(name)), CustomJ48.TREE_OPTIONS);
+
+			assertNull(name, cache.get(key));
+			cache.put(key, new TreeSnapshot(built, false));
+
+			TreeSnapshot cached = cache.get(key);
+			assertNotNull(name, cached);
+
+			for (boolean pruning : new boolean[] { false, true }) {
+				assertEquals(name, TestDataSets.dot(built, pruning), TestDataSets.dot(cached.getTree(), pruning));
+				assertEquals(name, TestDataSets.json(built, pruning), TestDataSets.json(cached.getTree(), pruning));
+				assertEquals(name, TestDataSets.graphML(built, pruning),
+						TestDataSets.graphML(cached.getTree(), pruning));
+			}
+		}
+	}
+
+	@Test
+	public void keysIgnoreTheLineEndsOnly() throws Exception {
+
+		String key = key("a,b\nx,y\n", "-U");
+
+		assertEquals(key, key("a,b\r\nx,y\r\n", "-U"));
+		assertNotEquals(key, key("a,b\rx,y\r", "-U")); // lone carriage returns are kept
+		assertNotEquals(key, key("a,b\nx,z\n", "-U"));
+		assertNotEquals(key, key("a,b\nx,y\n", "-B"));
+	}
+
+	@Test
+	public void unreadableSnapshotsAreRemoved() throws Exception {
+
+		File directory = folder.newFolder();
+		BuildCache cache = new BuildCache(directory, Long.MAX_VALUE);
+		File file = new File(directory, "broken.snap");
+
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write("not a snapshot".getBytes(StandardCharsets.UTF_8));
+		}
+
+		assertNull(cache.get("broken"));
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void leastRecentlyUsedSnapshotsAreEvicted() throws Exception {
+
+		File directory = folder.newFolder();
+		CustomJ48Tree tree = TestDataSets.build(TestDataSets.load("iris.arff"), CustomJ48.TREE_OPTIONS, 1);
+
+		// room for two snapshots of the tree only
+		new BuildCache(directory, Long.MAX_VALUE).put("size", new TreeSnapshot(tree, false));
+		long size = new File(directory, "size.snap").length();
+		assertTrue(new File(directory, "size.snap").delete());
+
+		BuildCache cache = new BuildCache(directory, 2 * size);
+
+		cache.put("first", new TreeSnapshot(tree, false));
+		cache.put("second", new TreeSnapshot(tree, false));
+		new File(directory, "first.snap").setLastModified(System.currentTimeMillis() - 60000);
+		new File(directory, "second.snap").setLastModified(System.currentTimeMillis() - 30000);
+
+		assertNotNull(cache.get("first")); // now the most recently used
+		cache.put("third", new TreeSnapshot(tree, false));
+
+		assertNotNull(cache.get("first"));
+		assertNull(cache.get("second"));
+		assertNotNull(cache.get("third"));
+	}
+
+	private static String key(String data, String options) throws Exception {
+		return BuildCache.key(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), options);
+	}
+}
@@ -0,0 +1,40 @@
+package inf.unibz.it.CustomJ48;
+
+import org.junit.Test;
+
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Checks that the scorer generated as Java source and compiled in memory
+ * classifies every instance as the J48 tree it has been generated from
+ */
+public class CompiledScorerTest {
+
+	@Test
+	public void predictionsAreTheOnesOfJ48() throws Exception {
+
+		for (String name : TestDataSets.NAMES) {
+
+			Instances data = TestDataSets.load(name);
+
+			for (String options : FlatTreePredictorTest.OPTIONS) {
+
+				J48 j48 = new J48();
+				j48.setOptions(Utils.splitOptions(options));
+				j48.buildClassifier(data);
+
+				Scorer scorer = TestDataSets.build(data, options, 1).compileScorer();
+				String message = name + " with " + options;
+
+				// the instances with missing values on their path are left to the flat predictor
+				FlatTreePredictorTest.assertSamePredictions(message, j48, scorer, data);
+				FlatTreePredictorTest.assertSamePredictions(message + " with missing values", j48, scorer,
+						TestDataSets.withMissingValues(data, 0.2, 3));
+				FlatTreePredictorTest.assertSamePredictions(message + " on random instances", j48, scorer,
+						TestDataSets.randomInstances(data, 500, 5));
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the statuses answered by the server, and that its exports and
+ * predictions are the ones of the console
+ */
+public class CustomJ48ServerTest {
+
+	private static final String ARFF = "@relation test\n@attribute outlook {sunny,rainy}\n"
+			+ "@attribute play {yes,no}\n@data\nsunny,yes\nrainy,no\nsunny,yes\n";
+
+	private CustomJ48Server server;
+	private byte[] csv; // the training set of the models
+
+	@Before
+	public void startServer() throws Exception {
+		server = new CustomJ48Server(0, 2, 4);
+		server.start();
+		csv = Files.readAllBytes(TestDataSets.file("german_credit_data.csv").toPath());
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void modelsAreBuiltExportedAndUsed() throws Exception {
+
+		assertStatus(200, "PUT", "/models/credit", csv);
+
+		CustomJ48Tree tree = CustomJ48.buildTree(
+				CustomJ48.readDataSet(new ByteArrayInputStream(csv), CustomJ48.InputFormat.CSV, false), 1);
+
+		Response export = request("GET", "/models/credit/export", null);
+		assertEquals(200, export.status);
+		assertEquals(TestDataSets.dot(tree, false), export.text());
+
+		ByteArrayOutputStream predictions = new ByteArrayOutputStream();
+		CustomJ48.predict(tree, new ByteArrayInputStream(csv), CustomJ48.InputFormat.CSV, predictions, 1, false);
+
+		Response predict = request("POST", "/models/credit/predict", csv);
+		assertEquals(200, predict.status);
+		assertEquals(new String(predictions.toByteArray(), StandardCharsets.UTF_8), predict.text());
+
+		assertEquals("credit\n", request("GET", "/models", null).text());
+		assertStatus(200, "DELETE", "/models/credit", null);
+		assertStatus(404, "GET", "/models/credit/export", null);
+	}
+
+	@Test
+	public void unknownModelsAndRequestsAreNotFound() throws Exception {
+		assertStatus(404, "GET", "/models/missing/export", null);
+		assertStatus(404, "POST", "/models/missing/predict", csv);
+		assertStatus(404, "DELETE", "/models/missing", null);
+		assertStatus(404, "GET", "/models/missing/other", null);
+	}
+
+	@Test
+	public void wrongMethodsAreNotAllowed() throws Exception {
+		assertStatus(405, "POST", "/models", null);
+		assertStatus(405, "GET", "/models/credit", null);
+		assertStatus(405, "PUT", "/models/credit/append", csv);
+		assertStatus(405, "POST", "/models/credit/export", null);
+		assertStatus(405, "GET", "/models/credit/predict", null);
+	}
+
+	@Test
+	public void invalidRequestsAreRejected() throws Exception {
+
+		assertStatus(400, "PUT", "/models/no%20spaces", csv);
+		assertStatus(400, "PUT", "/models/credit?format=xls", csv);
+		assertStatus(400, "PUT", "/models/credit", "a,b,class\n".getBytes(StandardCharsets.UTF_8));
+
+		assertStatus(200, "PUT", "/models/credit", csv);
+		assertStatus(400, "GET", "/models/credit/export?format=png", null);
+		assertStatus(400, "POST", "/models/credit/append", "1,2,3\n".getBytes(StandardCharsets.UTF_8));
+		assertStatus(400, "POST", "/models/credit/predict?format=arff", csv);
+
+		// the rejected requests have not changed the model
+		assertStatus(200, "GET", "/models/credit/export", null);
+	}
+
+	@Test
+	public void undeclaredValuesAreRejected() throws Exception {
+
+		byte[] arff = ARFF.getBytes(StandardCharsets.UTF_8);
+
+		assertStatus(200, "PUT", "/models/weather?format=arff", arff);
+		assertStatus(400, "POST", "/models/weather/append", "cloudy,yes\n".getBytes(StandardCharsets.UTF_8));
+		assertStatus(200, "POST", "/models/weather/append", "rainy,no\n".getBytes(StandardCharsets.UTF_8));
+		assertStatus(200, "POST", "/models/weather/predict?format=arff", arff);
+	}
+
+	private void assertStatus(int status, String method, String path, byte[] body) throws IOException {
+		Response response = request(method, path, body);
+		assertEquals(method + " " + path + ": " + response.text(), status, response.status);
+		assertTrue(method + " " + path, status == 200 || !response.text().isEmpty());
+	}
+
+	private Response request(String method, String path, byte[] body) throws IOException {
+
+		URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+
+		if (body != null) {
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			}
+		}
+
+		Response response = new Response();
+		response.status = connection.getResponseCode();
+
+		try (InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) >= 0)
+					bytes.write(buffer, 0, read);
+			}
+			response.body = bytes.toByteArray();
+		} finally {
+			connection.disconnect();
+		}
+
+		return response;
+	}
+
+	/**
+	 * Status and body of a response
+	 */
+	private static class Response {
+
+		private int status;
+		private byte[] body;
+
+		private String text() {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+
+/**
+ * Checks that the dictionary loader gives the header and the values the Weka
+ * CSV loader gives with the StringToNominal filter, reading the characters or
+ * the bytes of the data set
+ */
+public class DictionaryCSVLoaderTest {
+
+	@Test
+	public void bundledDataSetsAreTheOnesOfCSVLoader() throws Exception {
+		for (String name : new String[] { "example.csv", "example2.csv", "example_overfitting.csv",
+				"german_credit_data.csv", "soybean_truncated.csv", "test_duplicated.csv", "test_missclassified.csv",
+				"training.csv", "trainingData.csv", "ulegale_example.csv" })
+			assertSameDataSet(name, new String(Files.readAllBytes(TestDataSets.file(name).toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void quotedValuesAreTheOnesOfCSVLoader() throws Exception {
+		assertSameDataSet("double quotes", "a,b,class\n\"x, y\",1,yes\n\"z\",2,no\n\"x, y\",3,yes\n");
+		assertSameDataSet("single quotes", "'a b',c,class\n'it is',1,yes\n\"it's\",2,no\n'x',3,yes\n");
+		assertSameDataSet("quoted numbers", "a,b,class\n\"1\",'2',yes\n\"3\",'4',no\n");
+		assertSameDataSet("non ASCII values", "città,b,class\nperché,1,sì\nnaïve,2,no\n中文,3,sì\n");
+	}
+
+	@Test
+	public void missingValuesAreTheOnesOfCSVLoader() throws Exception {
+		assertSameDataSet("question marks", "a,b,class\n?,1,yes\nx,?,no\ny,2,?\n");
+		assertSameDataSet("blank values", "a,b,class\n,1,yes\nx,,no\ny,2,yes\n");
+		assertSameDataSet("only missing values", "a,b,class\n?,1,yes\n,2,no\n?,3,yes\n");
+	}
+
+	@Test
+	public void typesAreTheOnesOfCSVLoader() throws Exception {
+		assertSameDataSet("numbers", "a,b,class\n1,-2.5,yes\n3e2,0.0,no\n");
+		assertSameDataSet("numbers then strings", "a,b,class\n1,2,yes\n1,x,no\n3,y,yes\n2,2,no\n");
+		assertSameDataSet("missing values then strings", "a,b,class\n?,,yes\n1,x,no\n");
+		assertSameDataSet("numeric classes", "a,b,class\nx,1,1\ny,2,2\nx,3,1\n");
+	}
+
+	@Test
+	public void rowsWithOtherLengthsAreRejected() throws Exception {
+		assertRejected("a,b,class\nx,1,yes\ny,2\n");
+		assertRejected("a,b,class\nx,1,yes\ny,2,no,z\n");
+	}
+
+	/**
+	 * Checks that the data set read as characters and as bytes is the one of the
+	 * CSV loader and the filter
+	 */
+	private static void assertSameDataSet(String message, String csv) throws Exception {
+
+		String expected = describe(readCSVLoader(csv));
+
+		assertEquals(message, expected, describe(new DictionaryCSVLoader(new StringReader(csv)).getDataSet()));
+		assertEquals(message + " from the bytes", expected, describe(new DictionaryCSVLoader(
+				new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))).getDataSet()));
+	}
+
+	/**
+	 * Prepares a data set for the tree and prints its header and values, without
+	 * the name of the relation, which the filter changes
+	 */
+	private static String describe(Instances data) throws Exception {
+		Instances prepared = CustomJ48.prepareDataSet(data);
+		prepared.setRelationName("stream");
+		return prepared.toString();
+	}
+
+	private static void assertRejected(String csv) throws Exception {
+
+		try {
+			readCSVLoader(csv);
+			fail("The CSV loader has read " + csv);
+		} catch (IOException e) {
+			// expected, as the dictionary loader
+		}
+
+		try {
+			new DictionaryCSVLoader(new StringReader(csv)).getDataSet();
+			fail("The dictionary loader has read " + csv);
+		} catch (IOException e) {
+			// expected
+		}
+
+		try {
+			new DictionaryCSVLoader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))).getDataSet();
+			fail("The dictionary loader has read the bytes of " + csv);
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static Instances readCSVLoader(String csv) throws IOException {
+		ReaderCSVLoader loader = new ReaderCSVLoader();
+		loader.setSource(new StringReader(csv));
+		return loader.getDataSet();
+	}
+
+	/**
+	 * CSV loader reading from a character stream, so the encoding of the data set
+	 * does not depend on the platform
+	 */
+	private static class ReaderCSVLoader extends CSVLoader {
+
+		private static final long serialVersionUID = 1L;
+
+		void setSource(Reader in) {
+			m_structure = null;
+			m_sourceFile = null;
+			m_File = null;
+			m_sourceReader = new BufferedReader(in);
+		}
+	}
+}
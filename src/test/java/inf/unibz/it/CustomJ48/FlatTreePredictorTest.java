@@ -0,0 +1,62 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Checks that the flat predictor classifies every instance as the J48 tree it
+ * has been compiled from
+ */
+public class FlatTreePredictorTest {
+
+	// The options of the console, with binary splits and pruned
+	static final String[] OPTIONS = { CustomJ48.TREE_OPTIONS, CustomJ48.TREE_OPTIONS + " -B", "-C 0.25 -M 2" };
+
+	@Test
+	public void predictionsAreTheOnesOfJ48() throws Exception {
+
+		for (String name : TestDataSets.NAMES) {
+
+			Instances data = TestDataSets.load(name);
+
+			for (String options : OPTIONS) {
+
+				J48 j48 = new J48();
+				j48.setOptions(Utils.splitOptions(options));
+				j48.buildClassifier(data);
+
+				FlatTreePredictor predictor = TestDataSets.build(data, options, 1).getPredictor();
+				String message = name + " with " + options;
+
+				assertSamePredictions(message, j48, predictor, data);
+				assertSamePredictions(message + " with missing values", j48, predictor,
+						TestDataSets.withMissingValues(data, 0.2, 3));
+				assertSamePredictions(message + " on random instances", j48, predictor,
+						TestDataSets.randomInstances(data, 500, 5));
+			}
+		}
+	}
+
+	/**
+	 * Checks that every instance is classified as J48 does, in a class with the
+	 * highest probability in the distribution of J48
+	 */
+	static void assertSamePredictions(String message, J48 j48, Scorer scorer, Instances instances) throws Exception {
+
+		for (Instance instance : instances) {
+
+			double prediction = scorer.classifyInstance(instance);
+			double[] distribution = j48.distributionForInstance(instance);
+
+			assertEquals(message, j48.classifyInstance(instance), prediction, 0);
+			assertTrue(message, distribution[(int) prediction] >= distribution[Utils.maxIndex(distribution)] - 1e-6);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a mapped data set file is read as {@link DataSetReader} reads it
+ * from a stream when the empty strings are replaced, and as it is otherwise,
+ * also when its lines cross the windows mapped in memory
+ */
+public class MappedDataSetReaderTest {
+
+	// Windows small enough to split the lines, and the characters, of the data sets
+	private static final int[] WINDOWS = { 1, 2, 3, 5, 8, 13 };
+
+	// Windows for the bundled data sets, which would be mapped too many times by the small ones
+	private static final int[] FILE_WINDOWS = { 61, 1 << 10 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void windowsLineEndsAreRead() throws Exception {
+		assertSameContent("a , b,,c\r\nd,,e \r\n\r\nf, g\r\n");
+		assertSameContent("a,b\r\rc,,d\re");
+	}
+
+	@Test
+	public void linesAcrossTheWindowsAreRead() throws Exception {
+		assertSameContent("first,line,,is,longer,than,the,window\nsecond ,  line\n,,,\nlast,,line,without,end");
+		assertSameContent("città,perché,,naïve\n中文,😀,,x\n");
+	}
+
+	@Test
+	public void underscoresNextToNonAsciiCharactersAreChecked() throws Exception {
+		assertSameContent("a,é_,b\n");
+		assertSameContent("a,_é,b\n");
+		assertSameContent("a,中_文,b\n");
+		assertSameContent("a,b\nc, _ ,d\n");
+		assertSameContent("a,b\nc,é _,d\n");
+	}
+
+	@Test
+	public void bundledDataSetsAreRead() throws Exception {
+		for (String name : new String[] { "example.csv", "ulegale_example.csv", "exampleException.csv",
+				"soybean_truncated.csv" })
+			assertSameContent(new String(Files.readAllBytes(TestDataSets.file(name).toPath()), StandardCharsets.UTF_8),
+					FILE_WINDOWS);
+	}
+
+	/**
+	 * Checks that the content is read as it is or, replacing the empty strings,
+	 * as the stream reader does, both as characters and as bytes, or that both
+	 * fail because of an underscore
+	 */
+	private void assertSameContent(String content) throws Exception {
+		assertSameContent(content, WINDOWS);
+	}
+
+	private void assertSameContent(String content, int[] windows) throws Exception {
+
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+		for (boolean replace : new boolean[] { false, true }) {
+
+			String expected = replace ? readStream(content) : content;
+
+			for (int window : windows) {
+
+				String message = "window of " + window + (replace ? " replacing" : "") + " for " + content;
+
+				MappedDataSetReader chars = new MappedDataSetReader(file, replace, window);
+				assertEquals(message, expected, read(chars, chars));
+
+				MappedDataSetReader bytes = new MappedDataSetReader(file, replace, window);
+				assertEquals(message, expected, read(bytes.getBytes(), bytes));
+			}
+		}
+	}
+
+	/**
+	 * Reads the content with the stream reader replacing the empty strings, or
+	 * fails because of a pre-existing underscore
+	 */
+	private static String readStream(String content) throws IOException {
+
+		DataSetReader reader = new DataSetReader(
+				new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), true);
+
+		try {
+			return readAll(reader);
+		} catch (IOException e) {
+			assertNotNull(reader.getParseException());
+			return "underscore";
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static String read(Reader in, MappedDataSetReader reader) throws IOException {
+		try {
+			return readAll(in);
+		} catch (IOException e) {
+			return underscore(e, reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static String read(InputStream in, MappedDataSetReader reader) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[3];
+		int read;
+
+		try {
+			while ((read = in.read(buffer)) >= 0)
+				bytes.write(buffer, 0, read);
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return underscore(e, reader);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String underscore(IOException e, MappedDataSetReader reader) {
+		assertNotNull(reader.getParseException());
+		assertEquals(reader.getParseException(), e.getCause());
+		return "underscore";
+	}
+
+	private static String readAll(Reader in) throws IOException {
+
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[3];
+		int read;
+
+		while ((read = in.read(buffer)) >= 0)
+			text.append(buffer, 0, read);
+
+		return text.toString();
+	}
+}
@@ -0,0 +1,49 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import weka.core.Instances;
+
+/**
+ * Checks that the trees built in parallel, whose splits are chosen by
+ * {@link ParallelModelSelection}, are the ones J48 builds sequentially
+ */
+public class ParallelBuildTest {
+
+	// The options of the console, with binary splits, without the MDL correction and pruned
+	private static final String[] OPTIONS = { CustomJ48.TREE_OPTIONS, CustomJ48.TREE_OPTIONS + " -B",
+			CustomJ48.TREE_OPTIONS + " -J", CustomJ48.TREE_OPTIONS + " -B -J", "-C 0.25 -M 2", "-C 0.25 -M 2 -B -J" };
+
+	@Test
+	public void parallelTreesAreTheSequentialOnes() throws Exception {
+		for (String name : TestDataSets.NAMES)
+			checkAllOptions(name, TestDataSets.load(name));
+	}
+
+	@Test
+	public void parallelTreesAreTheSequentialOnesWithMissingValues() throws Exception {
+		for (String name : new String[] { "iris.arff", "german_credit_data.csv", "weather.nominal.arff" })
+			checkAllOptions(name + " with missing values",
+					TestDataSets.withMissingValues(TestDataSets.load(name), 0.15, 42));
+	}
+
+	private static void checkAllOptions(String name, Instances data) throws Exception {
+
+		for (String options : OPTIONS) {
+
+			CustomJ48Tree sequential = TestDataSets.build(data, options, 1);
+			String message = name + " with " + options;
+
+			for (int threads : new int[] { 2, 4 }) {
+
+				CustomJ48Tree parallel = TestDataSets.build(data, options, threads);
+
+				assertEquals(message, sequential.toString(), parallel.toString());
+				assertEquals(message, TestDataSets.dot(sequential, false), TestDataSets.dot(parallel, false));
+				assertEquals(message, TestDataSets.dot(sequential, true), TestDataSets.dot(parallel, true));
+			}
+		}
+	}
+}
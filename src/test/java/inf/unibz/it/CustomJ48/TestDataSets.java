@@ -0,0 +1,169 @@
+package inf.unibz.it.CustomJ48;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Data sets shared by the tests, read from the datasets directory as the
+ * console reads them
+ */
+final class TestDataSets {
+
+	// The bundled data sets, ARFF and CSV, some of them with missing values
+	static final String[] NAMES = { "weather.nominal.arff", "iris.arff", "soybean.arff", "diabetes.arff",
+			"german_credit_data.csv", "trainingData.csv", "ulegale_example.csv" };
+
+	private TestDataSets() {
+	}
+
+	/**
+	 * Reads a bundled data set, with the string attributes converted to nominal
+	 * ones and the class as last attribute
+	 *
+	 * @param name the name of the file in the datasets directory
+	 * @return the data set
+	 * @throws Exception if the data set cannot be read
+	 */
+	static Instances load(String name) throws Exception {
+		return CustomJ48.prepareDataSet(CustomJ48.readDataSet(file(name), false));
+	}
+
+	/**
+	 * Gets a bundled data set file
+	 *
+	 * @param name the name of the file in the datasets directory
+	 * @return the file
+	 */
+	static File file(String name) {
+		return new File("datasets", name);
+	}
+
+	/**
+	 * Copies a data set, removing some values of the attributes other than the
+	 * class
+	 *
+	 * @param data     the data set
+	 * @param fraction the fraction of the values removed
+	 * @param seed     the seed choosing the values
+	 * @return the data set with missing values
+	 */
+	static Instances withMissingValues(Instances data, double fraction, long seed) {
+
+		Instances copy = new Instances(data);
+		Random random = new Random(seed);
+
+		for (Instance instance : copy)
+			for (int i = 0; i < copy.numAttributes(); i++)
+				if (i != copy.classIndex() && random.nextDouble() < fraction)
+					instance.setMissing(i);
+
+		return copy;
+	}
+
+	/**
+	 * Creates random instances with the attributes of a data set: the nominal
+	 * values are chosen among the known ones, the numeric values are spread
+	 * beyond the range of the data set, and some values are missing
+	 *
+	 * @param data  the data set
+	 * @param count the number of instances
+	 * @param seed  the seed choosing the values
+	 * @return the random instances
+	 */
+	static Instances randomInstances(Instances data, int count, long seed) {
+
+		Instances random = new Instances(data, count);
+		Random values = new Random(seed);
+
+		for (int i = 0; i < count; i++) {
+
+			double[] instance = new double[data.numAttributes()];
+
+			for (int j = 0; j < instance.length; j++) {
+
+				Attribute attribute = data.attribute(j);
+
+				if (values.nextInt(10) == 0)
+					instance[j] = Utils.missingValue();
+				else if (attribute.isNominal())
+					instance[j] = attribute.numValues() == 0 ? Utils.missingValue() : values.nextInt(attribute.numValues());
+				else // around the values of the data set, also out of their range
+					instance[j] = data.kthSmallestValue(j, 1 + values.nextInt(data.numInstances()))
+							* (0.5 + values.nextDouble());
+			}
+
+			random.add(new DenseInstance(1.0, instance));
+		}
+
+		return random;
+	}
+
+	/**
+	 * Builds a tree with the given options
+	 *
+	 * @param data    the training data
+	 * @param options the options of J48
+	 * @param threads the number of build threads
+	 * @return the built tree
+	 * @throws Exception if the tree cannot be built
+	 */
+	static CustomJ48Tree build(Instances data, String options, int threads) throws Exception {
+
+		CustomJ48Tree tree = new CustomJ48Tree();
+		tree.setOptions(weka.core.Utils.splitOptions(options));
+		tree.setBuildThreads(threads);
+		tree.buildClassifier(data);
+
+		return tree;
+	}
+
+	/**
+	 * Exports a tree in the dot format
+	 *
+	 * @param tree    the built tree
+	 * @param pruning whether branches reached by no instances are pruned
+	 * @return the dot export
+	 * @throws Exception if the tree cannot be exported
+	 */
+	static String dot(CustomJ48Tree tree, boolean pruning) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree.writeDot(out, pruning, false);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Exports a tree in the JSON format
+	 *
+	 * @param tree    the built tree
+	 * @param pruning whether branches reached by no instances are pruned
+	 * @return the JSON export
+	 * @throws Exception if the tree cannot be exported
+	 */
+	static String json(CustomJ48Tree tree, boolean pruning) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree.writeJSON(out, pruning, false, false);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Exports a tree in the GraphML format
+	 *
+	 * @param tree    the built tree
+	 * @param pruning whether branches reached by no instances are pruned
+	 * @return the GraphML export
+	 * @throws Exception if the tree cannot be exported
+	 */
+	static String graphML(CustomJ48Tree tree, boolean pruning) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree.writeGraphML(out, pruning, false, true);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,84 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Checks that a tree restored from its snapshot is exported and classifies
+ * instances as the built one
+ */
+public class TreeSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void restoredTreesAreExportedAsTheBuiltOnes() throws Exception {
+
+		for (String name : TestDataSets.NAMES) {
+
+			Instances data = TestDataSets.load(name);
+			CustomJ48Tree built = TestDataSets.build(data, CustomJ48.TREE_OPTIONS, 1);
+			CustomJ48Tree restored = roundTrip(built, false).getTree();
+
+			assertSameExports(name, built, restored);
+
+			// with the class distribution attached and the identical subtrees written once
+			for (CustomJ48Tree tree : new CustomJ48Tree[] { built, restored }) {
+				tree.setNodePayload(CustomJ48Tree.NodePayload.DISTRIBUTION);
+				tree.setSharedSubtrees(true);
+			}
+
+			assertSameExports(name + " as a graph", built, restored);
+		}
+	}
+
+	@Test
+	public void restoredTreesClassifyAsTheBuiltOnes() throws Exception {
+
+		for (String name : TestDataSets.NAMES) {
+
+			Instances data = TestDataSets.withMissingValues(TestDataSets.load(name), 0.1, 7);
+			CustomJ48Tree built = TestDataSets.build(data, CustomJ48.TREE_OPTIONS, 1);
+			CustomJ48Tree restored = roundTrip(built, false).getTree();
+
+			assertEquals(name, built.getHeader().toString(), restored.getHeader().toString());
+
+			for (Instance instance : data)
+				assertEquals(name, built.classifyInstance(instance), restored.classifyInstance(instance), 0);
+		}
+	}
+
+	@Test
+	public void replacementIsKept() throws Exception {
+
+		CustomJ48Tree built = TestDataSets.build(TestDataSets.load("iris.arff"), CustomJ48.TREE_OPTIONS, 1);
+
+		assertTrue(roundTrip(built, true).isReplace());
+		assertFalse(roundTrip(built, false).isReplace());
+	}
+
+	private TreeSnapshot roundTrip(CustomJ48Tree tree, boolean replace) throws Exception {
+		File file = folder.newFile();
+		new TreeSnapshot(tree, replace).save(file);
+		return TreeSnapshot.load(file);
+	}
+
+	private static void assertSameExports(String name, CustomJ48Tree built, CustomJ48Tree restored) throws Exception {
+		for (boolean pruning : new boolean[] { false, true }) {
+			assertEquals(name, TestDataSets.dot(built, pruning), TestDataSets.dot(restored, pruning));
+			assertEquals(name, TestDataSets.json(built, pruning), TestDataSets.json(restored, pruning));
+			assertEquals(name, TestDataSets.graphML(built, pruning), TestDataSets.graphML(restored, pruning));
+		}
+	}
+}
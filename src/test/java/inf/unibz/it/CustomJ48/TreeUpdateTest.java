@@ -0,0 +1,204 @@
+package inf.unibz.it.CustomJ48;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Checks that a tree updated with new instances is the tree built from all the
+ * instances at once
+ */
+public class TreeUpdateTest {
+
+	// Unpruned trees are updated in place, pruned ones are built again
+	private static final String[] OPTIONS = { CustomJ48.TREE_OPTIONS, CustomJ48.TREE_OPTIONS + " -B",
+			"-C 0.25 -M 2" };
+
+	@Test
+	public void updatedTreesAreTheRebuiltOnes() throws Exception {
+
+		for (String name : TestDataSets.NAMES) {
+
+			Instances data = TestDataSets.load(name);
+
+			for (String options : OPTIONS) {
+
+				CustomJ48Tree rebuilt = TestDataSets.build(data, options, 1);
+
+				// the first instances, then the others in two updates
+				int first = data.numInstances() / 2;
+				int second = (data.numInstances() - first) / 2;
+
+				CustomJ48Tree updated = buildKeeping(new Instances(data, 0, first), options);
+				updated.update(new Instances(data, first, second));
+				updated.update(new Instances(data, first + second, data.numInstances() - first - second));
+
+				assertSameTree(name + " with " + options, rebuilt, updated);
+				assertEquals(data.numInstances(), updated.getTrainingData().numInstances());
+			}
+		}
+	}
+
+	@Test
+	public void appendedRowsAreReadAsTheWholeDataSet() throws Exception {
+
+		boolean extended = false; // whether some rows have added nominal values
+
+		for (String name : new String[] { "german_credit_data.csv", "trainingData.csv", "ulegale_example.csv" }) {
+
+			String[] lines = new String(Files.readAllBytes(TestDataSets.file(name).toPath()), StandardCharsets.UTF_8)
+					.split("\n", -1);
+
+			for (int split : new int[] { 10, lines.length / 2 }) {
+
+				String head = join(lines, 0, split);
+				String rows = join(lines, split, lines.length);
+
+				CustomJ48Tree rebuilt = buildKeeping(read(head + rows), CustomJ48.TREE_OPTIONS);
+				CustomJ48Tree updated = buildKeeping(read(head), CustomJ48.TREE_OPTIONS);
+
+				Instances appended = CustomJ48.readRows(stream(rows), updated.getHeader(), CustomJ48.InputFormat.CSV,
+						false);
+				extended |= !updated.getHeader().equalHeaders(appended);
+				updated.update(appended);
+
+				assertSameTree(name + " from line " + split, rebuilt, updated);
+				assertEquals(rebuilt.getHeader().toString(), updated.getHeader().toString());
+			}
+		}
+
+		assertTrue("No rows have added nominal values", extended);
+	}
+
+	@Test
+	public void rowsChangingTheTypeOfAnAttributeAreRejected() throws Exception {
+
+		CustomJ48Tree tree = buildKeeping(read("a,b,class\n1,x,yes\n2,y,no\n"), CustomJ48.TREE_OPTIONS);
+
+		try {
+			CustomJ48.readRows(stream("three,x,yes\n"), tree.getHeader(), CustomJ48.InputFormat.CSV, false);
+			fail("A numeric attribute has got a string");
+		} catch (IOException e) {
+			// expected, the whole data set would have a nominal attribute
+		}
+	}
+
+	@Test
+	public void failedUpdatesLeaveTheTreeAsItWas() throws Exception {
+
+		for (String name : new String[] { "soybean.arff", "german_credit_data.csv" }) {
+
+			Instances data = TestDataSets.load(name);
+			int first = data.numInstances() / 2;
+
+			for (String options : OPTIONS) {
+
+				CustomJ48Tree tree = buildKeeping(new Instances(data, 0, first), options);
+				String text = tree.toString();
+				String dot = TestDataSets.dot(tree, false);
+				String predictions = predictions(tree, data);
+
+				// a nominal value out of the attribute, which fails while the splits are chosen
+				Instances wrong = new Instances(data, first, 20);
+				int attribute = nominalAttribute(data);
+				wrong.instance(wrong.numInstances() - 1).setValue(attribute, data.attribute(attribute).numValues() + 3);
+
+				try {
+					tree.update(wrong);
+					fail(name + " with " + options + " has been updated with a wrong value");
+				} catch (Exception e) {
+					// expected
+				}
+
+				String message = name + " with " + options + " after a failed update";
+				assertEquals(message, text, tree.toString());
+				assertEquals(message, dot, TestDataSets.dot(tree, false));
+				assertEquals(message, predictions, predictions(tree, data));
+				assertEquals(message, first, tree.getTrainingData().numInstances());
+
+				// the tree can still be updated
+				tree.update(new Instances(data, first, data.numInstances() - first));
+				assertSameTree(message, TestDataSets.build(data, options, 1), tree);
+			}
+		}
+	}
+
+	@Test
+	public void treesKeepTheirTrainingDataOnlyWhenAsked() throws Exception {
+
+		CustomJ48Tree tree = TestDataSets.build(TestDataSets.load("iris.arff"), CustomJ48.TREE_OPTIONS, 1);
+
+		assertFalse(tree.isKeepTrainingData());
+		assertNull(tree.getTrainingData());
+
+		try {
+			tree.update(TestDataSets.load("iris.arff"));
+			fail("A tree without its training data has been updated");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private static CustomJ48Tree buildKeeping(Instances data, String options) throws Exception {
+
+		CustomJ48Tree tree = new CustomJ48Tree();
+		tree.setOptions(weka.core.Utils.splitOptions(options));
+		tree.setKeepTrainingData(true);
+		tree.buildClassifier(data);
+
+		return tree;
+	}
+
+	private static void assertSameTree(String message, CustomJ48Tree rebuilt, CustomJ48Tree updated)
+			throws Exception {
+		assertEquals(message, rebuilt.toString(), updated.toString());
+		assertEquals(message, TestDataSets.dot(rebuilt, false), TestDataSets.dot(updated, false));
+		assertEquals(message, TestDataSets.json(rebuilt, true), TestDataSets.json(updated, true));
+	}
+
+	/**
+	 * Classifies the instances with the flat predictor and with the tree
+	 */
+	private static String predictions(CustomJ48Tree tree, Instances data) throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (Instance instance : data)
+			text.append(tree.getPredictor().classifyInstance(instance)).append(' ')
+					.append(tree.classifyInstance(instance)).append('\n');
+		return text.toString();
+	}
+
+	private static int nominalAttribute(Instances data) {
+		for (int i = 0; i < data.numAttributes(); i++)
+			if (i != data.classIndex() && data.attribute(i).isNominal())
+				return i;
+		throw new IllegalArgumentException("No nominal attributes in " + data.relationName());
+	}
+
+	private static Instances read(String csv) throws Exception {
+		return CustomJ48.prepareDataSet(CustomJ48.readDataSet(stream(csv), CustomJ48.InputFormat.CSV, false));
+	}
+
+	private static ByteArrayInputStream stream(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String join(String[] lines, int from, int to) {
+		StringBuilder text = new StringBuilder();
+		for (int i = from; i < to; i++)
+			if (!lines[i].isEmpty())
+				text.append(lines[i]).append('\n');
+		return text.toString();
+	}
+}